@@ -0,0 +1,363 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+import android.widget.Toast;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+// Saves blob: URLs by streaming them out of the page in slices. The page script reads one slice at a
+// time as base64 and hands it over with chunk(); chunks are decoded and appended to the file on a writer
+// thread. When WINDOW_CHUNKS are waiting to be written, chunk() tells the page to stop and the writer
+// resumes it once the backlog is down to one, so neither side ever holds more than a few slices.
+// Registered once on the WebView; only transfers started from download() are accepted, so a page cannot
+// write files by calling the interface on its own.
+public class BlobDownloadBridge {
+    
+    private static final String TAG = "BlobDownloadBridge";
+    
+    public static final String JS_INTERFACE = "AndroidBlobBridge";
+    private static final String ID_PREFIX = "blob-";
+    
+    private static final int CHUNK_BYTES = 256 * 1024;
+    private static final int WINDOW_CHUNKS = 4;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final int WORK_QUEUE_CAPACITY = 64;
+    
+    // Page side of the protocol: begin(id, type, size), chunk(id, seq, base64) until the blob is
+    // exhausted, then finish(id, chunks). A false return from chunk() parks the pump until Java calls it.
+    private static final String TRANSFER_SCRIPT =
+        "(function(id, url, chunkSize) {" +
+        "  var bridge = window." + JS_INTERFACE + ";" +
+        "  var pumps = window.__androidBlobPumps = window.__androidBlobPumps || {};" +
+        "  fetch(url)" +
+        "    .then(function(response) { return response.blob(); })" +
+        "    .then(function(blob) {" +
+        "      if (!bridge.begin(id, blob.type || '', blob.size)) { return; }" +
+        "      var offset = 0, seq = 0;" +
+        "      var pump = function() {" +
+        "        if (offset >= blob.size) { delete pumps[id]; bridge.finish(id, seq); return; }" +
+        "        var reader = new FileReader();" +
+        "        reader.onload = function() {" +
+        "          var result = reader.result;" +
+        "          offset += chunkSize;" +
+        "          if (bridge.chunk(id, seq++, result.substring(result.indexOf(',') + 1))) { pump(); }" +
+        "        };" +
+        "        reader.onerror = function() { delete pumps[id]; bridge.fail(id, String(reader.error)); };" +
+        "        reader.readAsDataURL(blob.slice(offset, offset + chunkSize));" +
+        "      };" +
+        "      pumps[id] = pump;" +
+        "      pump();" +
+        "    })" +
+        "    .catch(function(error) { delete pumps[id]; bridge.fail(id, error.toString()); });" +
+        "})(%s, %s, %d);";
+    
+    private static final String RESUME_SCRIPT =
+        "(function(pumps, id) { if (pumps && pumps[id]) { pumps[id](); } })(window.__androidBlobPumps, %s);";
+    
+    private final Context context;
+    private final WebView webView;
+    private final DownloadManager ledger;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor writeExecutor;
+    
+    // Transfer token -> transfer; tokens not in here are rejected
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+    
+    // Rows left active by a process that died mid-transfer are failed once per process
+    private static boolean staleRowsFailed = false;
+    
+    // Bridges of live pages, so the downloads list can cancel a transfer without holding the page
+    private static final Set<BlobDownloadBridge> bridges = new CopyOnWriteArraySet<>();
+    
+    public BlobDownloadBridge(Context context, WebView webView) {
+        this.context = context;
+        this.webView = webView;
+        this.ledger = DownloadManager.getInstance(context);
+        bridges.add(this);
+        
+        // No rejection handler: a dropped chunk would corrupt the file, so a full queue fails the transfer
+        writeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "BlobWriter");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        
+        synchronized (BlobDownloadBridge.class) {
+            if (!staleRowsFailed) {
+                staleRowsFailed = true;
+                writeExecutor.execute(() -> {
+                    for (DownloadItem item : ledger.getActiveDownloads()) {
+                        if (isBlobDownload(item.downloadId)) {
+                            ledger.markDownloadFailed(item.downloadId);
+                        }
+                    }
+                });
+            }
+        }
+    }
+    
+    public static boolean isBlobDownload(String downloadId) {
+        return downloadId != null && downloadId.startsWith(ID_PREFIX);
+    }
+    
+    // Stops a transfer and deletes its partial file. The cleanup runs on the transfer's writer thread,
+    // behind the chunks already queued; the caller removes the ledger row.
+    public static void cancel(String downloadId) {
+        if (!isBlobDownload(downloadId)) {
+            return;
+        }
+        String token = downloadId.substring(ID_PREFIX.length());
+        for (BlobDownloadBridge bridge : bridges) {
+            Transfer transfer = bridge.transfers.get(token);
+            if (transfer != null) {
+                transfer.cancelled = true;
+                try {
+                    bridge.writeExecutor.execute(() -> bridge.fail(transfer, "Cancelled"));
+                } catch (RejectedExecutionException e) {
+                    // Writer gone or full; chunks check the flag, so nothing else touches the file
+                    bridge.fail(transfer, "Cancelled");
+                }
+                return;
+            }
+        }
+    }
+    
+    // Main thread
+    public void download(String blobUrl) {
+        String token = UUID.randomUUID().toString();
+        transfers.put(token, new Transfer(token));
+        webView.evaluateJavascript(String.format(Locale.US, TRANSFER_SCRIPT,
+                JSONObject.quote(token), JSONObject.quote(blobUrl), CHUNK_BYTES), null);
+    }
+    
+    // Main thread. Transfers still in flight can't finish without the page; their files are dropped.
+    public void shutdown() {
+        closed = true;
+        bridges.remove(this);
+        for (Transfer transfer : transfers.values()) {
+            fail(transfer, "Page closed");
+        }
+        writeExecutor.shutdown();
+    }
+    
+    @JavascriptInterface
+    public boolean begin(String token, String mimeType, long size) {
+        Transfer transfer = transfers.get(token);
+        if (transfer == null || transfer.file != null) {
+            return false;
+        }
+        String filename = "download_" + System.currentTimeMillis() + "." + FileTypeRegistry.getExtensionForMimeType(mimeType);
+        File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        try {
+            if (!downloadsDir.exists()) {
+                downloadsDir.mkdirs();
+            }
+            transfer.file = new File(downloadsDir, filename);
+            transfer.out = new FileOutputStream(transfer.file);
+        } catch (IOException e) {
+            Log.e(TAG, "💥 Error creating blob file", e);
+            fail(transfer, e.getMessage());
+            return false;
+        }
+        transfer.totalBytes = size;
+        ledger.addDownload(filename, "blob", transfer.downloadId);
+        // Keeps the process in the foreground while the page is still streaming
+        DownloadService.start(context);
+        Log.d(TAG, "🌐 Blob transfer started: " + filename + " (" + DownloadManager.formatFileSize(size) + ")");
+        return true;
+    }
+    
+    // Returns whether the page may send the next chunk right away
+    @JavascriptInterface
+    public boolean chunk(String token, int seq, String base64) {
+        Transfer transfer = transfers.get(token);
+        if (transfer == null || transfer.out == null) {
+            return false;
+        }
+        if (seq != transfer.nextSeq++) {
+            fail(transfer, "Chunk " + seq + " out of order");
+            return false;
+        }
+        synchronized (transfer) {
+            transfer.pending++;
+        }
+        try {
+            writeExecutor.execute(() -> writeChunk(transfer, base64));
+        } catch (RejectedExecutionException e) {
+            fail(transfer, "Writer queue full");
+            return false;
+        }
+        synchronized (transfer) {
+            if (transfer.pending >= WINDOW_CHUNKS) {
+                transfer.parked = true;
+                return false;
+            }
+            return true;
+        }
+    }
+    
+    @JavascriptInterface
+    public void finish(String token, int chunks) {
+        Transfer transfer = transfers.get(token);
+        if (transfer == null || transfer.out == null) {
+            return;
+        }
+        if (chunks != transfer.nextSeq) {
+            fail(transfer, "Expected " + transfer.nextSeq + " chunks, page sent " + chunks);
+            return;
+        }
+        try {
+            writeExecutor.execute(() -> complete(transfer));
+        } catch (RejectedExecutionException e) {
+            fail(transfer, "Writer queue full");
+        }
+    }
+    
+    @JavascriptInterface
+    public void fail(String token, String error) {
+        Transfer transfer = transfers.get(token);
+        if (transfer != null) {
+            fail(transfer, error);
+        }
+    }
+    
+    // Writer thread
+    private void writeChunk(Transfer transfer, String base64) {
+        if (transfer.failed || transfer.cancelled) {
+            return;
+        }
+        try {
+            byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
+            transfer.out.write(bytes);
+            transfer.written += bytes.length;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "💥 Error writing blob chunk", e);
+            fail(transfer, e.getMessage());
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        if (now - transfer.lastProgressAt >= PROGRESS_INTERVAL_MS && transfer.totalBytes > 0) {
+            transfer.lastProgressAt = now;
+            int progress = (int) Math.min(99, transfer.written * 100 / transfer.totalBytes);
+            ledger.updateDownloadProgress(transfer.downloadId, progress, transfer.written, transfer.totalBytes);
+        }
+        
+        boolean resume;
+        synchronized (transfer) {
+            transfer.pending--;
+            resume = transfer.parked && transfer.pending <= 1;
+            if (resume) {
+                transfer.parked = false;
+            }
+        }
+        if (resume) {
+            String script = String.format(Locale.US, RESUME_SCRIPT, JSONObject.quote(transfer.token));
+            mainHandler.post(() -> {
+                if (!closed) {
+                    webView.evaluateJavascript(script, null);
+                }
+            });
+        }
+    }
+    
+    // Writer thread, after the last chunk
+    private void complete(Transfer transfer) {
+        if (transfer.failed) {
+            return;
+        }
+        if (transfer.cancelled) {
+            fail(transfer, "Cancelled");
+            return;
+        }
+        try {
+            transfer.out.close();
+        } catch (IOException e) {
+            fail(transfer, e.getMessage());
+            return;
+        }
+        if (transfer.written != transfer.totalBytes) {
+            fail(transfer, "Got " + transfer.written + " of " + transfer.totalBytes + " bytes");
+            return;
+        }
+        transfers.remove(transfer.token);
+        ledger.updateDownloadProgress(transfer.downloadId, 100, transfer.written, transfer.written);
+        
+        String filename = transfer.file.getName();
+        Log.d(TAG, "✅ Blob file saved: " + transfer.file.getAbsolutePath());
+        mainHandler.post(() -> Toast.makeText(context, "Blob file downloaded: " + filename, Toast.LENGTH_LONG).show());
+    }
+    
+    private void fail(Transfer transfer, String error) {
+        synchronized (transfer) {
+            if (transfer.failed) {
+                return;
+            }
+            transfer.failed = true;
+        }
+        transfers.remove(transfer.token);
+        Log.e(TAG, "Blob download error: " + error);
+        if (transfer.out != null) {
+            try {
+                transfer.out.close();
+            } catch (IOException ignored) {
+            }
+            transfer.file.delete();
+            if (transfer.cancelled) {
+                // The user asked for it; the downloads list removes the row and says so
+                Log.d(TAG, "⏹️ Blob transfer cancelled: " + transfer.file.getName());
+                return;
+            }
+            ledger.markDownloadFailed(transfer.downloadId);
+        }
+        mainHandler.post(() -> Toast.makeText(context, "Blob download failed: " + error, Toast.LENGTH_LONG).show());
+    }
+    
+    private static class Transfer {
+        final String token;
+        final String downloadId;
+        
+        // Set by begin() on the JavaBridge thread, then written only by the writer thread
+        File file;
+        FileOutputStream out;
+        long totalBytes;
+        long written;
+        long lastProgressAt;
+        
+        // JavaBridge thread only
+        int nextSeq;
+        
+        // Guarded by the transfer
+        int pending;
+        boolean parked;
+        volatile boolean failed;
+        volatile boolean cancelled;
+        
+        Transfer(String token) {
+            this.token = token;
+            this.downloadId = ID_PREFIX + token;
+        }
+    }
+}
\ No newline at end of file
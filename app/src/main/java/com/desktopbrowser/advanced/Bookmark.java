@@ -6,6 +6,10 @@ public class Bookmark {
     private String url;
     private long timestamp;
     private String favicon;
+    private long parentId = BookmarkManager.ROOT_FOLDER_ID;
+    private int position;
+    private boolean folder;
+    private int depth;
     
     public Bookmark() {}
     
@@ -15,6 +19,11 @@ public class Bookmark {
         this.timestamp = System.currentTimeMillis();
     }
     
+    public Bookmark(String title, String url, long parentId) {
+        this(title, url);
+        this.parentId = parentId;
+    }
+    
     public Bookmark(long id, String title, String url, long timestamp, String favicon) {
         this.id = id;
         this.title = title;
@@ -38,4 +47,17 @@ public class Bookmark {
     
     public String getFavicon() { return favicon; }
     public void setFavicon(String favicon) { this.favicon = favicon; }
+    
+    public long getParentId() { return parentId; }
+    public void setParentId(long parentId) { this.parentId = parentId; }
+    
+    public int getPosition() { return position; }
+    public void setPosition(int position) { this.position = position; }
+    
+    public boolean isFolder() { return folder; }
+    public void setFolder(boolean folder) { this.folder = folder; }
+    
+    // Number of folders above this entry (0 at the root)
+    public int getDepth() { return depth; }
+    public void setDepth(int depth) { this.depth = depth; }
 }
\ No newline at end of file
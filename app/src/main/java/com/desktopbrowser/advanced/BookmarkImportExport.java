@@ -0,0 +1,407 @@
+package com.desktopbrowser.advanced;
+
+import android.util.Log;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+// Streaming import/export of bookmarks as Netscape bookmark HTML (what every browser exports) or JSON.
+// Nothing holds the whole file or the whole bookmark table: imports are parsed a tag/token at a time and
+// written through BookmarkManager.BulkImport; exports walk one folder cursor per nesting level.
+public class BookmarkImportExport {
+    
+    private static final String TAG = "BookmarkImportExport";
+    
+    // Bounds for a single tag or text run; anything longer (e.g. inline ICON data) is read past, not kept
+    private static final int MAX_TAG_LENGTH = 8 * 1024;
+    private static final int MAX_TEXT_LENGTH = 2 * 1024;
+    
+    private static final String JSON_FORMAT = "desktopbrowser-bookmarks";
+    private static final int JSON_VERSION = 1;
+    
+    private BookmarkImportExport() {}
+    
+    // Detects the format from the first non-blank character and imports into targetFolderId.
+    // Returns the number of bookmarks added; URLs that are already bookmarked are skipped.
+    public static int importBookmarks(BookmarkManager bookmarkManager, InputStream in, long targetFolderId) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        BookmarkManager.BulkImport batch = bookmarkManager.beginImport();
+        try {
+            int first = peekFirstSignificantChar(reader);
+            if (first == '{' || first == '[') {
+                importJson(reader, batch, targetFolderId);
+            } else {
+                importNetscapeHtml(reader, batch, targetFolderId);
+            }
+        } finally {
+            batch.finish();
+        }
+        return batch.getImportedCount();
+    }
+    
+    private static int peekFirstSignificantChar(BufferedReader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c == -1) {
+                return c;
+            }
+            if (!Character.isWhitespace(c) && c != '\uFEFF') {
+                reader.reset();
+                return c;
+            }
+        }
+    }
+    
+    // ---- Netscape bookmark HTML ----
+    
+    // The format is loose HTML: <DT><H3>Folder</H3> is followed by a <DL> holding the folder's entries,
+    // and each bookmark is <DT><A HREF="..." ADD_DATE="...">Title</A>. Tags are matched case-insensitively
+    // and unclosed <DT>/<p> tags are ignored.
+    private static void importNetscapeHtml(Reader reader, BookmarkManager.BulkImport batch, long targetFolderId) throws IOException {
+        Deque<Long> folders = new ArrayDeque<>();
+        StringBuilder tag = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        
+        long pendingFolderId = -1;
+        String linkUrl = null;
+        long linkDate = 0;
+        long folderDate = 0;
+        boolean inFolderTitle = false;
+        
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c != '<') {
+                if ((inFolderTitle || linkUrl != null) && text.length() < MAX_TEXT_LENGTH) {
+                    text.append((char) c);
+                }
+                continue;
+            }
+            
+            readTag(reader, tag);
+            String name = tagName(tag);
+            long parentId = folders.isEmpty() ? targetFolderId : folders.peek();
+            
+            if (name.equals("dl")) {
+                // The outermost list is the target folder; later ones belong to the folder just declared
+                folders.push(pendingFolderId != -1 ? pendingFolderId : parentId);
+                pendingFolderId = -1;
+            } else if (name.equals("/dl")) {
+                if (!folders.isEmpty()) {
+                    folders.pop();
+                }
+            } else if (name.equals("h3")) {
+                pendingFolderId = -1;
+                inFolderTitle = true;
+                folderDate = parseDate(attribute(tag, "add_date"));
+                text.setLength(0);
+            } else if (name.equals("/h3") && inFolderTitle) {
+                inFolderTitle = false;
+                String title = decodeEntities(text.toString().trim());
+                pendingFolderId = batch.addFolder(title.isEmpty() ? "Imported" : title, folderDate, parentId);
+            } else if (name.equals("a")) {
+                pendingFolderId = -1;
+                linkUrl = attribute(tag, "href");
+                linkDate = parseDate(attribute(tag, "add_date"));
+                text.setLength(0);
+            } else if (name.equals("/a") && linkUrl != null) {
+                String url = decodeEntities(linkUrl.trim());
+                if (isImportableUrl(url)) {
+                    String title = decodeEntities(text.toString().trim());
+                    batch.addBookmark(title.isEmpty() ? url : title, url, linkDate, parentId);
+                }
+                linkUrl = null;
+            }
+        }
+    }
+    
+    // Reads up to the closing '>' of a tag whose '<' was just consumed, keeping at most MAX_TAG_LENGTH chars
+    private static void readTag(Reader reader, StringBuilder tag) throws IOException {
+        tag.setLength(0);
+        char quote = 0;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                return;
+            }
+            if (tag.length() < MAX_TAG_LENGTH) {
+                tag.append((char) c);
+            }
+        }
+    }
+    
+    private static String tagName(StringBuilder tag) {
+        int end = 0;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end))) {
+            end++;
+        }
+        return tag.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+    
+    // Value of name="..." (or unquoted) inside a tag, or null
+    private static String attribute(StringBuilder tag, String name) {
+        int length = tag.length();
+        int i = 0;
+        while (i < length && !Character.isWhitespace(tag.charAt(i))) {
+            i++;
+        }
+        while (i < length) {
+            while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < length && tag.charAt(i) != '=' && !Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            String attributeName = tag.substring(nameStart, i);
+            if (i >= length || tag.charAt(i) != '=') {
+                if (i == nameStart) {
+                    i++;
+                }
+                continue;
+            }
+            i++;
+            
+            int valueStart;
+            int valueEnd;
+            if (i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+                char quote = tag.charAt(i);
+                valueStart = ++i;
+                while (i < length && tag.charAt(i) != quote) {
+                    i++;
+                }
+                valueEnd = i++;
+            } else {
+                valueStart = i;
+                while (i < length && !Character.isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            if (attributeName.equalsIgnoreCase(name)) {
+                return tag.substring(valueStart, valueEnd);
+            }
+        }
+        return null;
+    }
+    
+    // ADD_DATE is in seconds since the epoch
+    private static long parseDate(String seconds) {
+        if (seconds != null) {
+            try {
+                return Long.parseLong(seconds.trim()) * 1000;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return System.currentTimeMillis();
+    }
+    
+    // Browser-internal entries (place:, javascript:, about:) do not survive a move to another browser
+    private static boolean isImportableUrl(String url) {
+        String lower = url.toLowerCase(Locale.ROOT);
+        return lower.startsWith("http://") || lower.startsWith("https://")
+                || lower.startsWith("ftp://") || lower.startsWith("file://");
+    }
+    
+    private static String decodeEntities(String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        StringBuilder decoded = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            int semicolon = c == '&' ? value.indexOf(';', i) : -1;
+            if (semicolon < 0 || semicolon - i > 10) {
+                decoded.append(c);
+                i++;
+                continue;
+            }
+            String entity = value.substring(i + 1, semicolon);
+            String replacement = null;
+            if (entity.equals("amp")) {
+                replacement = "&";
+            } else if (entity.equals("lt")) {
+                replacement = "<";
+            } else if (entity.equals("gt")) {
+                replacement = ">";
+            } else if (entity.equals("quot")) {
+                replacement = "\"";
+            } else if (entity.equals("apos")) {
+                replacement = "'";
+            } else if (entity.startsWith("#")) {
+                try {
+                    int codePoint = entity.startsWith("#x") || entity.startsWith("#X")
+                            ? Integer.parseInt(entity.substring(2), 16)
+                            : Integer.parseInt(entity.substring(1));
+                    replacement = new String(Character.toChars(codePoint));
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+            if (replacement != null) {
+                decoded.append(replacement);
+                i = semicolon + 1;
+            } else {
+                decoded.append(c);
+                i++;
+            }
+        }
+        return decoded.toString();
+    }
+    
+    private static String encodeEntities(String value) {
+        StringBuilder encoded = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': encoded.append("&amp;"); break;
+                case '<': encoded.append("&lt;"); break;
+                case '>': encoded.append("&gt;"); break;
+                case '"': encoded.append("&quot;"); break;
+                default: encoded.append(c);
+            }
+        }
+        return encoded.toString();
+    }
+    
+    public static void exportNetscapeHtml(BookmarkManager bookmarkManager, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write("<!DOCTYPE NETSCAPE-Bookmark-file-1>\n");
+        writer.write("<META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=UTF-8\">\n");
+        writer.write("<TITLE>Bookmarks</TITLE>\n");
+        writer.write("<H1>Bookmarks</H1>\n");
+        writeNetscapeFolder(bookmarkManager, writer, BookmarkManager.ROOT_FOLDER_ID, "");
+        writer.flush();
+    }
+    
+    private static void writeNetscapeFolder(BookmarkManager bookmarkManager, Writer writer, long folderId, String indent) throws IOException {
+        writer.write(indent + "<DL><p>\n");
+        String childIndent = indent + "    ";
+        bookmarkManager.visitFolder(folderId, bookmark -> {
+            String addDate = String.valueOf(bookmark.getTimestamp() / 1000);
+            if (bookmark.isFolder()) {
+                writer.write(childIndent + "<DT><H3 ADD_DATE=\"" + addDate + "\">"
+                        + encodeEntities(bookmark.getTitle()) + "</H3>\n");
+                writeNetscapeFolder(bookmarkManager, writer, bookmark.getId(), childIndent);
+            } else {
+                writer.write(childIndent + "<DT><A HREF=\"" + encodeEntities(bookmark.getUrl()) + "\" ADD_DATE=\""
+                        + addDate + "\">" + encodeEntities(bookmark.getTitle()) + "</A>\n");
+            }
+        });
+        writer.write(indent + "</DL><p>\n");
+    }
+    
+    // ---- JSON ----
+    
+    // {"format": "desktopbrowser-bookmarks", "version": 1, "bookmarks": [node, ...]}
+    // node: {"title", "url", "added"} or, for folders, {"title", "added", "children": [node, ...]}.
+    // A bare top-level array of nodes is accepted too. Folders are created when "children" is reached,
+    // so their "title" must come first (as it does in our own exports).
+    private static void importJson(Reader reader, BookmarkManager.BulkImport batch, long targetFolderId) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.setLenient(true);
+        if (json.peek() == JsonToken.BEGIN_ARRAY) {
+            readJsonNodes(json, batch, targetFolderId);
+            return;
+        }
+        
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("bookmarks")) {
+                readJsonNodes(json, batch, targetFolderId);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+    
+    private static void readJsonNodes(JsonReader json, BookmarkManager.BulkImport batch, long parentId) throws IOException {
+        json.beginArray();
+        while (json.hasNext()) {
+            readJsonNode(json, batch, parentId);
+        }
+        json.endArray();
+    }
+    
+    private static void readJsonNode(JsonReader json, BookmarkManager.BulkImport batch, long parentId) throws IOException {
+        String title = null;
+        String url = null;
+        long added = System.currentTimeMillis();
+        boolean isFolder = false;
+        
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+            } else if (name.equals("title")) {
+                title = json.nextString();
+            } else if (name.equals("url")) {
+                url = json.nextString();
+            } else if (name.equals("added")) {
+                added = json.nextLong();
+            } else if (name.equals("children")) {
+                isFolder = true;
+                long folderId = batch.addFolder(title != null && !title.isEmpty() ? title : "Imported", added, parentId);
+                readJsonNodes(json, batch, folderId);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        
+        if (!isFolder && url != null && isImportableUrl(url)) {
+            batch.addBookmark(title != null && !title.isEmpty() ? title : url, url, added, parentId);
+        }
+    }
+    
+    public static void exportJson(BookmarkManager bookmarkManager, OutputStream out) throws IOException {
+        JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("format").value(JSON_FORMAT);
+        json.name("version").value(JSON_VERSION);
+        json.name("bookmarks");
+        writeJsonFolder(bookmarkManager, json, BookmarkManager.ROOT_FOLDER_ID);
+        json.endObject();
+        json.flush();
+        Log.d(TAG, "✅ Bookmarks exported as JSON");
+    }
+    
+    private static void writeJsonFolder(BookmarkManager bookmarkManager, JsonWriter json, long folderId) throws IOException {
+        json.beginArray();
+        bookmarkManager.visitFolder(folderId, bookmark -> {
+            json.beginObject();
+            json.name("title").value(bookmark.getTitle());
+            json.name("added").value(bookmark.getTimestamp());
+            if (bookmark.isFolder()) {
+                json.name("children");
+                writeJsonFolder(bookmarkManager, json, bookmark.getId());
+            } else {
+                json.name("url").value(bookmark.getUrl());
+            }
+            json.endObject();
+        });
+        json.endArray();
+    }
+}
\ No newline at end of file
@@ -3,15 +3,26 @@ package com.desktopbrowser.advanced;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class BookmarkManager extends SQLiteOpenHelper {
     
+    private static final String TAG = "BookmarkManager";
     private static final String DATABASE_NAME = "bookmarks.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     
     private static final String TABLE_BOOKMARKS = "bookmarks";
     private static final String COLUMN_ID = "id";
@@ -19,9 +30,40 @@ public class BookmarkManager extends SQLiteOpenHelper {
     private static final String COLUMN_URL = "url";
     private static final String COLUMN_TIMESTAMP = "timestamp";
     private static final String COLUMN_FAVICON = "favicon";
+    private static final String COLUMN_PARENT_ID = "parent_id";
+    private static final String COLUMN_POSITION = "position";
+    private static final String COLUMN_IS_FOLDER = "is_folder";
+    // Materialized path of the containing folder: "/" at the root, "/4/" inside folder 4, "/4/9/" below that.
+    // A folder's subtree is every row whose path starts with its path + id + "/", i.e. one index range.
+    private static final String COLUMN_PATH = "path";
+    
+    private static final String INDEX_BOOKMARKS_URL = "idx_bookmarks_url";
+    private static final String INDEX_BOOKMARKS_CHILDREN = "idx_bookmarks_children";
+    private static final String INDEX_BOOKMARKS_PATH = "idx_bookmarks_path";
+    private static final String INDEX_BOOKMARKS_FOLDERS = "idx_bookmarks_folders";
+    
+    public static final long ROOT_FOLDER_ID = 0;
+    private static final String ROOT_PATH = "/";
+    
+    // Bulk imports commit this many bookmarks per transaction
+    private static final int IMPORT_BATCH_SIZE = 500;
+    
+    private static final String INSERT_IGNORE_BOOKMARK_SQL = "INSERT OR IGNORE INTO " + TABLE_BOOKMARKS + " ("
+            + COLUMN_TITLE + ", " + COLUMN_URL + ", " + COLUMN_TIMESTAMP + ", "
+            + COLUMN_PARENT_ID + ", " + COLUMN_POSITION + ", " + COLUMN_PATH + ")"
+            + " VALUES (?, ?, ?, ?, ?, ?)";
     
     private static BookmarkManager instance;
     
+    // Every bookmarked URL, so isBookmarked() (called on each menu prepare) never touches the database.
+    // Loaded once on first lookup, then kept in step with adds and removes (under the set's lock, so a
+    // concurrent first load cannot pick up a row that is being removed).
+    private final Set<String> bookmarkedUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean urlsLoaded = false;
+    
+    // In-memory consumers of bookmark changes (e.g. SuggestionEngine); called on the caller's thread
+    private final List<BookmarkListener> listeners = new CopyOnWriteArrayList<>();
+    
     private BookmarkManager(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -35,22 +77,94 @@ public class BookmarkManager extends SQLiteOpenHelper {
     
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createBookmarkTable(db);
+        createBookmarkIndexes(db);
+    }
+    
+    // Folders are rows with is_folder = 1 and no url
+    private void createBookmarkTable(SQLiteDatabase db) {
         String createTable = "CREATE TABLE " + TABLE_BOOKMARKS + "("
                 + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + COLUMN_TITLE + " TEXT NOT NULL,"
-                + COLUMN_URL + " TEXT NOT NULL,"
+                + COLUMN_URL + " TEXT,"
                 + COLUMN_TIMESTAMP + " INTEGER,"
-                + COLUMN_FAVICON + " TEXT"
+                + COLUMN_FAVICON + " TEXT,"
+                + COLUMN_PARENT_ID + " INTEGER NOT NULL DEFAULT " + ROOT_FOLDER_ID + ","
+                + COLUMN_POSITION + " INTEGER NOT NULL DEFAULT 0,"
+                + COLUMN_IS_FOLDER + " INTEGER NOT NULL DEFAULT 0,"
+                + COLUMN_PATH + " TEXT NOT NULL DEFAULT '" + ROOT_PATH + "'"
                 + ")";
         db.execSQL(createTable);
     }
     
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKMARKS);
-        onCreate(db);
+        // Step through each schema version so existing bookmarks are preserved
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            upgradeToVersion3(db);
+        }
+    }
+    
+    // Version 2: UNIQUE index on url
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        // Version 1 allowed the same URL to be bookmarked twice; keep the newest of each
+        db.execSQL("DELETE FROM " + TABLE_BOOKMARKS + " WHERE " + COLUMN_ID + " NOT IN ("
+                + "SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE_BOOKMARKS + " GROUP BY " + COLUMN_URL + ")");
+        createUrlIndex(db);
+        Log.d(TAG, "✅ Bookmark schema upgraded to version 2");
     }
     
+    // Version 3: folders. url becomes nullable, which SQLite can only do by rebuilding the table.
+    // Existing bookmarks land in the root folder, keeping their newest-first order.
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        String oldTable = TABLE_BOOKMARKS + "_v2";
+        db.execSQL("ALTER TABLE " + TABLE_BOOKMARKS + " RENAME TO " + oldTable);
+        createBookmarkTable(db);
+        db.execSQL("INSERT INTO " + TABLE_BOOKMARKS + " (" + COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_URL + ", "
+                + COLUMN_TIMESTAMP + ", " + COLUMN_FAVICON + ") SELECT " + COLUMN_ID + ", " + COLUMN_TITLE + ", "
+                + COLUMN_URL + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_FAVICON + " FROM " + oldTable);
+        db.execSQL("DROP TABLE " + oldTable);
+        createBookmarkIndexes(db);
+        
+        SQLiteStatement setPosition = db.compileStatement("UPDATE " + TABLE_BOOKMARKS
+                + " SET " + COLUMN_POSITION + " = ? WHERE " + COLUMN_ID + " = ?");
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + " FROM " + TABLE_BOOKMARKS
+                + " ORDER BY " + COLUMN_TIMESTAMP + " DESC", null);
+        try {
+            int position = 0;
+            while (cursor.moveToNext()) {
+                setPosition.bindLong(1, position++);
+                setPosition.bindLong(2, cursor.getLong(0));
+                setPosition.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            setPosition.close();
+        }
+        Log.d(TAG, "✅ Bookmark schema upgraded to version 3");
+    }
+    
+    private void createUrlIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_BOOKMARKS_URL
+                + " ON " + TABLE_BOOKMARKS + "(" + COLUMN_URL + ")");
+    }
+    
+    private void createBookmarkIndexes(SQLiteDatabase db) {
+        createUrlIndex(db);
+        // Listing a folder reads its children in display order straight off this index
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BOOKMARKS_CHILDREN
+                + " ON " + TABLE_BOOKMARKS + "(" + COLUMN_PARENT_ID + ", " + COLUMN_POSITION + ")");
+        // Subtree queries and moves are range scans on the path prefix
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BOOKMARKS_PATH
+                + " ON " + TABLE_BOOKMARKS + "(" + COLUMN_PATH + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BOOKMARKS_FOLDERS
+                + " ON " + TABLE_BOOKMARKS + "(" + COLUMN_IS_FOLDER + ", " + COLUMN_PATH + ")");
+    }
+    
+    // Appends the bookmark to the end of bookmark.getParentId() (the root folder by default)
     public long addBookmark(Bookmark bookmark) {
         SQLiteDatabase db = this.getWritableDatabase();
         ContentValues values = new ContentValues();
@@ -60,18 +174,131 @@ public class BookmarkManager extends SQLiteOpenHelper {
         values.put(COLUMN_TIMESTAMP, bookmark.getTimestamp());
         values.put(COLUMN_FAVICON, bookmark.getFavicon());
         
-        long id = db.insert(TABLE_BOOKMARKS, null, values);
-        db.close();
+        // Already bookmarked: the UNIQUE index rejects the row and -1 is returned
+        long id;
+        synchronized (bookmarkedUrls) {
+            id = insertIntoFolder(db, values, bookmark.getParentId());
+            if (id == -1) {
+                return id;
+            }
+            if (bookmark.getUrl() != null) {
+                bookmarkedUrls.add(bookmark.getUrl());
+            }
+        }
+        bookmark.setId(id);
+        
+        for (BookmarkListener listener : listeners) {
+            listener.onBookmarkAdded(bookmark);
+        }
+        return id;
+    }
+    
+    public long createFolder(String title, long parentId) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TITLE, title);
+        values.put(COLUMN_TIMESTAMP, System.currentTimeMillis());
+        values.put(COLUMN_IS_FOLDER, 1);
         
+        long id = insertIntoFolder(this.getWritableDatabase(), values, parentId);
+        for (BookmarkListener listener : listeners) {
+            listener.onBookmarksInvalidated();
+        }
         return id;
     }
     
+    // Inserts at the end of the folder; an unknown folder falls back to the root
+    private long insertIntoFolder(SQLiteDatabase db, ContentValues values, long parentId) {
+        String parentPath = getChildPath(db, parentId);
+        if (parentPath == null) {
+            parentId = ROOT_FOLDER_ID;
+            parentPath = ROOT_PATH;
+        }
+        
+        db.beginTransaction();
+        try {
+            values.put(COLUMN_PARENT_ID, parentId);
+            values.put(COLUMN_POSITION, nextPosition(db, parentId));
+            values.put(COLUMN_PATH, parentPath);
+            long id = db.insertWithOnConflict(TABLE_BOOKMARKS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+    
+    // MAX over the (parent_id, position) index is a single seek
+    private static long nextPosition(SQLiteDatabase db, long parentId) {
+        return DatabaseUtils.longForQuery(db, "SELECT COALESCE(MAX(" + COLUMN_POSITION + ") + 1, 0) FROM "
+                + TABLE_BOOKMARKS + " WHERE " + COLUMN_PARENT_ID + " = ?", new String[]{String.valueOf(parentId)});
+    }
+    
+    // Path prefix shared by everything inside the folder, or null if folderId is not a folder
+    private static String getChildPath(SQLiteDatabase db, long folderId) {
+        if (folderId == ROOT_FOLDER_ID) {
+            return ROOT_PATH;
+        }
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_PATH + " FROM " + TABLE_BOOKMARKS
+                + " WHERE " + COLUMN_ID + " = ? AND " + COLUMN_IS_FOLDER + " = 1",
+                new String[]{String.valueOf(folderId)});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) + folderId + "/" : null;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    // Upper bound for a path-prefix range scan: every path under "/4/" sorts before "/40"
+    // because '0' is the character right after '/'
+    private static String prefixEnd(String prefix) {
+        return prefix.substring(0, prefix.length() - 1) + '0';
+    }
+    
+    // Every bookmark (not folders), newest first
     public List<Bookmark> getAllBookmarks() {
+        String selectQuery = "SELECT * FROM " + TABLE_BOOKMARKS + " WHERE " + COLUMN_IS_FOLDER + " = 0"
+                + " ORDER BY " + COLUMN_TIMESTAMP + " DESC";
+        return queryBookmarks(selectQuery, null);
+    }
+    
+    // Direct children of one folder, in their stored order
+    public List<Bookmark> getFolderContents(long folderId) {
+        String selectQuery = "SELECT * FROM " + TABLE_BOOKMARKS + " WHERE " + COLUMN_PARENT_ID + " = ?"
+                + " ORDER BY " + COLUMN_POSITION;
+        return queryBookmarks(selectQuery, new String[]{String.valueOf(folderId)});
+    }
+    
+    // Every bookmark anywhere below the folder, grouped by containing folder
+    public List<Bookmark> getSubtreeBookmarks(long folderId) {
+        String childPath = getChildPath(this.getReadableDatabase(), folderId);
+        if (childPath == null) {
+            return new ArrayList<>();
+        }
+        String selectQuery = "SELECT * FROM " + TABLE_BOOKMARKS
+                + " WHERE " + COLUMN_PATH + " >= ? AND " + COLUMN_PATH + " < ? AND " + COLUMN_IS_FOLDER + " = 0"
+                + " ORDER BY " + COLUMN_PATH + ", " + COLUMN_POSITION;
+        return queryBookmarks(selectQuery, new String[]{childPath, prefixEnd(childPath)});
+    }
+    
+    // All folders in depth-first order, for folder pickers (see Bookmark.getDepth())
+    public List<Bookmark> getAllFolders() {
+        String selectQuery = "SELECT * FROM " + TABLE_BOOKMARKS + " WHERE " + COLUMN_IS_FOLDER + " = 1"
+                + " ORDER BY " + COLUMN_PATH + " || " + COLUMN_ID + " || '/'";
+        return queryBookmarks(selectQuery, null);
+    }
+    
+    public Bookmark getFolder(long folderId) {
+        List<Bookmark> folders = queryBookmarks("SELECT * FROM " + TABLE_BOOKMARKS
+                + " WHERE " + COLUMN_ID + " = ? AND " + COLUMN_IS_FOLDER + " = 1",
+                new String[]{String.valueOf(folderId)});
+        return folders.isEmpty() ? null : folders.get(0);
+    }
+    
+    private List<Bookmark> queryBookmarks(String selectQuery, String[] selectionArgs) {
         List<Bookmark> bookmarks = new ArrayList<>();
-        String selectQuery = "SELECT * FROM " + TABLE_BOOKMARKS + " ORDER BY " + COLUMN_TIMESTAMP + " DESC";
         
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
+        Cursor cursor = db.rawQuery(selectQuery, selectionArgs);
         
         if (cursor.moveToFirst()) {
             int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
@@ -79,6 +306,10 @@ public class BookmarkManager extends SQLiteOpenHelper {
             int urlIndex = cursor.getColumnIndexOrThrow(COLUMN_URL);
             int timestampIndex = cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP);
             int faviconIndex = cursor.getColumnIndexOrThrow(COLUMN_FAVICON);
+            int parentIdIndex = cursor.getColumnIndexOrThrow(COLUMN_PARENT_ID);
+            int positionIndex = cursor.getColumnIndexOrThrow(COLUMN_POSITION);
+            int isFolderIndex = cursor.getColumnIndexOrThrow(COLUMN_IS_FOLDER);
+            int pathIndex = cursor.getColumnIndexOrThrow(COLUMN_PATH);
             
             do {
                 Bookmark bookmark = new Bookmark();
@@ -87,37 +318,357 @@ public class BookmarkManager extends SQLiteOpenHelper {
                 bookmark.setUrl(cursor.getString(urlIndex));
                 bookmark.setTimestamp(cursor.getLong(timestampIndex));
                 bookmark.setFavicon(cursor.getString(faviconIndex));
+                bookmark.setParentId(cursor.getLong(parentIdIndex));
+                bookmark.setPosition(cursor.getInt(positionIndex));
+                bookmark.setFolder(cursor.getInt(isFolderIndex) != 0);
+                bookmark.setDepth(countSegments(cursor.getString(pathIndex)));
                 
                 bookmarks.add(bookmark);
             } while (cursor.moveToNext());
         }
         
         cursor.close();
-        db.close();
         return bookmarks;
     }
     
-    public boolean isBookmarked(String url) {
+    // Streams one folder's children to the visitor in stored order without building a list,
+    // so exports stay flat in memory however many bookmarks a folder holds.
+    // The visitor may recurse into subfolders; each level keeps only its own cursor open.
+    public void visitFolder(long folderId, BookmarkVisitor visitor) throws IOException {
         SQLiteDatabase db = this.getReadableDatabase();
-        String query = "SELECT 1 FROM " + TABLE_BOOKMARKS + " WHERE " + COLUMN_URL + " = ?";
-        Cursor cursor = db.rawQuery(query, new String[]{url});
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_URL + ", "
+                + COLUMN_TIMESTAMP + ", " + COLUMN_IS_FOLDER + " FROM " + TABLE_BOOKMARKS
+                + " WHERE " + COLUMN_PARENT_ID + " = ? ORDER BY " + COLUMN_POSITION,
+                new String[]{String.valueOf(folderId)});
+        try {
+            Bookmark bookmark = new Bookmark();
+            while (cursor.moveToNext()) {
+                bookmark.setId(cursor.getLong(0));
+                bookmark.setTitle(cursor.getString(1));
+                bookmark.setUrl(cursor.getString(2));
+                bookmark.setTimestamp(cursor.getLong(3));
+                bookmark.setFolder(cursor.getInt(4) != 0);
+                bookmark.setParentId(folderId);
+                visitor.visit(bookmark);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    public interface BookmarkVisitor {
+        // The Bookmark instance is reused between calls; copy anything kept beyond the call
+        void visit(Bookmark bookmark) throws IOException;
+    }
+    
+    public BulkImport beginImport() {
+        return new BulkImport(this.getWritableDatabase());
+    }
+    
+    // Bulk insert used by BookmarkImporter. Bookmarks are buffered and written IMPORT_BATCH_SIZE at a time
+    // through one compiled INSERT OR IGNORE, so URLs already bookmarked (or repeated in the file) are skipped
+    // by the UNIQUE index. Each batch holds the membership-set lock like addBookmark/removeBookmark do.
+    public class BulkImport {
+        private final SQLiteDatabase db;
+        private final SQLiteStatement insert;
+        private final List<Bookmark> buffer = new ArrayList<>(IMPORT_BATCH_SIZE);
+        private final Map<Long, String> childPaths = new HashMap<>();
+        private final Map<Long, Long> nextPositions = new HashMap<>();
+        private int imported = 0;
+        private int duplicates = 0;
         
-        boolean exists = cursor.getCount() > 0;
-        cursor.close();
-        db.close();
+        private BulkImport(SQLiteDatabase db) {
+            this.db = db;
+            this.insert = db.compileStatement(INSERT_IGNORE_BOOKMARK_SQL);
+        }
+        
+        public void addBookmark(String title, String url, long timestamp, long parentId) {
+            Bookmark bookmark = new Bookmark();
+            bookmark.setTitle(title);
+            bookmark.setUrl(url);
+            bookmark.setTimestamp(timestamp);
+            bookmark.setParentId(parentId);
+            buffer.add(bookmark);
+            if (buffer.size() >= IMPORT_BATCH_SIZE) {
+                flush();
+            }
+        }
+        
+        // Folders are written straight away because the bookmarks that follow need their id
+        public long addFolder(String title, long timestamp, long parentId) {
+            flush();
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_TITLE, title);
+            values.put(COLUMN_TIMESTAMP, timestamp);
+            values.put(COLUMN_IS_FOLDER, 1);
+            values.put(COLUMN_PARENT_ID, parentId);
+            values.put(COLUMN_POSITION, takePosition(parentId));
+            values.put(COLUMN_PATH, childPath(parentId));
+            return db.insert(TABLE_BOOKMARKS, null, values);
+        }
+        
+        private String childPath(long folderId) {
+            String path = childPaths.get(folderId);
+            if (path == null) {
+                path = getChildPath(db, folderId);
+                if (path == null) {
+                    path = ROOT_PATH;
+                }
+                childPaths.put(folderId, path);
+            }
+            return path;
+        }
+        
+        private long takePosition(long parentId) {
+            Long next = nextPositions.get(parentId);
+            long position = next != null ? next : nextPosition(db, parentId);
+            nextPositions.put(parentId, position + 1);
+            return position;
+        }
+        
+        private void flush() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            synchronized (bookmarkedUrls) {
+                List<String> added = new ArrayList<>(buffer.size());
+                db.beginTransaction();
+                try {
+                    for (Bookmark bookmark : buffer) {
+                        long parentId = bookmark.getParentId();
+                        insert.bindString(1, bookmark.getTitle());
+                        insert.bindString(2, bookmark.getUrl());
+                        insert.bindLong(3, bookmark.getTimestamp());
+                        insert.bindLong(4, parentId);
+                        insert.bindLong(5, takePosition(parentId));
+                        insert.bindString(6, childPath(parentId));
+                        if (insert.executeInsert() != -1) {
+                            added.add(bookmark.getUrl());
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                bookmarkedUrls.addAll(added);
+                imported += added.size();
+                duplicates += buffer.size() - added.size();
+            }
+            buffer.clear();
+        }
+        
+        // Writes what is left and tells listeners to reload; returns the number of bookmarks added
+        public int finish() {
+            try {
+                flush();
+            } finally {
+                insert.close();
+                for (BookmarkListener listener : listeners) {
+                    listener.onBookmarksInvalidated();
+                }
+            }
+            Log.d(TAG, "✅ Imported " + imported + " bookmarks (" + duplicates + " duplicates skipped)");
+            return imported;
+        }
+        
+        public int getImportedCount() {
+            return imported;
+        }
+        
+        public int getDuplicateCount() {
+            return duplicates;
+        }
+    }
+    
+    private static int countSegments(String path) {
+        int depth = 0;
+        for (int i = 1; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+    
+    // Moves a bookmark or a whole folder to the end of newParentId. Only rows inside the moved
+    // subtree are rewritten. Returns false if the target is not a folder or lies inside the subtree.
+    public boolean moveBookmark(long id, long newParentId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String newPath = getChildPath(db, newParentId);
+        if (newPath == null || id == newParentId) {
+            return false;
+        }
+        
+        db.beginTransaction();
+        try {
+            String oldPath;
+            boolean isFolder;
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_PATH + ", " + COLUMN_IS_FOLDER + " FROM " + TABLE_BOOKMARKS
+                    + " WHERE " + COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                oldPath = cursor.getString(0);
+                isFolder = cursor.getInt(1) != 0;
+            } finally {
+                cursor.close();
+            }
+            
+            if (isFolder) {
+                String oldChildPath = oldPath + id + "/";
+                if (newPath.startsWith(oldChildPath)) {
+                    return false;
+                }
+                SQLiteStatement rewrite = db.compileStatement("UPDATE " + TABLE_BOOKMARKS
+                        + " SET " + COLUMN_PATH + " = ? || substr(" + COLUMN_PATH + ", ?)"
+                        + " WHERE " + COLUMN_PATH + " >= ? AND " + COLUMN_PATH + " < ?");
+                try {
+                    rewrite.bindString(1, newPath + id + "/");
+                    rewrite.bindLong(2, oldChildPath.length() + 1);
+                    rewrite.bindString(3, oldChildPath);
+                    rewrite.bindString(4, prefixEnd(oldChildPath));
+                    rewrite.executeUpdateDelete();
+                } finally {
+                    rewrite.close();
+                }
+            }
+            
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_PARENT_ID, newParentId);
+            values.put(COLUMN_POSITION, nextPosition(db, newParentId));
+            values.put(COLUMN_PATH, newPath);
+            db.update(TABLE_BOOKMARKS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         
-        return exists;
+        for (BookmarkListener listener : listeners) {
+            listener.onBookmarksInvalidated();
+        }
+        return true;
+    }
+    
+    public boolean isBookmarked(String url) {
+        if (url == null) {
+            return false;
+        }
+        ensureUrlsLoaded();
+        return bookmarkedUrls.contains(url);
+    }
+    
+    private void ensureUrlsLoaded() {
+        if (urlsLoaded) {
+            return;
+        }
+        synchronized (bookmarkedUrls) {
+            if (urlsLoaded) {
+                return;
+            }
+            SQLiteDatabase db = this.getReadableDatabase();
+            // Folder rows have no url
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_URL + " FROM " + TABLE_BOOKMARKS
+                    + " WHERE " + COLUMN_IS_FOLDER + " = 0 AND " + COLUMN_URL + " IS NOT NULL", null);
+            try {
+                while (cursor.moveToNext()) {
+                    bookmarkedUrls.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            urlsLoaded = true;
+        }
     }
     
     public void removeBookmark(String url) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_BOOKMARKS, COLUMN_URL + " = ?", new String[]{url});
-        db.close();
+        synchronized (bookmarkedUrls) {
+            db.delete(TABLE_BOOKMARKS, COLUMN_URL + " = ?", new String[]{url});
+            bookmarkedUrls.remove(url);
+        }
+        
+        for (BookmarkListener listener : listeners) {
+            listener.onBookmarkRemoved(url);
+        }
     }
     
-    public void removeBookmark(long id) {
+    // Removes a bookmark, or a folder together with everything inside it. Returns how many bookmarks
+    // (not folders) went with it.
+    public int removeBookmark(long id) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_BOOKMARKS, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
-        db.close();
+        String url = null;
+        String path = null;
+        boolean isFolder = false;
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_URL + ", " + COLUMN_PATH + ", " + COLUMN_IS_FOLDER
+                + " FROM " + TABLE_BOOKMARKS + " WHERE " + COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+        try {
+            if (cursor.moveToFirst()) {
+                url = cursor.getString(0);
+                path = cursor.getString(1);
+                isFolder = cursor.getInt(2) != 0;
+            }
+        } finally {
+            cursor.close();
+        }
+        
+        if (isFolder) {
+            return removeFolder(db, id, path + id + "/");
+        } else if (url != null) {
+            removeBookmark(url);
+            return 1;
+        }
+        return 0;
+    }
+    
+    private int removeFolder(SQLiteDatabase db, long folderId, String childPath) {
+        String[] range = new String[]{childPath, prefixEnd(childPath)};
+        String inSubtree = COLUMN_PATH + " >= ? AND " + COLUMN_PATH + " < ?";
+        
+        int removed;
+        synchronized (bookmarkedUrls) {
+            List<String> removedUrls = new ArrayList<>();
+            db.beginTransaction();
+            try {
+                Cursor cursor = db.rawQuery("SELECT " + COLUMN_URL + " FROM " + TABLE_BOOKMARKS
+                        + " WHERE " + inSubtree + " AND " + COLUMN_IS_FOLDER + " = 0", range);
+                try {
+                    while (cursor.moveToNext()) {
+                        if (!cursor.isNull(0)) {
+                            removedUrls.add(cursor.getString(0));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.delete(TABLE_BOOKMARKS, inSubtree, range);
+                db.delete(TABLE_BOOKMARKS, COLUMN_ID + " = ?", new String[]{String.valueOf(folderId)});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            bookmarkedUrls.removeAll(removedUrls);
+            removed = removedUrls.size();
+        }
+        
+        for (BookmarkListener listener : listeners) {
+            listener.onBookmarksInvalidated();
+        }
+        return removed;
+    }
+    
+    public void addBookmarkListener(BookmarkListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeBookmarkListener(BookmarkListener listener) {
+        listeners.remove(listener);
+    }
+    
+    public interface BookmarkListener {
+        void onBookmarkAdded(Bookmark bookmark);
+        void onBookmarkRemoved(String url);
+        // Bulk change - listeners should reload
+        void onBookmarksInvalidated();
     }
 }
\ No newline at end of file
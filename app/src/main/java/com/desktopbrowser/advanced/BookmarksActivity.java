@@ -2,31 +2,59 @@ package com.desktopbrowser.advanced;
 
 import android.app.AlertDialog;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class BookmarksActivity extends AppCompatActivity {
     
+    private static final String TAG = "BookmarksActivity";
+    
     private ListView bookmarksListView;
     private TextView emptyView;
     private BookmarkManager bookmarkManager;
+    private FaviconManager faviconManager;
     private List<Bookmark> bookmarks;
     private BookmarkAdapter adapter;
     private AdManager adManager;
     
+    // One folder is shown at a time; null currentFolder means the root
+    private static final String STATE_FOLDER_ID = "folder_id";
+    private Bookmark currentFolder;
+    
+    // Import/export streams run off the UI thread; results are posted back to it
+    private ExecutorService transferExecutor;
+    private Handler uiHandler;
+    private ActivityResultLauncher<String[]> importLauncher;
+    private ActivityResultLauncher<String> exportHtmlLauncher;
+    private ActivityResultLauncher<String> exportJsonLauncher;
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -36,6 +64,13 @@ public class BookmarksActivity extends AppCompatActivity {
         adManager = AdManager.getInstance(this);
         
         setupToolbar();
+        bookmarkManager = BookmarkManager.getInstance(this);
+        faviconManager = FaviconManager.getInstance(this);
+        if (savedInstanceState != null) {
+            currentFolder = bookmarkManager.getFolder(
+                    savedInstanceState.getLong(STATE_FOLDER_ID, BookmarkManager.ROOT_FOLDER_ID));
+        }
+        setupImportExport();
         initializeViews();
         setupAds();
         loadBookmarks();
@@ -62,13 +97,16 @@ public class BookmarksActivity extends AppCompatActivity {
     private void initializeViews() {
         bookmarksListView = findViewById(R.id.bookmarks_list_view);
         emptyView = findViewById(R.id.empty_view);
-        bookmarkManager = BookmarkManager.getInstance(this);
         
         bookmarksListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 Bookmark bookmark = bookmarks.get(position);
-                openUrl(bookmark.getUrl());
+                if (bookmark.isFolder()) {
+                    openFolder(bookmark);
+                } else {
+                    openUrl(bookmark.getUrl());
+                }
             }
         });
         
@@ -76,18 +114,99 @@ public class BookmarksActivity extends AppCompatActivity {
             @Override
             public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
                 Bookmark bookmark = bookmarks.get(position);
-                showDeleteDialog(bookmark, position);
+                showBookmarkOptions(bookmark, position);
                 return true;
             }
         });
     }
     
+    private void setupImportExport() {
+        transferExecutor = Executors.newSingleThreadExecutor();
+        uiHandler = new Handler(Looper.getMainLooper());
+        
+        importLauncher = registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+            if (uri != null) {
+                importBookmarks(uri);
+            }
+        });
+        exportHtmlLauncher = registerForActivityResult(new ActivityResultContracts.CreateDocument("text/html"), uri -> {
+            if (uri != null) {
+                exportBookmarks(uri, false);
+            }
+        });
+        exportJsonLauncher = registerForActivityResult(new ActivityResultContracts.CreateDocument("application/json"), uri -> {
+            if (uri != null) {
+                exportBookmarks(uri, true);
+            }
+        });
+    }
+    
+    // Imports into the folder currently shown
+    private void importBookmarks(Uri uri) {
+        final long targetFolderId = getCurrentFolderId();
+        Toast.makeText(this, "Importing bookmarks...", Toast.LENGTH_SHORT).show();
+        transferExecutor.execute(() -> {
+            String message;
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+                if (in == null) {
+                    throw new FileNotFoundException(uri.toString());
+                }
+                int imported = BookmarkImportExport.importBookmarks(bookmarkManager, in, targetFolderId);
+                message = "Imported " + imported + " bookmarks";
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error importing bookmarks", e);
+                message = "Error importing bookmarks";
+            }
+            final String result = message;
+            uiHandler.post(() -> {
+                if (!isFinishing()) {
+                    loadBookmarks();
+                    Toast.makeText(this, result, Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+    }
+    
+    private void exportBookmarks(Uri uri, boolean asJson) {
+        transferExecutor.execute(() -> {
+            String message;
+            try (OutputStream out = getContentResolver().openOutputStream(uri)) {
+                if (out == null) {
+                    throw new FileNotFoundException(uri.toString());
+                }
+                if (asJson) {
+                    BookmarkImportExport.exportJson(bookmarkManager, out);
+                } else {
+                    BookmarkImportExport.exportNetscapeHtml(bookmarkManager, out);
+                }
+                message = "Bookmarks exported";
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error exporting bookmarks", e);
+                message = "Error exporting bookmarks";
+            }
+            final String result = message;
+            uiHandler.post(() -> Toast.makeText(this, result, Toast.LENGTH_SHORT).show());
+        });
+    }
+    
+    private long getCurrentFolderId() {
+        return currentFolder != null ? currentFolder.getId() : BookmarkManager.ROOT_FOLDER_ID;
+    }
+    
+    // Only the current folder's direct children are read, straight off the (parent_id, position) index
     private void loadBookmarks() {
-        bookmarks = bookmarkManager.getAllBookmarks();
+        bookmarks = bookmarkManager.getFolderContents(getCurrentFolderId());
+        
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle(currentFolder != null ? currentFolder.getTitle() : "Bookmarks");
+        }
         
         if (bookmarks.isEmpty()) {
             bookmarksListView.setVisibility(View.GONE);
             emptyView.setVisibility(View.VISIBLE);
+            emptyView.setText(currentFolder != null
+                    ? "This folder is empty"
+                    : "No bookmarks saved\n\nBookmark your favorite sites to access them quickly");
         } else {
             bookmarksListView.setVisibility(View.VISIBLE);
             emptyView.setVisibility(View.GONE);
@@ -97,18 +216,104 @@ public class BookmarksActivity extends AppCompatActivity {
         }
     }
     
+    private void openFolder(Bookmark folder) {
+        currentFolder = folder;
+        loadBookmarks();
+    }
+    
+    @Override
+    public void onBackPressed() {
+        if (currentFolder != null) {
+            // Step up one level before leaving the screen
+            currentFolder = bookmarkManager.getFolder(currentFolder.getParentId());
+            loadBookmarks();
+            return;
+        }
+        super.onBackPressed();
+    }
+    
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLong(STATE_FOLDER_ID, getCurrentFolderId());
+    }
+    
     private void openUrl(String url) {
         Intent intent = new Intent(this, BrowserActivity.class);
         intent.putExtra("url", url);
         startActivity(intent);
     }
     
+    private void showBookmarkOptions(Bookmark bookmark, int position) {
+        new AlertDialog.Builder(this)
+                .setTitle(bookmark.getTitle())
+                .setItems(new String[]{"Move to folder", "Delete"}, (dialog, which) -> {
+                    if (which == 0) {
+                        showMoveDialog(bookmark);
+                    } else {
+                        showDeleteDialog(bookmark, position);
+                    }
+                })
+                .show();
+    }
+    
+    private void showMoveDialog(Bookmark bookmark) {
+        List<Bookmark> folders = bookmarkManager.getAllFolders();
+        List<Long> targetIds = new ArrayList<>();
+        List<String> targetNames = new ArrayList<>();
+        targetIds.add(BookmarkManager.ROOT_FOLDER_ID);
+        targetNames.add("Bookmarks");
+        for (Bookmark folder : folders) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i <= folder.getDepth(); i++) {
+                name.append("    ");
+            }
+            targetIds.add(folder.getId());
+            targetNames.add(name.append(folder.getTitle()).toString());
+        }
+        
+        new AlertDialog.Builder(this)
+                .setTitle("Move \"" + bookmark.getTitle() + "\" to")
+                .setItems(targetNames.toArray(new String[0]), (dialog, which) -> {
+                    if (bookmarkManager.moveBookmark(bookmark.getId(), targetIds.get(which))) {
+                        loadBookmarks();
+                        Toast.makeText(this, "Bookmark moved", Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(this, "Can't move a folder into itself", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+    
+    private void showNewFolderDialog() {
+        EditText nameInput = new EditText(this);
+        nameInput.setHint("Folder name");
+        nameInput.setSingleLine(true);
+        
+        new AlertDialog.Builder(this)
+                .setTitle("New Folder")
+                .setView(nameInput)
+                .setPositiveButton("Create", (dialog, which) -> {
+                    String name = nameInput.getText().toString().trim();
+                    if (name.isEmpty()) {
+                        return;
+                    }
+                    bookmarkManager.createFolder(name, getCurrentFolderId());
+                    loadBookmarks();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+    
     private void showDeleteDialog(Bookmark bookmark, int position) {
         new AlertDialog.Builder(this)
-                .setTitle("Delete Bookmark")
-                .setMessage("Remove \"" + bookmark.getTitle() + "\" from bookmarks?")
+                .setTitle(bookmark.isFolder() ? "Delete Folder" : "Delete Bookmark")
+                .setMessage(bookmark.isFolder()
+                        ? "Remove folder \"" + bookmark.getTitle() + "\" and everything in it?"
+                        : "Remove \"" + bookmark.getTitle() + "\" from bookmarks?")
                 .setPositiveButton("Delete", (dialog, which) -> {
-                    bookmarkManager.removeBookmark(bookmark.getId());
+                    int removed = bookmarkManager.removeBookmark(bookmark.getId());
                     bookmarks.remove(position);
                     adapter.notifyDataSetChanged();
                     
@@ -117,7 +322,10 @@ public class BookmarksActivity extends AppCompatActivity {
                         emptyView.setVisibility(View.VISIBLE);
                     }
                     
-                    Toast.makeText(this, "Bookmark deleted", Toast.LENGTH_SHORT).show();
+                    String message = bookmark.isFolder()
+                            ? "Folder deleted (" + removed + (removed == 1 ? " bookmark" : " bookmarks") + " removed)"
+                            : "Bookmark deleted";
+                    Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
                 })
                 .setNegativeButton("Cancel", null)
                 .show();
@@ -136,11 +344,32 @@ public class BookmarksActivity extends AppCompatActivity {
         if (id == android.R.id.home) {
             onBackPressed();
             return true;
+        } else if (id == R.id.action_new_folder) {
+            showNewFolderDialog();
+            return true;
+        } else if (id == R.id.action_import_bookmarks) {
+            importLauncher.launch(new String[]{"text/html", "application/json", "text/plain"});
+            return true;
+        } else if (id == R.id.action_export_bookmarks_html) {
+            exportHtmlLauncher.launch("bookmarks.html");
+            return true;
+        } else if (id == R.id.action_export_bookmarks_json) {
+            exportJsonLauncher.launch("bookmarks.json");
+            return true;
         }
         
         return super.onOptionsItemSelected(item);
     }
     
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (transferExecutor != null) {
+            // Let a running import or export finish; it only touches the database and the chosen file
+            transferExecutor.shutdown();
+        }
+    }
+    
     private class BookmarkAdapter extends ArrayAdapter<Bookmark> {
         
         public BookmarkAdapter() {
@@ -156,12 +385,19 @@ public class BookmarksActivity extends AppCompatActivity {
             
             Bookmark bookmark = bookmarks.get(position);
             
+            ImageView iconView = view.findViewById(R.id.bookmark_icon);
             TextView titleView = view.findViewById(R.id.bookmark_title);
             TextView urlView = view.findViewById(R.id.bookmark_url);
             TextView timeView = view.findViewById(R.id.bookmark_time);
             
             titleView.setText(bookmark.getTitle());
-            urlView.setText(bookmark.getUrl());
+            if (bookmark.isFolder()) {
+                faviconManager.loadInto(iconView, null, R.drawable.ic_bookmarks);
+                urlView.setText("Folder");
+            } else {
+                faviconManager.loadInto(iconView, bookmark.getUrl(), R.drawable.ic_bookmark_filled);
+                urlView.setText(bookmark.getUrl());
+            }
             
             SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
             timeView.setText(sdf.format(new Date(bookmark.getTimestamp())));
@@ -17,8 +17,9 @@ import android.webkit.WebChromeClient;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
-import android.widget.EditText;
+import android.widget.AutoCompleteTextView;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -44,7 +45,8 @@ public class BrowserActivity extends AppCompatActivity {
         }
     }
     private WebView webView;
-    private EditText addressBar;
+    private BlobDownloadBridge blobBridge;
+    private AutoCompleteTextView addressBar;
     private Button browserMenuButton;
     private ImageButton backButton, forwardButton, refreshButton, homeButton;
     private ImageButton zoomInButton, zoomOutButton, desktopModeButton;
@@ -52,6 +54,11 @@ public class BrowserActivity extends AppCompatActivity {
     private ProgressBar progressBar;
     private BookmarkManager bookmarkManager;
     private HistoryManager historyManager;
+    private FaviconManager faviconManager;
+    
+    // How the next finished page load was started, and the page it was reached from, for the visit log
+    private int nextVisitTransition = HistoryManager.TRANSITION_LINK;
+    private String lastVisitedUrl;
     private boolean isDesktopMode = true; // Default to desktop mode for advanced browsing
     private float currentZoom = 65; // Start at 65% for desktop view
     
@@ -115,7 +122,10 @@ public class BrowserActivity extends AppCompatActivity {
     
     private void initializeManagers() {
         bookmarkManager = BookmarkManager.getInstance(this);
+        faviconManager = FaviconManager.getInstance(this);
         historyManager = HistoryManager.getInstance(this);
+        // Restores downloads that were queued or running when the process died
+        DownloadService.restore(this);
         sessionManager = SessionManager.getInstance(this);
         adManager = AdManager.getInstance(this);
         urlStack = new java.util.ArrayList<>();
@@ -259,6 +269,10 @@ public class BrowserActivity extends AppCompatActivity {
         webView.setWebChromeClient(new AdvancedWebChromeClient());
         webView.setDownloadListener(new IntelligentDownloadListener());
         
+        // Registered once, before the first page loads, so every page can stream blobs back
+        blobBridge = new BlobDownloadBridge(this, webView);
+        webView.addJavascriptInterface(blobBridge, BlobDownloadBridge.JS_INTERFACE);
+        
         // INTELLIGENT LONG PRESS CONTEXT MENU
         setupIntelligentLongPressMenu();
         
@@ -632,6 +646,10 @@ public class BrowserActivity extends AppCompatActivity {
     }
     
     private void downloadFile(String url, String filename) {
+        downloadFile(url, filename, -1);
+    }
+    
+    private void downloadFile(String url, String filename, long contentLength) {
         try {
             Log.d(TAG, "📥 Starting enhanced download - URL: " + url + ", Filename: " + filename);
             
@@ -653,34 +671,15 @@ public class BrowserActivity extends AppCompatActivity {
                 return;
             }
             
-            // Continue with regular HTTP/HTTPS download
-            android.app.DownloadManager downloadManager = (android.app.DownloadManager) getSystemService(Context.DOWNLOAD_SERVICE);
-            
-            android.app.DownloadManager.Request request = new android.app.DownloadManager.Request(Uri.parse(url));
-            request.setDescription("Downloaded by Real Desktop Browser");
-            request.setTitle(filename);
-            
-            // Set headers to mimic desktop browser
-            request.addRequestHeader("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/131.0.0.0 Safari/537.36");
-            
-            // Set download location
-            request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, filename);
-            
-            // Allow download over mobile and WiFi
-            request.setAllowedNetworkTypes(android.app.DownloadManager.Request.NETWORK_WIFI | android.app.DownloadManager.Request.NETWORK_MOBILE);
-            
-            // Show in downloads UI
-            request.setVisibleInDownloadsUi(true);
-            request.setNotificationVisibility(android.app.DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
+            // Continue with regular HTTP/HTTPS download: the scheduler queues it, then large files that
+            // allow ranges are fetched in parallel segments in-app, everything else goes to the system
+            // DownloadManager
+            DownloadService.enqueue(this, url, filename, contentLength, DownloadItem.PRIORITY_NORMAL);
+            DownloadService.requestNotificationPermission(this);
             
-            long downloadId = downloadManager.enqueue(request);
+            Toast.makeText(this, "📥 Download queued: " + filename, Toast.LENGTH_SHORT).show();
             
-            // Track download in our system - Fixed method call with String downloadId
-            com.desktopbrowser.advanced.DownloadManager.getInstance(this).addDownload(filename, url, String.valueOf(downloadId));
-            
-            Toast.makeText(this, "📥 Download started: " + filename, Toast.LENGTH_SHORT).show();
-            
-            Log.d(TAG, "✅ Download started - ID: " + downloadId + ", File: " + filename);
+            Log.d(TAG, "✅ Download started - File: " + filename);
             
         } catch (Exception e) {
             Log.e(TAG, "💥 Error starting download", e);
@@ -1043,6 +1042,7 @@ public class BrowserActivity extends AppCompatActivity {
         addressBar.setOnEditorActionListener((v, actionId, event) -> {
             String url = addressBar.getText().toString().trim();
             if (!url.isEmpty()) {
+                nextVisitTransition = HistoryManager.TRANSITION_TYPED;
                 loadNewUrl(processUrl(url));
                 addressBar.clearFocus(); // Hide keyboard and collapse address bar
                 return true;
@@ -1050,6 +1050,15 @@ public class BrowserActivity extends AppCompatActivity {
             return false;
         });
         
+        // Frecency-ranked history/bookmark suggestions while typing
+        addressBar.setAdapter(new SuggestionAdapter(this));
+        addressBar.setOnItemClickListener((parent, view, position, id) -> {
+            SuggestionEngine.Suggestion suggestion = (SuggestionEngine.Suggestion) parent.getItemAtPosition(position);
+            nextVisitTransition = HistoryManager.TRANSITION_TYPED;
+            loadNewUrl(suggestion.url);
+            addressBar.clearFocus();
+        });
+        
         // Address bar focus handling for expansion
         addressBar.setOnFocusChangeListener((v, hasFocus) -> {
             if (hasFocus) {
@@ -1112,6 +1121,7 @@ public class BrowserActivity extends AppCompatActivity {
                     lastRefreshTime = currentTime;
                     isRefreshing = true;
                     try {
+                        nextVisitTransition = HistoryManager.TRANSITION_RELOAD;
                         webView.reload();
                         Toast.makeText(this, "Refreshing page...", Toast.LENGTH_SHORT).show();
                     } catch (Exception e) {
@@ -1186,6 +1196,7 @@ public class BrowserActivity extends AppCompatActivity {
                         if (!isDestroyed && !isPaused && webView != null) {
                             // Silent refresh without showing progress indicators
                             String refreshUrl = url + (url.contains("?") ? "&" : "?") + "auto-refreshed=true";
+                            nextVisitTransition = HistoryManager.TRANSITION_RELOAD;
                             webView.loadUrl(refreshUrl);
                             Log.d(TAG, "✅ Silent auto-refresh completed");
                         }
@@ -1342,7 +1353,7 @@ public class BrowserActivity extends AppCompatActivity {
     
     private void loadNewUrl(String url) {
         webView.loadUrl(url);
-        addressBar.setText(url);
+        addressBar.setText(url, false);
     }
     
     private class AdvancedDesktopWebViewClient extends WebViewClient {
@@ -1350,7 +1361,10 @@ public class BrowserActivity extends AppCompatActivity {
         public void onPageStarted(WebView view, String url, android.graphics.Bitmap favicon) {
             super.onPageStarted(view, url, favicon);
             progressBar.setVisibility(View.VISIBLE);
-            addressBar.setText(url);
+            if (favicon != null) {
+                faviconManager.onIconReceived(url, favicon);
+            }
+            addressBar.setText(url, false);
             updateNavigationButtons();
             
             // CRITICAL: Inject stealth code IMMEDIATELY when page starts loading
@@ -1407,7 +1421,9 @@ public class BrowserActivity extends AppCompatActivity {
             
             // Add to history
             if (title != null && !title.isEmpty()) {
-                historyManager.addHistoryItem(title, url);
+                historyManager.addHistoryItem(title, url, nextVisitTransition, lastVisitedUrl);
+                nextVisitTransition = HistoryManager.TRANSITION_LINK;
+                lastVisitedUrl = url;
             }
         }
         
@@ -1455,6 +1471,13 @@ public class BrowserActivity extends AppCompatActivity {
             }
         }
         
+        @Override
+        public void onReceivedIcon(WebView view, android.graphics.Bitmap icon) {
+            super.onReceivedIcon(view, icon);
+            // Stored by host off the UI thread; the tab strip picks it up on its next render
+            faviconManager.onIconReceived(view.getUrl(), icon);
+        }
+        
         @Override
         public boolean onConsoleMessage(android.webkit.ConsoleMessage consoleMessage) {
             Log.d(TAG, "Console: " + consoleMessage.message());
@@ -1510,7 +1533,7 @@ public class BrowserActivity extends AppCompatActivity {
                 // Show beautiful confirmation dialog before downloading
                 String finalFilename = filename;
                 showDownloadConfirmationDialog(url, finalFilename, mimetype, contentLength, () -> {
-                    downloadFile(url, finalFilename);
+                    downloadFile(url, finalFilename, contentLength);
                 });
                 
             } catch (Exception e) {
@@ -1524,45 +1547,19 @@ public class BrowserActivity extends AppCompatActivity {
                 Log.d(TAG, "🔗 Handling data URI download");
                 
                 // Parse data URI: data:[<mediatype>][;base64],<data>
-                if (!dataUri.startsWith("data:")) {
-                    throw new IllegalArgumentException("Invalid data URI");
-                }
-                
-                String[] parts = dataUri.substring(5).split(",", 2);
-                if (parts.length != 2) {
+                if (!dataUri.startsWith("data:") || dataUri.indexOf(',') < 0) {
                     throw new IllegalArgumentException("Invalid data URI format");
                 }
                 
-                String header = parts[0];
-                String data = parts[1];
-                
-                // Determine if it's base64 encoded
-                boolean isBase64 = header.contains("base64");
-                
-                // Extract MIME type
-                String actualMimeType = mimetype;
-                if (header.contains(";")) {
-                    actualMimeType = header.split(";")[0];
-                } else if (!header.isEmpty()) {
-                    actualMimeType = header;
-                }
-                
                 // Generate appropriate filename
-                String extension = getExtensionFromMimeType(actualMimeType);
+                String actualMimeType = DataUriDownloader.getMimeType(dataUri, mimetype);
+                String extension = FileTypeRegistry.getExtensionForMimeType(actualMimeType);
                 String filename = "download_" + System.currentTimeMillis() + "." + extension;
                 
-                // Decode data
-                byte[] fileData;
-                if (isBase64) {
-                    fileData = android.util.Base64.decode(data, android.util.Base64.DEFAULT);
-                } else {
-                    fileData = data.getBytes("UTF-8");
-                }
-                
-                // Save file
-                saveDataToFile(filename, fileData);
-                
-                Toast.makeText(BrowserActivity.this, "Data file downloaded: " + filename, Toast.LENGTH_LONG).show();
+                // Decoded and written in chunks on a background thread; the download service keeps it
+                // going if this screen is closed
+                DownloadService.saveDataUri(BrowserActivity.this, dataUri, filename);
+                DownloadService.requestNotificationPermission(BrowserActivity.this);
                 
             } catch (Exception e) {
                 Log.e(TAG, "💥 Error handling data URI download", e);
@@ -1574,24 +1571,9 @@ public class BrowserActivity extends AppCompatActivity {
             try {
                 Log.d(TAG, "🌐 Handling blob URL download");
                 
-                // For blob URLs, we need to extract the data using JavaScript
-                String script = 
-                    "(function() {" +
-                    "  fetch('" + blobUrl + "')" +
-                    "    .then(response => response.blob())" +
-                    "    .then(blob => {" +
-                    "      const reader = new FileReader();" +
-                    "      reader.onload = function() {" +
-                    "        Android.onBlobData(reader.result);" +
-                    "      };" +
-                    "      reader.readAsDataURL(blob);" +
-                    "    })" +
-                    "    .catch(error => Android.onBlobError(error.toString()));" +
-                    "})();";
-                
-                // Add JavaScript interface to handle blob data
-                webView.addJavascriptInterface(new BlobDownloadInterface(), "Android");
-                webView.evaluateJavascript(script, null);
+                // The page streams the blob to us in slices through the bridge registered on the WebView
+                blobBridge.download(blobUrl);
+                DownloadService.requestNotificationPermission(BrowserActivity.this);
                 
             } catch (Exception e) {
                 Log.e(TAG, "💥 Error handling blob download", e);
@@ -1618,160 +1600,6 @@ public class BrowserActivity extends AppCompatActivity {
                 Toast.makeText(BrowserActivity.this, "Download failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
             }
         }
-        
-        private String getExtensionFromMimeType(String mimeType) {
-            if (mimeType == null || mimeType.isEmpty()) {
-                return "bin";
-            }
-            
-            switch (mimeType.toLowerCase()) {
-                // Images
-                case "image/jpeg":
-                case "image/jpg":
-                    return "jpg";
-                case "image/png":
-                    return "png";
-                case "image/gif":
-                    return "gif";
-                case "image/webp":
-                    return "webp";
-                case "image/svg+xml":
-                    return "svg";
-                case "image/tiff":
-                    return "tiff";
-                case "image/bmp":
-                    return "bmp";
-                case "image/ico":
-                case "image/x-icon":
-                    return "ico";
-                
-                // Documents
-                case "text/html":
-                    return "html";
-                case "text/css":
-                    return "css";
-                case "text/javascript":
-                case "application/javascript":
-                    return "js";
-                case "application/json":
-                    return "json";
-                case "text/plain":
-                    return "txt";
-                case "application/pdf":
-                    return "pdf";
-                case "application/msword":
-                    return "doc";
-                case "application/vnd.openxmlformats-officedocument.wordprocessingml.document":
-                    return "docx";
-                case "application/vnd.ms-excel":
-                    return "xls";
-                case "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet":
-                    return "xlsx";
-                case "application/vnd.ms-powerpoint":
-                    return "ppt";
-                case "application/vnd.openxmlformats-officedocument.presentationml.presentation":
-                    return "pptx";
-                case "text/csv":
-                    return "csv";
-                case "application/rtf":
-                    return "rtf";
-                
-                // Archives
-                case "application/zip":
-                    return "zip";
-                case "application/x-rar-compressed":
-                    return "rar";
-                case "application/x-7z-compressed":
-                    return "7z";
-                case "application/x-tar":
-                    return "tar";
-                case "application/gzip":
-                    return "gz";
-                
-                // Media
-                case "video/mp4":
-                    return "mp4";
-                case "video/avi":
-                    return "avi";
-                case "video/quicktime":
-                    return "mov";
-                case "video/x-msvideo":
-                    return "avi";
-                case "video/webm":
-                    return "webm";
-                case "audio/mp3":
-                case "audio/mpeg":
-                    return "mp3";
-                case "audio/wav":
-                    return "wav";
-                case "audio/ogg":
-                    return "ogg";
-                case "audio/aac":
-                    return "aac";
-                case "audio/flac":
-                    return "flac";
-                
-                // Applications
-                case "application/x-msdownload":
-                case "application/exe":
-                    return "exe";
-                case "application/x-msi":
-                    return "msi";
-                case "application/vnd.android.package-archive":
-                    return "apk";
-                case "application/java-archive":
-                    return "jar";
-                
-                default:
-                    return "bin";
-            }
-        }
-        
-        private void saveDataToFile(String filename, byte[] data) throws Exception {
-            // Save to Downloads directory
-            java.io.File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-            if (!downloadsDir.exists()) {
-                downloadsDir.mkdirs();
-            }
-            
-            java.io.File file = new java.io.File(downloadsDir, filename);
-            
-            try (java.io.FileOutputStream fos = new java.io.FileOutputStream(file)) {
-                fos.write(data);
-                fos.flush();
-            }
-            
-            // Add to download manager tracking
-            DownloadManager downloadManager = DownloadManager.getInstance(BrowserActivity.this);
-            downloadManager.addDownload(filename, "data-uri", String.valueOf(System.currentTimeMillis()));
-            
-            Log.d(TAG, "✅ Data file saved: " + file.getAbsolutePath());
-        }
-    }
-    
-    // JavaScript interface for blob downloads
-    private class BlobDownloadInterface {
-        @android.webkit.JavascriptInterface
-        public void onBlobData(String dataUrl) {
-            runOnUiThread(() -> {
-                try {
-                    // Handle the blob data as a data URI
-                    IntelligentDownloadListener listener = new IntelligentDownloadListener();
-                    listener.handleDataUriDownload(dataUrl, "application/octet-stream");
-                } catch (Exception e) {
-                    Log.e(TAG, "Error processing blob data", e);
-                    Toast.makeText(BrowserActivity.this, "Error processing blob data", Toast.LENGTH_SHORT).show();
-                }
-            });
-        }
-        
-        @android.webkit.JavascriptInterface
-        public void onBlobError(String error) {
-            runOnUiThread(() -> {
-                Log.e(TAG, "Blob download error: " + error);
-                Toast.makeText(BrowserActivity.this, "Blob download failed: " + error, Toast.LENGTH_LONG).show();
-            });
-        }
     }
     
     private void updateNavigationButtons() {
@@ -1861,6 +1689,10 @@ public class BrowserActivity extends AppCompatActivity {
                 zoomHandler.removeCallbacks(pendingZoomRunnable);
             }
             
+            if (blobBridge != null) {
+                blobBridge.shutdown();
+            }
+            
             if (webView != null) {
                 // Save session before destroying (for app close recovery)
                 saveCurrentSessionAsLast();
@@ -1918,6 +1750,11 @@ public class BrowserActivity extends AppCompatActivity {
                 Log.d(TAG, "Comprehensive session saved during onPause");
             }
             
+            // Commit buffered history visits before the app may be backgrounded or killed
+            if (historyManager != null) {
+                historyManager.flushPendingVisits();
+            }
+            
             // Clear any active operations
             isRefreshing = false;
             isNavigating = false;
@@ -1964,6 +1801,16 @@ public class BrowserActivity extends AppCompatActivity {
         }
     }
     
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // None of the app's screens are showing, so history isn't being written: a good time for the
+        // one-time history database conversion
+        if (level >= TRIM_MEMORY_UI_HIDDEN && historyManager != null) {
+            historyManager.convertWhenIdle();
+        }
+    }
+    
     @Override
     protected void onRestart() {
         super.onRestart();
@@ -2099,6 +1946,18 @@ public class BrowserActivity extends AppCompatActivity {
         titleView.setMaxWidth(100);
         titleView.setSingleLine(true);
         
+        // Site icon, only if already decoded - the tab strip never waits on disk
+        android.graphics.Bitmap icon = faviconManager.getCachedIcon(tab.url);
+        if (icon != null) {
+            ImageView iconView = new ImageView(this);
+            int iconSize = (int) (16 * getResources().getDisplayMetrics().density);
+            LinearLayout.LayoutParams iconParams = new LinearLayout.LayoutParams(iconSize, iconSize);
+            iconParams.setMarginEnd(6);
+            iconView.setLayoutParams(iconParams);
+            iconView.setImageBitmap(icon);
+            tabView.addView(iconView);
+        }
+        
         // Close button (like Chrome)
         Button closeButton = new Button(this);
         closeButton.setText("×");
@@ -0,0 +1,209 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Log;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Saves data: URIs to the Downloads directory on a background thread. The payload is read out of the
+// URI string a chunk at a time, base64-decoded through a stream and written as it goes, so apart from
+// the URI string itself memory use is a few fixed buffers however large the file is.
+public class DataUriDownloader {
+    
+    private static final String TAG = "DataUriDownloader";
+    
+    // Ledger ids of saved data: URIs; never numeric, so they can't be taken for system DownloadManager ids
+    private static final String ID_PREFIX = "data-";
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+    
+    private static final int CHUNK_CHARS = 16 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int WORK_QUEUE_CAPACITY = 8;
+    
+    public interface Callback {
+        // Both called on the main thread
+        void onSaved(String filename, long bytes);
+        void onFailed(String error);
+    }
+    
+    private static DataUriDownloader instance;
+    
+    private final DownloadManager ledger;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor writeExecutor;
+    
+    // Saves queued or being written, so DownloadService knows to stay up until they are done
+    private final AtomicInteger pendingSaves = new AtomicInteger();
+    
+    private DataUriDownloader(Context context) {
+        this.ledger = DownloadManager.getInstance(context);
+        
+        writeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "DataUriWriter");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    pendingSaves.decrementAndGet();
+                    Log.w(TAG, "Data URI queue full - dropping task");
+                });
+    }
+    
+    public static synchronized DataUriDownloader getInstance(Context context) {
+        if (instance == null) {
+            instance = new DataUriDownloader(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // MIME type declared in the URI header, or the fallback when the header has none
+    public static String getMimeType(String dataUri, String fallback) {
+        int comma = dataUri.indexOf(',');
+        if (!dataUri.startsWith("data:") || comma < 0) {
+            return fallback;
+        }
+        String header = dataUri.substring(5, comma);
+        int semicolon = header.indexOf(';');
+        String mimeType = semicolon >= 0 ? header.substring(0, semicolon) : header;
+        return mimeType.isEmpty() ? fallback : mimeType;
+    }
+    
+    public boolean isBusy() {
+        return pendingSaves.get() > 0;
+    }
+    
+    public void save(String dataUri, String filename, Callback callback) {
+        pendingSaves.incrementAndGet();
+        writeExecutor.execute(() -> {
+            File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+            File file = new File(downloadsDir, filename);
+            try {
+                // Parse data URI: data:[<mediatype>][;base64],<data>
+                int comma = dataUri.indexOf(',');
+                if (!dataUri.startsWith("data:") || comma < 0) {
+                    throw new IllegalArgumentException("Invalid data URI format");
+                }
+                boolean isBase64 = dataUri.substring(5, comma).toLowerCase(Locale.US).contains(";base64");
+                
+                if (!downloadsDir.exists()) {
+                    downloadsDir.mkdirs();
+                }
+                long bytes;
+                try (OutputStream out = new FileOutputStream(file)) {
+                    bytes = isBase64
+                            ? writeBase64(dataUri, comma + 1, out)
+                            : writeText(dataUri, comma + 1, out);
+                }
+                
+                // Already fully written; nothing will report progress for it
+                String downloadId = ID_PREFIX + System.currentTimeMillis() + "-" + SEQUENCE.incrementAndGet();
+                ledger.addCompletedDownload(filename, "data-uri", downloadId, bytes);
+                
+                Log.d(TAG, "✅ Data file saved: " + file.getAbsolutePath() + " (" + DownloadManager.formatFileSize(bytes) + ")");
+                mainHandler.post(() -> callback.onSaved(filename, bytes));
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error saving data URI", e);
+                file.delete();
+                String message = e.getMessage() != null ? e.getMessage() : e.toString();
+                mainHandler.post(() -> callback.onFailed(message));
+            } finally {
+                pendingSaves.decrementAndGet();
+            }
+        });
+    }
+    
+    private static long writeBase64(String dataUri, int start, OutputStream out) throws IOException {
+        long written = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new Base64InputStream(new AsciiInputStream(dataUri, start), Base64.DEFAULT)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        }
+        return written;
+    }
+    
+    // Non-base64 payloads are written as UTF-8 text, one chunk of the URI at a time
+    private static long writeText(String dataUri, int start, OutputStream out) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(out);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8), BUFFER_SIZE);
+        for (int offset = start; offset < dataUri.length(); offset += CHUNK_CHARS) {
+            writer.write(dataUri, offset, Math.min(CHUNK_CHARS, dataUri.length() - offset));
+        }
+        writer.flush();
+        return counter.count;
+    }
+    
+    // Exposes the base64 part of the URI as bytes without copying it out of the string
+    private static class AsciiInputStream extends InputStream {
+        private final String source;
+        private final char[] chunk = new char[CHUNK_CHARS];
+        private int position;
+        
+        AsciiInputStream(String source, int start) {
+            this.source = source;
+            this.position = start;
+        }
+        
+        @Override
+        public int read() {
+            return position < source.length() ? source.charAt(position++) & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= source.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, chunk.length), source.length() - position);
+            source.getChars(position, position + count, chunk, 0);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) chunk[i];
+            }
+            position += count;
+            return count;
+        }
+    }
+    
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+        
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+    }
+}
\ No newline at end of file
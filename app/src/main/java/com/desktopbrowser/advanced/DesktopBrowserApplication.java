@@ -21,6 +21,9 @@ public class DesktopBrowserApplication extends Application {
         // Set up custom exception handler for crash logging
         Thread.setDefaultUncaughtExceptionHandler(new CustomExceptionHandler(this));
         
+        // Start loading address bar suggestions in the background so the first keystroke has data
+        SuggestionEngine.getInstance(this);
+        
         android.util.Log.i(TAG, "DesktopBrowser Application initialized with crash logging");
     }
     
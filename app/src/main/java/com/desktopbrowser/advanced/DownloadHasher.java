@@ -0,0 +1,195 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+import android.widget.Toast;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// SHA-256 of finished downloads, computed on one low-priority thread by streaming the file through a
+// reused direct buffer. The hash is stored on the ledger row and used two ways: a download whose hash
+// the server announced (Digest / Repr-Digest) is verified against it, and a download whose content is
+// already in Downloads under another row is flagged as a duplicate - before it starts when the server
+// announced the hash, otherwise as soon as it finishes. Nothing is deleted; the list shows the flag and
+// the user decides. Being the one pass over every finished file, it also types files saved without an
+// extension by content.
+public class DownloadHasher {
+    
+    private static final String TAG = "DownloadHasher";
+    
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int SHA256_BYTES = 32;
+    private static final int WORK_QUEUE_CAPACITY = 64;
+    
+    private static DownloadHasher instance;
+    
+    private final Context context;
+    private final DownloadManager ledger;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor hashExecutor;
+    
+    // Hash thread only
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    
+    private DownloadHasher(Context context) {
+        this.context = context.getApplicationContext();
+        this.ledger = DownloadManager.getInstance(context);
+        
+        hashExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "DownloadHasher");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                (runnable, executor) -> Log.w(TAG, "Hash queue full - dropping task"));
+        
+        // Downloads finished before hashes were recorded; only hashed, the user already has these files
+        hashExecutor.execute(() -> {
+            for (DownloadItem item : ledger.getCompletedDownloads()) {
+                if (item.sha256 == null && item.filepath != null && new File(item.filepath).isFile()) {
+                    try {
+                        ledger.setSha256(item.downloadId, sha256(new File(item.filepath)));
+                    } catch (IOException e) {
+                        Log.e(TAG, "💥 Error hashing " + item.filepath, e);
+                    }
+                }
+            }
+        });
+    }
+    
+    public static synchronized DownloadHasher getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadHasher(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // Hashes a finished download, then verifies it and flags it if it is a duplicate
+    public void hash(String downloadId) {
+        hashExecutor.execute(() -> hashNow(downloadId));
+    }
+    
+    // Tells the user a download's content is already in Downloads; the download itself (finished file or
+    // held-back transfer) is left for them to keep, resume or delete
+    public void reportDuplicate(DownloadItem item, DownloadItem original, String hint) {
+        Log.d(TAG, "📄 " + item.filename + " has the same content as " + original.filepath);
+        mainHandler.post(() -> Toast.makeText(context,
+                "📄 " + item.filename + " is already in Downloads as " + original.filename + " - " + hint,
+                Toast.LENGTH_LONG).show());
+    }
+    
+    private void hashNow(String downloadId) {
+        DownloadItem item = ledger.getDownload(downloadId);
+        if (item == null || item.isActive || item.filepath == null) {
+            return;
+        }
+        File file = new File(item.filepath);
+        if (!file.isFile()) {
+            return;
+        }
+        
+        // No extension to go by: classify it from its first bytes instead
+        if (!FileTypeRegistry.hasExtension(item.filename)) {
+            FileTypeRegistry.FileTypeInfo typeInfo = FileTypeRegistry.detectFromContent(file);
+            if (typeInfo != null) {
+                ledger.setFileType(downloadId, typeInfo);
+            }
+        }
+        
+        String sha256;
+        try {
+            sha256 = sha256(file);
+        } catch (IOException e) {
+            Log.e(TAG, "💥 Error hashing " + item.filepath, e);
+            return;
+        }
+        ledger.setSha256(downloadId, sha256);
+        
+        if (item.expectedSha256 != null) {
+            if (!sha256.equalsIgnoreCase(item.expectedSha256)) {
+                Log.w(TAG, "⚠️ Checksum mismatch for " + item.filename + ": expected " + item.expectedSha256 + ", got " + sha256);
+                mainHandler.post(() -> Toast.makeText(context,
+                        "⚠️ " + item.filename + " is damaged (checksum mismatch)", Toast.LENGTH_LONG).show());
+                return;
+            }
+            Log.d(TAG, "✅ Checksum verified: " + item.filename);
+        }
+        
+        // The same bytes already saved under another name: flag it, the user decides which copy to keep
+        DownloadItem original = ledger.findDownloadBySha256(sha256, downloadId);
+        if (original != null && !original.filepath.equals(item.filepath)
+                && new File(original.filepath).length() == file.length()) {
+            ledger.setDownloadStatus(downloadId, DownloadItem.STATUS_DUPLICATE + original.filename);
+            reportDuplicate(item, original, "delete either copy from the downloads list");
+        }
+        
+        // Prepare its thumbnail and details for the downloads list
+        DownloadPreviewManager.getInstance(context).generate(item.filepath);
+    }
+    
+    private String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+    
+    // Hex SHA-256 from a Digest ("sha-256=<base64>") or Repr-Digest ("sha-256=:<base64>:") header value,
+    // or null if the header carries no SHA-256
+    public static String parseSha256Header(String value) {
+        if (value == null) {
+            return null;
+        }
+        for (String entry : value.split(",")) {
+            int equals = entry.indexOf('=');
+            if (equals < 0 || !"sha-256".equalsIgnoreCase(entry.substring(0, equals).trim())) {
+                continue;
+            }
+            String encoded = entry.substring(equals + 1).trim();
+            if (encoded.length() > 1 && encoded.startsWith(":") && encoded.endsWith(":")) {
+                encoded = encoded.substring(1, encoded.length() - 1);
+            }
+            try {
+                byte[] hash = Base64.decode(encoded, Base64.DEFAULT);
+                if (hash.length == SHA256_BYTES) {
+                    return toHex(hash);
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unreadable digest header: " + value);
+            }
+        }
+        return null;
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        return hex.toString();
+    }
+}
\ No newline at end of file
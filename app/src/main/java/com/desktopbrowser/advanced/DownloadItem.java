@@ -1,6 +1,15 @@
 package com.desktopbrowser.advanced;
 
 public class DownloadItem {
+    
+    // Scheduling priority of in-app downloads; higher runs first and may pause lower ones
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+    
+    // Status of a download whose content is already in Downloads under another name; followed by that name
+    public static final String STATUS_DUPLICATE = "📄 Same content as ";
+    
     public String url;
     public String filename;
     public String filepath;
@@ -20,6 +29,14 @@ public class DownloadItem {
     public long totalBytes;           // Total file size in bytes
     public boolean isActive;          // Whether download is currently active
     
+    // Download scheduler state
+    public int priority = PRIORITY_NORMAL; // PRIORITY_LOW / NORMAL / HIGH
+    public boolean isPaused;          // Unfinished but held back by the user
+    
+    // Content integrity (hex SHA-256), filled in after completion
+    public String sha256;             // Hash of the downloaded file
+    public String expectedSha256;     // Hash announced by the server, if any
+    
     public DownloadItem() {
         // Default constructor for Gson
         this.downloadProgress = 0;
@@ -73,6 +90,21 @@ public class DownloadItem {
         this.totalBytes = fileSize;
     }
     
+    // Field-by-field copy, for changing a row that other threads or a submitted list may still hold
+    public DownloadItem copy() {
+        DownloadItem copy = new DownloadItem(url, filename, filepath, downloadId, fileSize, downloadTime,
+                fileType, fileIcon, fileDescription, downloadProgress, downloadStatus, isActive);
+        copy.downloadSpeed = downloadSpeed;
+        copy.estimatedTimeRemaining = estimatedTimeRemaining;
+        copy.bytesDownloaded = bytesDownloaded;
+        copy.totalBytes = totalBytes;
+        copy.priority = priority;
+        copy.isPaused = isPaused;
+        copy.sha256 = sha256;
+        copy.expectedSha256 = expectedSha256;
+        return copy;
+    }
+    
     // ENHANCED: Get progress percentage as formatted string
     public String getProgressText() {
         if (downloadProgress == 100) {
@@ -86,7 +118,13 @@ public class DownloadItem {
     
     // ENHANCED: Get status with icon
     public String getStatusWithIcon() {
-        if (isActive) {
+        if (isDuplicate()) {
+            return downloadStatus;
+        } else if (isPaused) {
+            return "⏸️ Paused";
+        } else if (hasChecksumMismatch()) {
+            return "⚠️ Checksum mismatch";
+        } else if (isActive) {
             return "📥 " + downloadStatus;
         } else if (downloadProgress == 100) {
             return "✅ Completed";
@@ -108,7 +146,7 @@ public class DownloadItem {
     
     // ENHANCED: Check if download is in progress
     public boolean isDownloading() {
-        return isActive && downloadProgress > 0 && downloadProgress < 100;
+        return isActive && !isPaused && downloadProgress > 0 && downloadProgress < 100;
     }
     
     // ENHANCED: Check if download is completed
@@ -116,6 +154,16 @@ public class DownloadItem {
         return !isActive && downloadProgress == 100;
     }
     
+    // Whether the finished file differs from what the server said it sent
+    public boolean hasChecksumMismatch() {
+        return sha256 != null && expectedSha256 != null && !sha256.equalsIgnoreCase(expectedSha256);
+    }
+    
+    // Kept or held back for the user to decide; the status names the copy already in Downloads
+    public boolean isDuplicate() {
+        return downloadStatus != null && downloadStatus.startsWith(STATUS_DUPLICATE);
+    }
+    
     // ENHANCED: Check if download failed
     public boolean isFailed() {
         return !isActive && downloadProgress < 100 && downloadStatus != null && 
@@ -1,173 +1,326 @@
 package com.desktopbrowser.advanced;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Environment;
+import android.os.FileObserver;
 import android.util.Log;
-import android.webkit.MimeTypeMap;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 import java.io.File;
 import java.lang.reflect.Type;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class DownloadManager {
+public class DownloadManager extends SQLiteOpenHelper {
     private static final String TAG = "DownloadManager";
+    private static final String DATABASE_NAME = "downloads.db";
+    private static final int DATABASE_VERSION = 4;
+    
+    // Legacy ledger: the whole list as one JSON string, migrated into the table once and then removed
     private static final String PREFS_NAME = "RealDesktopBrowserDownloads";
     private static final String KEY_DOWNLOADS = "downloads_list";
     
+    private static final String TABLE_DOWNLOADS = "downloads";
+    private static final String COLUMN_DOWNLOAD_ID = "download_id";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_FILENAME = "filename";
+    private static final String COLUMN_FILEPATH = "filepath";
+    private static final String COLUMN_FILE_SIZE = "file_size";
+    private static final String COLUMN_DOWNLOAD_TIME = "download_time";
+    private static final String COLUMN_FILE_TYPE = "file_type";
+    private static final String COLUMN_FILE_ICON = "file_icon";
+    private static final String COLUMN_FILE_DESCRIPTION = "file_description";
+    private static final String COLUMN_PROGRESS = "progress";
+    private static final String COLUMN_STATUS = "status";
+    private static final String COLUMN_SPEED = "speed";
+    private static final String COLUMN_TIME_REMAINING = "time_remaining";
+    private static final String COLUMN_BYTES_DOWNLOADED = "bytes_downloaded";
+    private static final String COLUMN_TOTAL_BYTES = "total_bytes";
+    private static final String COLUMN_IS_ACTIVE = "is_active";
+    
+    private static final String INDEX_DOWNLOADS_TIME = "idx_downloads_time";
+    private static final String INDEX_DOWNLOADS_ACTIVE = "idx_downloads_active";
+    private static final String INDEX_DOWNLOADS_FILEPATH = "idx_downloads_filepath";
+    
+    // Suffix of the file an in-app download writes into until it is complete
+    private static final String PART_SUFFIX = ".part";
+    
+    // ETag or Last-Modified of an in-app download, checked before resuming its segments
+    private static final String COLUMN_VALIDATOR = "validator";
+    
+    // Scheduling of in-app downloads (see DownloadScheduler)
+    private static final String COLUMN_PRIORITY = "priority";
+    private static final String COLUMN_PAUSED = "paused";
+    
+    // Hex SHA-256 of the finished file, and the one the server announced (Digest header) if any
+    private static final String COLUMN_SHA256 = "sha256";
+    private static final String COLUMN_EXPECTED_SHA256 = "expected_sha256";
+    private static final String INDEX_DOWNLOADS_SHA256 = "idx_downloads_sha256";
+    
+    // Byte-range checkpoints of in-app segmented downloads; rows cascade away with their download
+    private static final String TABLE_SEGMENTS = "download_segments";
+    private static final String COLUMN_SEGMENT = "segment";
+    private static final String COLUMN_START_OFFSET = "start_offset";
+    private static final String COLUMN_END_OFFSET = "end_offset";
+    private static final String COLUMN_POSITION = "position";
+    
+    // Only the newest downloads are kept in the ledger
+    private static final int MAX_DOWNLOADS = 100;
+    
+    private static final String SELECT_DOWNLOAD_TIME_SQL = "SELECT " + COLUMN_DOWNLOAD_TIME + " FROM " + TABLE_DOWNLOADS
+            + " WHERE " + COLUMN_DOWNLOAD_ID + " = ?";
+    
+    // A progress tick touches exactly one row through the primary key. Speed and ETA are only
+    // rewritten when they could be computed (null keeps the previous value), and the final size
+    // is taken from the total once the download completes.
+    private static final String UPDATE_PROGRESS_SQL = "UPDATE " + TABLE_DOWNLOADS + " SET "
+            + COLUMN_PROGRESS + " = ?, "
+            + COLUMN_BYTES_DOWNLOADED + " = ?, "
+            + COLUMN_TOTAL_BYTES + " = ?, "
+            + COLUMN_SPEED + " = COALESCE(?, " + COLUMN_SPEED + "), "
+            + COLUMN_TIME_REMAINING + " = COALESCE(?, " + COLUMN_TIME_REMAINING + "), "
+            + COLUMN_STATUS + " = ?, "
+            + COLUMN_IS_ACTIVE + " = ?, "
+            + COLUMN_FILE_SIZE + " = COALESCE(?, " + COLUMN_FILE_SIZE + ")"
+            + " WHERE " + COLUMN_DOWNLOAD_ID + " = ?";
+    
+    // Unfinished rows are never trimmed: they own segment checkpoints and .part files
+    private static final String TRIM_DOWNLOADS_SQL = "DELETE FROM " + TABLE_DOWNLOADS
+            + " WHERE " + COLUMN_IS_ACTIVE + " = 0 AND " + COLUMN_DOWNLOAD_ID + " NOT IN (SELECT " + COLUMN_DOWNLOAD_ID + " FROM " + TABLE_DOWNLOADS
+            + " ORDER BY " + COLUMN_DOWNLOAD_TIME + " DESC LIMIT " + MAX_DOWNLOADS + ")";
+    
+    private static final String ORDER_NEWEST_FIRST = COLUMN_DOWNLOAD_TIME + " DESC";
+    
+    private static final String UPDATE_SEGMENT_POSITION_SQL = "UPDATE " + TABLE_SEGMENTS + " SET "
+            + COLUMN_POSITION + " = ?"
+            + " WHERE " + COLUMN_DOWNLOAD_ID + " = ? AND " + COLUMN_SEGMENT + " = ?";
+    
+    // Size cache value for a path with no file behind it
+    private static final long FILE_MISSING = -1;
+    
+    // Directory events that can change whether a file exists or how large it is once written
+    private static final int DOWNLOADS_DIR_EVENTS = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+    
     private static DownloadManager instance;
-    private SharedPreferences prefs;
-    private Gson gson;
-    private Context context;
+    private final Context context;
+    
+    // Ledger rows newest first, shared by all list views and re-read only after a write (null = stale).
+    // The version guards against a read racing a write and caching rows from before it.
+    private volatile List<DownloadItem> cachedRows;
+    private final AtomicInteger rowsVersion = new AtomicInteger();
+    
+    // filepath -> size on disk (or FILE_MISSING) for files in the Downloads directory. The observer drops
+    // entries as files change and the next read stat()s them again; everything else stays cached.
+    private final Map<String, Long> fileSizes = new ConcurrentHashMap<>();
+    private final File downloadsDir;
+    private final FileObserver downloadsObserver;
+    private volatile boolean watchingDownloads = false;
     
     private DownloadManager(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
         this.context = context.getApplicationContext();
-        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        gson = new Gson();
+        
+        // Progress writes from the download callbacks must not block DownloadsActivity's reads
+        setWriteAheadLoggingEnabled(true);
+        
+        downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        downloadsObserver = new DownloadsDirObserver(downloadsDir);
+        
+        migrateLegacyLedger();
     }
     
-    public static DownloadManager getInstance(Context context) {
+    public static synchronized DownloadManager getInstance(Context context) {
         if (instance == null) {
             instance = new DownloadManager(context.getApplicationContext());
         }
         return instance;
     }
     
-    // INTELLIGENT FILE TYPE DETECTION
-    public static class FileTypeInfo {
-        public String category;
-        public String icon;
-        public String description;
-        
-        public FileTypeInfo(String category, String icon, String description) {
-            this.category = category;
-            this.icon = icon;
-            this.description = description;
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        String createTable = "CREATE TABLE " + TABLE_DOWNLOADS + "("
+                + COLUMN_DOWNLOAD_ID + " TEXT PRIMARY KEY,"
+                + COLUMN_URL + " TEXT,"
+                + COLUMN_FILENAME + " TEXT,"
+                + COLUMN_FILEPATH + " TEXT,"
+                + COLUMN_FILE_SIZE + " INTEGER DEFAULT 0,"
+                + COLUMN_DOWNLOAD_TIME + " INTEGER NOT NULL,"
+                + COLUMN_FILE_TYPE + " TEXT,"
+                + COLUMN_FILE_ICON + " TEXT,"
+                + COLUMN_FILE_DESCRIPTION + " TEXT,"
+                + COLUMN_PROGRESS + " INTEGER DEFAULT 0,"
+                + COLUMN_STATUS + " TEXT,"
+                + COLUMN_SPEED + " TEXT,"
+                + COLUMN_TIME_REMAINING + " TEXT,"
+                + COLUMN_BYTES_DOWNLOADED + " INTEGER DEFAULT 0,"
+                + COLUMN_TOTAL_BYTES + " INTEGER DEFAULT 0,"
+                + COLUMN_IS_ACTIVE + " INTEGER DEFAULT 0,"
+                + COLUMN_VALIDATOR + " TEXT,"
+                + COLUMN_PRIORITY + " INTEGER DEFAULT " + DownloadItem.PRIORITY_NORMAL + ","
+                + COLUMN_PAUSED + " INTEGER DEFAULT 0,"
+                + COLUMN_SHA256 + " TEXT,"
+                + COLUMN_EXPECTED_SHA256 + " TEXT"
+                + ")";
+        db.execSQL(createTable);
+        createDownloadIndexes(db);
+        createHashIndex(db);
+        createSegmentsTable(db);
+    }
+    
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Segment checkpoints cascade away with their download row
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+    
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Version 1 is the first table-backed schema; the JSON ledger is migrated separately
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            upgradeToVersion3(db);
         }
+        if (oldVersion < 4) {
+            upgradeToVersion4(db);
+        }
+    }
+    
+    // Version 2: resumable in-app downloads (validator column and per-segment checkpoints)
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_DOWNLOADS + " ADD COLUMN " + COLUMN_VALIDATOR + " TEXT");
+        createSegmentsTable(db);
+        Log.d(TAG, "✅ Downloads schema upgraded to version 2");
+    }
+    
+    // Version 3: priority and paused flag for the download scheduler
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_DOWNLOADS + " ADD COLUMN " + COLUMN_PRIORITY
+                + " INTEGER DEFAULT " + DownloadItem.PRIORITY_NORMAL);
+        db.execSQL("ALTER TABLE " + TABLE_DOWNLOADS + " ADD COLUMN " + COLUMN_PAUSED + " INTEGER DEFAULT 0");
+        Log.d(TAG, "✅ Downloads schema upgraded to version 3");
+    }
+    
+    // Version 4: content hashes for duplicate detection and integrity checks
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_DOWNLOADS + " ADD COLUMN " + COLUMN_SHA256 + " TEXT");
+        db.execSQL("ALTER TABLE " + TABLE_DOWNLOADS + " ADD COLUMN " + COLUMN_EXPECTED_SHA256 + " TEXT");
+        createHashIndex(db);
+        Log.d(TAG, "✅ Downloads schema upgraded to version 4");
+    }
+    
+    private void createHashIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DOWNLOADS_SHA256
+                + " ON " + TABLE_DOWNLOADS + "(" + COLUMN_SHA256 + ")");
+    }
+    
+    private void createSegmentsTable(SQLiteDatabase db) {
+        // Primary key (download_id, segment) also serves the cascade from downloads
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_SEGMENTS + "("
+                + COLUMN_DOWNLOAD_ID + " TEXT NOT NULL REFERENCES " + TABLE_DOWNLOADS + "(" + COLUMN_DOWNLOAD_ID + ") ON DELETE CASCADE,"
+                + COLUMN_SEGMENT + " INTEGER NOT NULL,"
+                + COLUMN_START_OFFSET + " INTEGER NOT NULL,"
+                + COLUMN_END_OFFSET + " INTEGER NOT NULL,"
+                + COLUMN_POSITION + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + COLUMN_DOWNLOAD_ID + ", " + COLUMN_SEGMENT + ")"
+                + ")");
+    }
+    
+    private void createDownloadIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DOWNLOADS_TIME
+                + " ON " + TABLE_DOWNLOADS + "(" + COLUMN_DOWNLOAD_TIME + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DOWNLOADS_ACTIVE
+                + " ON " + TABLE_DOWNLOADS + "(" + COLUMN_IS_ACTIVE + ", " + COLUMN_DOWNLOAD_TIME + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DOWNLOADS_FILEPATH
+                + " ON " + TABLE_DOWNLOADS + "(" + COLUMN_FILEPATH + ")");
     }
     
-    public FileTypeInfo intelligentFileTypeDetection(String url, String filename) {
+    // One-time move of the SharedPreferences JSON list into the table. The key is only removed after
+    // the rows are committed, so an interrupted migration simply runs again on the next start.
+    private void migrateLegacyLedger() {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String downloadsJson = prefs.getString(KEY_DOWNLOADS, null);
+        if (downloadsJson == null) {
+            return;
+        }
+        
         try {
-            // Extract file extension
-            String extension = "";
-            if (filename != null && filename.contains(".")) {
-                extension = filename.substring(filename.lastIndexOf(".") + 1).toLowerCase();
-            } else if (url != null && url.contains(".")) {
-                String urlPath = url.split("\\?")[0]; // Remove query parameters
-                if (urlPath.contains(".")) {
-                    extension = urlPath.substring(urlPath.lastIndexOf(".") + 1).toLowerCase();
-                }
-            }
+            Type type = new TypeToken<List<DownloadItem>>(){}.getType();
+            List<DownloadItem> downloads = new Gson().fromJson(downloadsJson, type);
+            int migrated = 0;
             
-            Log.d(TAG, "🔍 Detecting file type for extension: " + extension);
-            
-            // Intelligent categorization
-            switch (extension) {
-                // Images
-                case "jpg":
-                case "jpeg":
-                case "png":
-                case "gif":
-                case "bmp":
-                case "webp":
-                case "svg":
-                    return new FileTypeInfo("Image", "🖼️", "Image File");
-                
-                // Videos
-                case "mp4":
-                case "avi":
-                case "mkv":
-                case "mov":
-                case "wmv":
-                case "flv":
-                case "webm":
-                case "m4v":
-                    return new FileTypeInfo("Video", "🎥", "Video File");
-                
-                // Audio
-                case "mp3":
-                case "wav":
-                case "flac":
-                case "aac":
-                case "ogg":
-                case "m4a":
-                case "wma":
-                    return new FileTypeInfo("Audio", "🎵", "Audio File");
-                
-                // Documents
-                case "pdf":
-                    return new FileTypeInfo("Document", "📄", "PDF Document");
-                case "doc":
-                case "docx":
-                    return new FileTypeInfo("Document", "📝", "Word Document");
-                case "xls":
-                case "xlsx":
-                    return new FileTypeInfo("Document", "📊", "Excel Spreadsheet");
-                case "ppt":
-                case "pptx":
-                    return new FileTypeInfo("Document", "📊", "PowerPoint Presentation");
-                case "txt":
-                    return new FileTypeInfo("Document", "📄", "Text File");
-                
-                // Archives
-                case "zip":
-                case "rar":
-                case "7z":
-                case "tar":
-                case "gz":
-                    return new FileTypeInfo("Archive", "🗜️", "Archive File");
-                
-                // Applications
-                case "apk":
-                    return new FileTypeInfo("Application", "📱", "Android App");
-                case "exe":
-                    return new FileTypeInfo("Application", "⚙️", "Windows Application");
-                
-                // Web files
-                case "html":
-                case "htm":
-                    return new FileTypeInfo("Web", "🌐", "Web Page");
-                case "css":
-                    return new FileTypeInfo("Web", "🎨", "Stylesheet");
-                case "js":
-                    return new FileTypeInfo("Web", "⚡", "JavaScript File");
-                
-                default:
-                    // Try MIME type detection as fallback
-                    String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-                    if (mimeType != null) {
-                        if (mimeType.startsWith("image/")) {
-                            return new FileTypeInfo("Image", "🖼️", "Image File");
-                        } else if (mimeType.startsWith("video/")) {
-                            return new FileTypeInfo("Video", "🎥", "Video File");
-                        } else if (mimeType.startsWith("audio/")) {
-                            return new FileTypeInfo("Audio", "🎵", "Audio File");
-                        } else if (mimeType.startsWith("text/")) {
-                            return new FileTypeInfo("Document", "📄", "Text File");
+            if (downloads != null) {
+                SQLiteDatabase db = getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < downloads.size(); i++) {
+                        DownloadItem item = downloads.get(i);
+                        if (item == null || item.filepath == null) {
+                            continue;
+                        }
+                        if (item.downloadId == null) {
+                            // Very old entries were stored without an id
+                            item.downloadId = "legacy-" + item.downloadTime + "-" + i;
+                        }
+                        // The list was newest first, so an older duplicate of an id never replaces a newer one
+                        if (db.insertWithOnConflict(TABLE_DOWNLOADS, null, toContentValues(item),
+                                SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                            migrated++;
                         }
                     }
-                    
-                    Log.d(TAG, "🤷 Unknown file type for extension: " + extension);
-                    return new FileTypeInfo("Other", "📄", "File");
+                    db.execSQL(TRIM_DOWNLOADS_SQL);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
             }
+            
+            prefs.edit().remove(KEY_DOWNLOADS).commit();
+            Log.d(TAG, "✅ Migrated " + migrated + " downloads from preferences to database");
+        } catch (JsonParseException e) {
+            // Unreadable blob; nothing can be recovered from it, so don't retry on every start
+            prefs.edit().remove(KEY_DOWNLOADS).commit();
+            Log.e(TAG, "💥 Discarding unreadable legacy download list", e);
         } catch (Exception e) {
-            Log.e(TAG, "💥 Error detecting file type", e);
-            return new FileTypeInfo("Other", "📄", "File");
+            Log.e(TAG, "💥 Error migrating legacy download list", e);
         }
     }
     
     // ENHANCED: Add download with live progress tracking
     public void addDownloadWithProgress(String filename, String url, String downloadId) {
+        insertDownload(filename, url, downloadId, -1);
+    }
+    
+    // A file that was written in full before it was tracked (data: URIs); the row goes in complete, so no
+    // poller ever sees it half-done
+    public void addCompletedDownload(String filename, String url, String downloadId, long bytes) {
+        insertDownload(filename, url, downloadId, bytes);
+    }
+    
+    // completedBytes is -1 for a download that is only starting
+    private void insertDownload(String filename, String url, String downloadId, long completedBytes) {
         try {
             Log.d(TAG, "🚀 Adding download with live progress tracking: " + filename + ", ID: " + downloadId);
             
-            List<DownloadItem> downloads = getAllDownloads();
-            
             // Create filepath in Downloads directory
             String downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS).getAbsolutePath();
             String filepath = downloadsDir + File.separator + filename;
@@ -175,7 +328,7 @@ public class DownloadManager {
             // Get file info
             File file = new File(filepath);
             long fileSize = file.exists() ? file.length() : 0;
-            FileTypeInfo typeInfo = intelligentFileTypeDetection(url, filename);
+            FileTypeRegistry.FileTypeInfo typeInfo = FileTypeRegistry.detect(url, filename);
             
             // Create enhanced download item with progress tracking
             DownloadItem item = new DownloadItem();
@@ -198,20 +351,35 @@ public class DownloadManager {
             item.totalBytes = 0;
             item.isActive = true;
             
-            // Add to list (newest first)
-            downloads.add(0, item);
-            
-            // Keep only last 100 downloads to avoid storage issues
-            if (downloads.size() > 100) {
-                downloads = downloads.subList(0, 100);
+            boolean completed = completedBytes >= 0;
+            if (completed) {
+                item.downloadProgress = 100;
+                item.downloadStatus = "✅ Completed";
+                item.estimatedTimeRemaining = "0 sec";
+                item.bytesDownloaded = completedBytes;
+                item.totalBytes = completedBytes;
+                item.fileSize = completedBytes;
+                item.isActive = false;
             }
             
-            // Save to preferences
-            String downloadsJson = gson.toJson(downloads);
-            prefs.edit().putString(KEY_DOWNLOADS, downloadsJson).apply();
+            // Insert the row and keep only the newest downloads
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.insertWithOnConflict(TABLE_DOWNLOADS, null, toContentValues(item), SQLiteDatabase.CONFLICT_REPLACE);
+                db.execSQL(TRIM_DOWNLOADS_SQL);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                invalidateRows();
+            }
             
             Log.d(TAG, "✅ Enhanced download added successfully with progress tracking: " + filename + " (" + typeInfo.category + ")");
-            
+            if (completed) {
+                // Hashed in the background for duplicate detection, as downloads are when they finish
+                DownloadHasher.getInstance(context).hash(downloadId);
+            }
+        
         } catch (Exception e) {
             Log.e(TAG, "💥 Error adding download with progress", e);
         }
@@ -220,56 +388,66 @@ public class DownloadManager {
     // ENHANCED: Update download progress in real-time
     public void updateDownloadProgress(String downloadId, int progress, long bytesDownloaded, long totalBytes) {
         try {
-            List<DownloadItem> downloads = getAllDownloads();
-            boolean updated = false;
+            SQLiteDatabase db = getWritableDatabase();
             
-            for (DownloadItem item : downloads) {
-                if (downloadId.equals(item.downloadId)) {
-                    // Update progress information
-                    item.downloadProgress = progress;
-                    item.bytesDownloaded = bytesDownloaded;
-                    item.totalBytes = totalBytes;
-                    
-                    // Calculate download speed (simplified)
-                    long currentTime = System.currentTimeMillis();
-                    long timeElapsed = currentTime - item.downloadTime;
-                    if (timeElapsed > 0) {
-                        long speedBytesPerSecond = (bytesDownloaded * 1000) / timeElapsed;
-                        item.downloadSpeed = formatSpeed(speedBytesPerSecond);
-                        
-                        // Calculate estimated time remaining
-                        if (speedBytesPerSecond > 0 && totalBytes > bytesDownloaded) {
-                            long remainingBytes = totalBytes - bytesDownloaded;
-                            long remainingSeconds = remainingBytes / speedBytesPerSecond;
-                            item.estimatedTimeRemaining = formatTimeRemaining(remainingSeconds);
-                        } else {
-                            item.estimatedTimeRemaining = "Almost done...";
-                        }
-                    }
-                    
-                    // Update status
-                    if (progress == 100) {
-                        item.downloadStatus = "✅ Completed";
-                        item.isActive = false;
-                        item.fileSize = totalBytes; // Update final file size
-                    } else {
-                        item.downloadStatus = "📥 Downloading... " + progress + "%";
-                        item.isActive = true;
-                    }
-                    
-                    updated = true;
-                    break;
-                }
+            // Start time of this one download, looked up through the primary key
+            long downloadTime;
+            try (SQLiteStatement select = db.compileStatement(SELECT_DOWNLOAD_TIME_SQL)) {
+                select.bindString(1, downloadId);
+                downloadTime = select.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // Not tracked
+                return;
             }
             
-            if (updated) {
-                // Save updated progress
-                String downloadsJson = gson.toJson(downloads);
-                prefs.edit().putString(KEY_DOWNLOADS, downloadsJson).apply();
+            // Calculate download speed (simplified)
+            String downloadSpeed = null;
+            String estimatedTimeRemaining = null;
+            long currentTime = System.currentTimeMillis();
+            long timeElapsed = currentTime - downloadTime;
+            if (timeElapsed > 0) {
+                long speedBytesPerSecond = (bytesDownloaded * 1000) / timeElapsed;
+                downloadSpeed = formatSpeed(speedBytesPerSecond);
                 
-                Log.d(TAG, "📊 Download progress updated: " + downloadId + " - " + progress + "%");
+                // Calculate estimated time remaining
+                if (speedBytesPerSecond > 0 && totalBytes > bytesDownloaded) {
+                    long remainingBytes = totalBytes - bytesDownloaded;
+                    long remainingSeconds = remainingBytes / speedBytesPerSecond;
+                    estimatedTimeRemaining = formatTimeRemaining(remainingSeconds);
+                } else {
+                    estimatedTimeRemaining = "Almost done...";
+                }
             }
             
+            // Update status
+            boolean completed = progress == 100;
+            String downloadStatus = completed ? "✅ Completed" : "📥 Downloading... " + progress + "%";
+            
+            try (SQLiteStatement update = db.compileStatement(UPDATE_PROGRESS_SQL)) {
+                update.bindLong(1, progress);
+                update.bindLong(2, bytesDownloaded);
+                update.bindLong(3, totalBytes);
+                bindStringOrNull(update, 4, downloadSpeed);
+                bindStringOrNull(update, 5, estimatedTimeRemaining);
+                update.bindString(6, downloadStatus);
+                update.bindLong(7, completed ? 0 : 1);
+                if (completed) {
+                    update.bindLong(8, totalBytes); // Update final file size
+                } else {
+                    update.bindNull(8);
+                }
+                update.bindString(9, downloadId);
+                
+                if (update.executeUpdateDelete() > 0) {
+                    invalidateRows();
+                    Log.d(TAG, "📊 Download progress updated: " + downloadId + " - " + progress + "%");
+                    if (completed) {
+                        // Hashed in the background for duplicate detection and Digest verification
+                        DownloadHasher.getInstance(context).hash(downloadId);
+                    }
+                }
+            }
+        
         } catch (Exception e) {
             Log.e(TAG, "💥 Error updating download progress", e);
         }
@@ -281,42 +459,38 @@ public class DownloadManager {
         addDownloadWithProgress(filename, url, downloadId);
     }
     
-    // Get all downloads
+    // Get all downloads. Answered from the cached rows and file sizes; the disk is only touched for
+    // files the observer reported as changed. Rows whose file is gone are deleted from the ledger.
     public List<DownloadItem> getAllDownloads() {
+        List<DownloadItem> existingDownloads = new ArrayList<>();
+        List<String> missingIds = new ArrayList<>();
+        
         try {
-            String downloadsJson = prefs.getString(KEY_DOWNLOADS, null);
-            if (downloadsJson != null) {
-                Type type = new TypeToken<List<DownloadItem>>(){}.getType();
-                List<DownloadItem> downloads = gson.fromJson(downloadsJson, type);
-                
-                // Filter out files that no longer exist and update file sizes
-                List<DownloadItem> existingDownloads = new ArrayList<>();
-                for (DownloadItem item : downloads) {
-                    File file = new File(item.filepath);
-                    if (file.exists()) {
-                        // Update file size if it has changed
-                        long currentSize = file.length();
-                        if (item.fileSize != currentSize) {
-                            item.fileSize = currentSize;
-                        }
-                        existingDownloads.add(item);
-                    } else {
-                        Log.d(TAG, "🗑️ Removing non-existent file from list: " + item.filename);
+            for (DownloadItem item : getLedgerRows()) {
+                long currentSize = fileSize(item.filepath);
+                if (currentSize != FILE_MISSING) {
+                    // The cached rows are shared and never changed; a row whose file size moved is copied
+                    if (item.fileSize != currentSize) {
+                        item = item.copy();
+                        item.fileSize = currentSize;
                     }
+                    existingDownloads.add(item);
+                } else if (item.isActive) {
+                    // The system download manager creates the file only once data arrives
+                    existingDownloads.add(item);
+                } else {
+                    Log.d(TAG, "🗑️ Removing non-existent file from list: " + item.filename);
+                    missingIds.add(item.downloadId);
                 }
-                
-                // Update list if files were removed or sizes changed
-                if (existingDownloads.size() != downloads.size()) {
-                    String updatedJson = gson.toJson(existingDownloads);
-                    prefs.edit().putString(KEY_DOWNLOADS, updatedJson).apply();
-                }
-                
-                return existingDownloads;
+            }
+            
+            if (!missingIds.isEmpty()) {
+                deleteDownloads(missingIds);
             }
         } catch (Exception e) {
             Log.e(TAG, "💥 Error getting downloads", e);
         }
-        return new ArrayList<>();
+        return existingDownloads;
     }
     
     // Get active downloads (currently downloading)
@@ -361,15 +535,259 @@ public class DownloadManager {
         return filteredDownloads;
     }
     
+    // One download by id, or null if it is not tracked
+    public DownloadItem getDownload(String downloadId) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOWNLOADS, null,
+                COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                return new DownloadCursorReader(cursor).read(cursor);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error getting download " + downloadId, e);
+        }
+        return null;
+    }
+    
+    // Marks a download as no longer running without completing it (failed or cancelled in the system)
+    public void markDownloadFailed(String downloadId) {
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_STATUS, "❌ Download failed");
+            values.put(COLUMN_IS_ACTIVE, 0);
+            values.put(COLUMN_SPEED, "0 KB/s");
+            getWritableDatabase().update(TABLE_DOWNLOADS, values, COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId});
+            invalidateRows();
+            Log.d(TAG, "❌ Download marked as failed: " + downloadId);
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error marking download as failed", e);
+        }
+    }
+    
+    // Status line shown while a download waits (queued, waiting for Wi-Fi)
+    public void setDownloadStatus(String downloadId, String status) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATUS, status);
+        updateDownload(downloadId, values);
+    }
+    
+    // Paused downloads stay active (they are unfinished) but are skipped by the scheduler
+    public void setDownloadPaused(String downloadId, boolean paused, String status) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PAUSED, paused ? 1 : 0);
+        values.put(COLUMN_IS_ACTIVE, 1);
+        values.put(COLUMN_STATUS, status);
+        values.put(COLUMN_SPEED, "0 KB/s");
+        updateDownload(downloadId, values);
+    }
+    
+    // Checked against the file's hash once it is complete
+    public void setExpectedSha256(String downloadId, String sha256) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_EXPECTED_SHA256, sha256);
+        updateDownload(downloadId, values);
+    }
+    
+    public void setSha256(String downloadId, String sha256) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SHA256, sha256);
+        updateDownload(downloadId, values);
+    }
+    
+    // Type recognised from the content of a file whose name has no extension
+    public void setFileType(String downloadId, FileTypeRegistry.FileTypeInfo typeInfo) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_FILE_TYPE, typeInfo.category);
+        values.put(COLUMN_FILE_ICON, typeInfo.icon);
+        values.put(COLUMN_FILE_DESCRIPTION, typeInfo.description);
+        updateDownload(downloadId, values);
+    }
+    
+    // A name in Downloads that no file, partial file or unfinished download uses yet: the name itself,
+    // then "name-1.ext", "name-2.ext" and so on. Nothing is reserved until the caller adds its row, so
+    // new downloads are created on the scheduler thread only.
+    public String uniqueFilename(String filename) {
+        File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        int dot = filename.lastIndexOf('.');
+        String base = dot > 0 ? filename.substring(0, dot) : filename;
+        String extension = dot > 0 ? filename.substring(dot) : "";
+        
+        String candidate = filename;
+        for (int n = 1; isFilenameTaken(downloadsDir, candidate); n++) {
+            candidate = base + "-" + n + extension;
+        }
+        return candidate;
+    }
+    
+    private boolean isFilenameTaken(File downloadsDir, String filename) {
+        File file = new File(downloadsDir, filename);
+        if (file.exists() || new File(downloadsDir, filename + PART_SUFFIX).exists()) {
+            return true;
+        }
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOWNLOADS, new String[]{COLUMN_DOWNLOAD_ID},
+                COLUMN_FILEPATH + " = ? AND " + COLUMN_IS_ACTIVE + " = 1",
+                new String[]{file.getAbsolutePath()}, null, null, null, "1")) {
+            return cursor.moveToFirst();
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error checking download name " + filename, e);
+            return false;
+        }
+    }
+    
+    // The file was saved under another name than the one the download was created with
+    public void setDownloadFile(String downloadId, File file) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_FILENAME, file.getName());
+        values.put(COLUMN_FILEPATH, file.getAbsolutePath());
+        updateDownload(downloadId, values);
+    }
+    
+    // A finished download other than excludeId whose content has this hash, or null. Served by the
+    // hash index; the caller checks that the file is still there.
+    public DownloadItem findDownloadBySha256(String sha256, String excludeId) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOWNLOADS, null,
+                COLUMN_SHA256 + " = ? AND " + COLUMN_DOWNLOAD_ID + " != ? AND " + COLUMN_IS_ACTIVE + " = 0",
+                new String[]{sha256, excludeId != null ? excludeId : ""}, null, null, ORDER_NEWEST_FIRST)) {
+            DownloadCursorReader reader = new DownloadCursorReader(cursor);
+            while (cursor.moveToNext()) {
+                DownloadItem item = reader.read(cursor);
+                if (item.filepath != null && new File(item.filepath).isFile()) {
+                    return item;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error looking up download by hash", e);
+        }
+        return null;
+    }
+    
+    // Remove one download by id (its file is left alone)
+    public void removeDownloadById(String downloadId) {
+        try {
+            getWritableDatabase().delete(TABLE_DOWNLOADS, COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId});
+            invalidateRows();
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error removing download " + downloadId, e);
+        }
+    }
+    
+    public void setDownloadPriority(String downloadId, int priority) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PRIORITY, priority);
+        updateDownload(downloadId, values);
+    }
+    
+    private void updateDownload(String downloadId, ContentValues values) {
+        try {
+            getWritableDatabase().update(TABLE_DOWNLOADS, values, COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId});
+            invalidateRows();
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error updating download " + downloadId, e);
+        }
+    }
+    
+    // All ledger rows newest first, from the cache when no write happened since it was filled
+    private List<DownloadItem> getLedgerRows() {
+        List<DownloadItem> rows = cachedRows;
+        if (rows != null) {
+            return rows;
+        }
+        
+        int version = rowsVersion.get();
+        rows = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOWNLOADS, null, null, null,
+                null, null, ORDER_NEWEST_FIRST)) {
+            DownloadCursorReader reader = new DownloadCursorReader(cursor);
+            while (cursor.moveToNext()) {
+                rows.add(reader.read(cursor));
+            }
+        }
+        rows = Collections.unmodifiableList(rows);
+        if (rowsVersion.get() == version) {
+            cachedRows = rows;
+        }
+        return rows;
+    }
+    
+    private void invalidateRows() {
+        rowsVersion.incrementAndGet();
+        cachedRows = null;
+    }
+    
+    // Size of the file at this path, or FILE_MISSING. Files in the watched Downloads directory are
+    // stat()ed once and then served from memory until the observer reports a change.
+    private long fileSize(String filepath) {
+        File file = new File(filepath);
+        if (!downloadsDir.equals(file.getParentFile()) || !ensureWatching()) {
+            return file.exists() ? file.length() : FILE_MISSING;
+        }
+        
+        String key = file.getAbsolutePath();
+        Long size = fileSizes.get(key);
+        if (size == null) {
+            size = file.exists() ? file.length() : FILE_MISSING;
+            fileSizes.put(key, size);
+        }
+        return size;
+    }
+    
+    // The observer can only watch an existing directory and stops for good if it is deleted or moved;
+    // (re)start it when the directory is there, otherwise fall back to stat() on every read
+    private boolean ensureWatching() {
+        if (watchingDownloads) {
+            return true;
+        }
+        synchronized (downloadsObserver) {
+            if (!watchingDownloads && downloadsDir.isDirectory()) {
+                fileSizes.clear();
+                // Drops the stale watch left behind when the directory went away
+                downloadsObserver.stopWatching();
+                downloadsObserver.startWatching();
+                watchingDownloads = true;
+            }
+            return watchingDownloads;
+        }
+    }
+    
+    private class DownloadsDirObserver extends FileObserver {
+        
+        // The File constructor is API 29+; the path one covers every supported version
+        @SuppressWarnings("deprecation")
+        DownloadsDirObserver(File dir) {
+            super(dir.getAbsolutePath(), DOWNLOADS_DIR_EVENTS);
+        }
+        
+        @Override
+        public void onEvent(int event, String path) {
+            if ((event & (DELETE_SELF | MOVE_SELF)) != 0) {
+                watchingDownloads = false;
+                fileSizes.clear();
+            } else if (path == null) {
+                fileSizes.clear();
+            } else {
+                fileSizes.remove(new File(downloadsDir, path).getAbsolutePath());
+            }
+        }
+    }
+    
+    private void deleteDownloads(List<String> downloadIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String downloadId : downloadIds) {
+                db.delete(TABLE_DOWNLOADS, COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            invalidateRows();
+        }
+    }
+    
     // Remove download
     public void removeDownload(String filepath) {
         try {
-            List<DownloadItem> downloads = getAllDownloads();
-            downloads.removeIf(item -> filepath.equals(item.filepath));
-            
-            String downloadsJson = gson.toJson(downloads);
-            prefs.edit().putString(KEY_DOWNLOADS, downloadsJson).apply();
-            
+            getWritableDatabase().delete(TABLE_DOWNLOADS, COLUMN_FILEPATH + " = ?", new String[]{filepath});
+            invalidateRows();
             Log.d(TAG, "🗑️ Download removed from tracking");
         } catch (Exception e) {
             Log.e(TAG, "💥 Error removing download", e);
@@ -378,8 +796,186 @@ public class DownloadManager {
     
     // Clear all downloads
     public void clearAllDownloads() {
-        prefs.edit().remove(KEY_DOWNLOADS).apply();
-        Log.d(TAG, "🧹 All downloads cleared from tracking");
+        try {
+            getWritableDatabase().delete(TABLE_DOWNLOADS, null, null);
+            invalidateRows();
+            Log.d(TAG, "🧹 All downloads cleared from tracking");
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error clearing downloads", e);
+        }
+    }
+    
+    // One byte range of an in-app segmented download. end is inclusive; position is the next offset to
+    // write and only moves forward on the thread fetching the segment.
+    public static class Segment {
+        public final int index;
+        public final long start;
+        public final long end;
+        public volatile long position;
+        
+        public Segment(int index, long start, long end, long position) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+        
+        public boolean isComplete() {
+            return position > end;
+        }
+        
+        public long getDownloadedBytes() {
+            return position - start;
+        }
+    }
+    
+    // Replaces the checkpoints of a download (a fresh plan or a restart after the file changed)
+    public void saveSegments(String downloadId, String validator, List<Segment> segments) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_SEGMENTS, COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId});
+            ContentValues values = new ContentValues();
+            for (Segment segment : segments) {
+                values.clear();
+                values.put(COLUMN_DOWNLOAD_ID, downloadId);
+                values.put(COLUMN_SEGMENT, segment.index);
+                values.put(COLUMN_START_OFFSET, segment.start);
+                values.put(COLUMN_END_OFFSET, segment.end);
+                values.put(COLUMN_POSITION, segment.position);
+                db.insert(TABLE_SEGMENTS, null, values);
+            }
+            
+            ContentValues download = new ContentValues();
+            download.put(COLUMN_VALIDATOR, validator);
+            db.update(TABLE_DOWNLOADS, download, COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+    
+    // Checkpoints of a download in segment order; empty if it has none
+    public List<Segment> getSegments(String downloadId) {
+        List<Segment> segments = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SEGMENTS,
+                new String[]{COLUMN_SEGMENT, COLUMN_START_OFFSET, COLUMN_END_OFFSET, COLUMN_POSITION},
+                COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId}, null, null, COLUMN_SEGMENT)) {
+            while (cursor.moveToNext()) {
+                segments.add(new Segment(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3)));
+            }
+        }
+        return segments;
+    }
+    
+    // Called by the fetching thread after the bytes up to position have been written to the file
+    public void updateSegmentPosition(String downloadId, int segment, long position) {
+        try (SQLiteStatement update = getWritableDatabase().compileStatement(UPDATE_SEGMENT_POSITION_SQL)) {
+            update.bindLong(1, position);
+            update.bindString(2, downloadId);
+            update.bindLong(3, segment);
+            update.executeUpdateDelete();
+        }
+    }
+    
+    public void deleteSegments(String downloadId) {
+        getWritableDatabase().delete(TABLE_SEGMENTS, COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId});
+    }
+    
+    public String getValidator(String downloadId) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOWNLOADS, new String[]{COLUMN_VALIDATOR},
+                COLUMN_DOWNLOAD_ID + " = ?", new String[]{downloadId}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+    
+    private static ContentValues toContentValues(DownloadItem item) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DOWNLOAD_ID, item.downloadId);
+        values.put(COLUMN_URL, item.url);
+        values.put(COLUMN_FILENAME, item.filename);
+        values.put(COLUMN_FILEPATH, item.filepath);
+        values.put(COLUMN_FILE_SIZE, item.fileSize);
+        values.put(COLUMN_DOWNLOAD_TIME, item.downloadTime);
+        values.put(COLUMN_FILE_TYPE, item.fileType);
+        values.put(COLUMN_FILE_ICON, item.fileIcon);
+        values.put(COLUMN_FILE_DESCRIPTION, item.fileDescription);
+        values.put(COLUMN_PROGRESS, item.downloadProgress);
+        values.put(COLUMN_STATUS, item.downloadStatus);
+        values.put(COLUMN_SPEED, item.downloadSpeed);
+        values.put(COLUMN_TIME_REMAINING, item.estimatedTimeRemaining);
+        values.put(COLUMN_BYTES_DOWNLOADED, item.bytesDownloaded);
+        values.put(COLUMN_TOTAL_BYTES, item.totalBytes);
+        values.put(COLUMN_IS_ACTIVE, item.isActive ? 1 : 0);
+        values.put(COLUMN_PRIORITY, item.priority);
+        values.put(COLUMN_PAUSED, item.isPaused ? 1 : 0);
+        values.put(COLUMN_SHA256, item.sha256);
+        values.put(COLUMN_EXPECTED_SHA256, item.expectedSha256);
+        return values;
+    }
+    
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+    
+    // Column indexes resolved once per cursor rather than once per row
+    private static class DownloadCursorReader {
+        private final int downloadId, url, filename, filepath, fileSize, downloadTime;
+        private final int fileType, fileIcon, fileDescription;
+        private final int progress, status, speed, timeRemaining, bytesDownloaded, totalBytes, isActive;
+        private final int priority, paused, sha256, expectedSha256;
+        
+        DownloadCursorReader(Cursor cursor) {
+            downloadId = cursor.getColumnIndexOrThrow(COLUMN_DOWNLOAD_ID);
+            url = cursor.getColumnIndexOrThrow(COLUMN_URL);
+            filename = cursor.getColumnIndexOrThrow(COLUMN_FILENAME);
+            filepath = cursor.getColumnIndexOrThrow(COLUMN_FILEPATH);
+            fileSize = cursor.getColumnIndexOrThrow(COLUMN_FILE_SIZE);
+            downloadTime = cursor.getColumnIndexOrThrow(COLUMN_DOWNLOAD_TIME);
+            fileType = cursor.getColumnIndexOrThrow(COLUMN_FILE_TYPE);
+            fileIcon = cursor.getColumnIndexOrThrow(COLUMN_FILE_ICON);
+            fileDescription = cursor.getColumnIndexOrThrow(COLUMN_FILE_DESCRIPTION);
+            progress = cursor.getColumnIndexOrThrow(COLUMN_PROGRESS);
+            status = cursor.getColumnIndexOrThrow(COLUMN_STATUS);
+            speed = cursor.getColumnIndexOrThrow(COLUMN_SPEED);
+            timeRemaining = cursor.getColumnIndexOrThrow(COLUMN_TIME_REMAINING);
+            bytesDownloaded = cursor.getColumnIndexOrThrow(COLUMN_BYTES_DOWNLOADED);
+            totalBytes = cursor.getColumnIndexOrThrow(COLUMN_TOTAL_BYTES);
+            isActive = cursor.getColumnIndexOrThrow(COLUMN_IS_ACTIVE);
+            priority = cursor.getColumnIndexOrThrow(COLUMN_PRIORITY);
+            paused = cursor.getColumnIndexOrThrow(COLUMN_PAUSED);
+            sha256 = cursor.getColumnIndexOrThrow(COLUMN_SHA256);
+            expectedSha256 = cursor.getColumnIndexOrThrow(COLUMN_EXPECTED_SHA256);
+        }
+        
+        DownloadItem read(Cursor cursor) {
+            DownloadItem item = new DownloadItem();
+            item.downloadId = cursor.getString(downloadId);
+            item.url = cursor.getString(url);
+            item.filename = cursor.getString(filename);
+            item.filepath = cursor.getString(filepath);
+            item.fileSize = cursor.getLong(fileSize);
+            item.downloadTime = cursor.getLong(downloadTime);
+            item.fileType = cursor.getString(fileType);
+            item.fileIcon = cursor.getString(fileIcon);
+            item.fileDescription = cursor.getString(fileDescription);
+            item.downloadProgress = cursor.getInt(progress);
+            item.downloadStatus = cursor.getString(status);
+            item.downloadSpeed = cursor.getString(speed);
+            item.estimatedTimeRemaining = cursor.getString(timeRemaining);
+            item.bytesDownloaded = cursor.getLong(bytesDownloaded);
+            item.totalBytes = cursor.getLong(totalBytes);
+            item.isActive = cursor.getInt(isActive) != 0;
+            item.priority = cursor.getInt(priority);
+            item.isPaused = cursor.getInt(paused) != 0;
+            item.sha256 = cursor.getString(sha256);
+            item.expectedSha256 = cursor.getString(expectedSha256);
+            return item;
+        }
     }
     
     // ENHANCED: Format download speed
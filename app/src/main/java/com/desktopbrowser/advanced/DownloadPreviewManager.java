@@ -0,0 +1,494 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.pdf.PdfRenderer;
+import android.media.MediaMetadataRetriever;
+import android.media.ThumbnailUtils;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Thumbnails and media details for finished downloads, shown in the downloads list instead of the emoji
+// icon. Images are decoded downsampled, videos give a frame and their duration, audio its cover art and
+// duration, PDFs their first page and page count. Extraction runs on one bounded low-priority queue,
+// either when a download completes or when a row without a preview is first shown. Results go to a
+// size-capped disk cache (download_previews/<sha1 of path, size, mtime>.jpg plus a .meta file) and an
+// LRU of decoded previews; list rows bind from memory or get a background read, as with FaviconManager.
+public class DownloadPreviewManager {
+    
+    private static final String TAG = "DownloadPreviewManager";
+    
+    private static final String CACHE_DIR = "download_previews";
+    
+    // Rows show previews at 48dp
+    private static final int THUMBNAIL_SIZE_PX = 144;
+    private static final int JPEG_QUALITY = 80;
+    private static final long VIDEO_FRAME_TIME_US = 1000000L;
+    
+    private static final long DISK_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int METADATA_ONLY_BYTES = 64;
+    private static final int READ_QUEUE_CAPACITY = 64;
+    private static final int EXTRACT_QUEUE_CAPACITY = 32;
+    
+    private static DownloadPreviewManager instance;
+    
+    private final File cacheDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // Disk cache reads for rows being bound; rows that scroll away are simply skipped
+    private final ThreadPoolExecutor readExecutor;
+    
+    // Decoding and extraction; slow (video frames, PDF rendering), so kept apart from the reads
+    private final ThreadPoolExecutor extractExecutor;
+    
+    // filepath -> preview
+    private final LruCache<String, Preview> memoryCache = new LruCache<String, Preview>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String filepath, Preview preview) {
+            return preview.thumbnail != null ? preview.thumbnail.getByteCount() : METADATA_ONLY_BYTES;
+        }
+    };
+    
+    // filepath -> rows to rebind once its extraction is done; a path is in here while it is queued
+    private final Map<String, List<Runnable>> pendingExtractions = new HashMap<>();
+    
+    private DownloadPreviewManager(Context context) {
+        cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        
+        readExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(READ_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "PreviewReader");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        
+        extractExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(EXTRACT_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "PreviewExtractor");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    String filepath = ((ExtractTask) runnable).filepath;
+                    synchronized (pendingExtractions) {
+                        pendingExtractions.remove(filepath);
+                    }
+                    Log.w(TAG, "Preview queue full - dropping " + filepath);
+                });
+    }
+    
+    public static synchronized DownloadPreviewManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadPreviewManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // Called once a download is complete, so its row has a preview by the time the list shows it
+    public void generate(String filepath) {
+        if (filepath != null) {
+            enqueue(filepath, null);
+        }
+    }
+    
+    // Binds a row's thumbnail and description. Memory hits bind immediately; otherwise the row shows its
+    // emoji icon and plain description, and the preview is read or extracted off the UI thread, then bound
+    // only if the row still shows the same file.
+    public void loadInto(ImageView thumbnailView, TextView descriptionView, DownloadItem item) {
+        String filepath = item.isActive ? null : item.filepath;
+        thumbnailView.setTag(R.id.preview_path, filepath);
+        
+        Preview cached = filepath != null ? memoryCache.get(filepath) : null;
+        show(thumbnailView, descriptionView, item, cached);
+        if (cached != null || filepath == null) {
+            return;
+        }
+        // Without an extension the type is only known from the content, which the reader sniffs
+        String name = new File(filepath).getName();
+        if (FileTypeRegistry.hasExtension(name) && !isPreviewable(FileTypeRegistry.getMimeType(name))) {
+            return;
+        }
+        
+        Runnable bind = () -> {
+            Preview preview = memoryCache.get(filepath);
+            if (preview != null && filepath.equals(thumbnailView.getTag(R.id.preview_path))) {
+                show(thumbnailView, descriptionView, item, preview);
+            }
+        };
+        readExecutor.execute(() -> {
+            if (!filepath.equals(thumbnailView.getTag(R.id.preview_path))) {
+                // Row was rebound before we got to it
+                return;
+            }
+            File file = new File(filepath);
+            if (!file.isFile()) {
+                return;
+            }
+            Preview preview = readCached(cacheKey(file));
+            if (preview != null) {
+                memoryCache.put(filepath, preview);
+                mainHandler.post(bind);
+            } else {
+                enqueue(filepath, bind);
+            }
+        });
+    }
+    
+    private static void show(ImageView thumbnailView, TextView descriptionView, DownloadItem item, Preview preview) {
+        String description = item.fileDescription != null ? item.fileDescription : "File";
+        String details = preview != null ? preview.getDetails() : null;
+        descriptionView.setText(details != null ? description + " • " + details : description);
+        
+        if (preview != null && preview.thumbnail != null) {
+            thumbnailView.setImageBitmap(preview.thumbnail);
+            thumbnailView.setVisibility(View.VISIBLE);
+        } else {
+            thumbnailView.setImageDrawable(null);
+            thumbnailView.setVisibility(View.GONE);
+        }
+    }
+    
+    private void enqueue(String filepath, Runnable onDone) {
+        synchronized (pendingExtractions) {
+            List<Runnable> waiting = pendingExtractions.get(filepath);
+            if (waiting != null) {
+                // Already queued; just bind this row too when it is done
+                if (onDone != null) {
+                    waiting.add(onDone);
+                }
+                return;
+            }
+            waiting = new ArrayList<>();
+            if (onDone != null) {
+                waiting.add(onDone);
+            }
+            pendingExtractions.put(filepath, waiting);
+        }
+        extractExecutor.execute(new ExtractTask(filepath));
+    }
+    
+    private class ExtractTask implements Runnable {
+        final String filepath;
+        
+        ExtractTask(String filepath) {
+            this.filepath = filepath;
+        }
+        
+        @Override
+        public void run() {
+            Preview preview = null;
+            try {
+                File file = new File(filepath);
+                if (file.isFile()) {
+                    String key = cacheKey(file);
+                    preview = readCached(key);
+                    if (preview == null) {
+                        preview = extract(file);
+                        writeCached(key, preview);
+                        trimDiskCache();
+                    }
+                    memoryCache.put(filepath, preview);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error creating preview for " + filepath, e);
+            }
+            
+            List<Runnable> waiting;
+            synchronized (pendingExtractions) {
+                waiting = pendingExtractions.remove(filepath);
+            }
+            if (preview != null && waiting != null) {
+                for (Runnable bind : waiting) {
+                    mainHandler.post(bind);
+                }
+            }
+        }
+    }
+    
+    // Extractor thread. A file that can't be previewed still gets an (empty) entry so it isn't retried.
+    private Preview extract(File file) {
+        String name = file.getName();
+        String mimeType = FileTypeRegistry.hasExtension(name)
+                ? FileTypeRegistry.getMimeType(name)
+                : FileTypeRegistry.sniffMimeType(file);
+        if (!isPreviewable(mimeType)) {
+            return Preview.NONE;
+        }
+        try {
+            if (mimeType.startsWith("image/")) {
+                return new Preview(decodeSampled(file.getAbsolutePath(), null), 0, 0);
+            } else if (mimeType.startsWith("video/") || mimeType.startsWith("audio/")) {
+                return extractMedia(file, mimeType.startsWith("video/"));
+            } else {
+                return extractPdf(file);
+            }
+        } catch (Exception | OutOfMemoryError e) {
+            Log.w(TAG, "Could not preview " + name + " (" + mimeType + ")", e);
+            return Preview.NONE;
+        }
+    }
+    
+    private static boolean isPreviewable(String mimeType) {
+        return mimeType != null
+                && ((mimeType.startsWith("image/") && !mimeType.equals("image/svg+xml"))
+                        || mimeType.startsWith("video/")
+                        || mimeType.startsWith("audio/")
+                        || mimeType.equals("application/pdf"));
+    }
+    
+    // Video frame or embedded cover art, and the duration
+    private Preview extractMedia(File file, boolean video) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getAbsolutePath());
+            long durationMs = 0;
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            if (duration != null) {
+                try {
+                    durationMs = Long.parseLong(duration);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            
+            Bitmap frame;
+            if (!video) {
+                byte[] art = retriever.getEmbeddedPicture();
+                frame = art != null ? decodeSampled(null, art) : null;
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                // Scaled by the decoder, so the full-size frame is never allocated
+                frame = retriever.getScaledFrameAtTime(VIDEO_FRAME_TIME_US, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                        THUMBNAIL_SIZE_PX * 2, THUMBNAIL_SIZE_PX * 2);
+            } else {
+                frame = retriever.getFrameAtTime(VIDEO_FRAME_TIME_US, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            }
+            return new Preview(frame != null ? crop(frame) : null, durationMs, 0);
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+    
+    // First page rendered at thumbnail size, and the page count
+    private Preview extractPdf(File file) throws IOException {
+        try (ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+             PdfRenderer renderer = new PdfRenderer(descriptor)) {
+            int pageCount = renderer.getPageCount();
+            if (pageCount == 0) {
+                return new Preview(null, 0, 0);
+            }
+            try (PdfRenderer.Page page = renderer.openPage(0)) {
+                float scale = THUMBNAIL_SIZE_PX / (float) Math.min(page.getWidth(), page.getHeight());
+                Bitmap bitmap = Bitmap.createBitmap(Math.max(1, Math.round(page.getWidth() * scale)),
+                        Math.max(1, Math.round(page.getHeight() * scale)), Bitmap.Config.ARGB_8888);
+                // Pages are transparent where nothing is drawn
+                bitmap.eraseColor(Color.WHITE);
+                page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                return new Preview(crop(bitmap), 0, pageCount);
+            }
+        }
+    }
+    
+    // Decodes a file (path) or encoded image (bytes) at the smallest power-of-two sample size that still
+    // covers the thumbnail, then crops it
+    private static Bitmap decodeSampled(String path, byte[] bytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(path, bytes, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (Math.min(options.outWidth, options.outHeight) / (sampleSize * 2) >= THUMBNAIL_SIZE_PX) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = decode(path, bytes, options);
+        return bitmap != null ? crop(bitmap) : null;
+    }
+    
+    private static Bitmap decode(String path, byte[] bytes, BitmapFactory.Options options) {
+        return path != null
+                ? BitmapFactory.decodeFile(path, options)
+                : BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+    
+    // Square center crop at thumbnail size; the source bitmap is recycled
+    private static Bitmap crop(Bitmap bitmap) {
+        return ThumbnailUtils.extractThumbnail(bitmap, THUMBNAIL_SIZE_PX, THUMBNAIL_SIZE_PX,
+                ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+    }
+    
+    // DISK CACHE: <key>.jpg holds the thumbnail (if any), <key>.meta "durationMs pageCount hasThumbnail".
+    // The .meta file is written last, so an entry only counts once it is complete.
+    
+    private Preview readCached(String key) {
+        File metaFile = new File(cacheDir, key + ".meta");
+        if (!metaFile.exists()) {
+            return null;
+        }
+        try {
+            String[] fields = new String(readFully(metaFile), StandardCharsets.UTF_8).trim().split(" ");
+            long durationMs = Long.parseLong(fields[0]);
+            int pageCount = Integer.parseInt(fields[1]);
+            Bitmap thumbnail = null;
+            if ("1".equals(fields[2])) {
+                File thumbnailFile = new File(cacheDir, key + ".jpg");
+                thumbnail = BitmapFactory.decodeFile(thumbnailFile.getAbsolutePath());
+                if (thumbnail == null) {
+                    return null;
+                }
+                thumbnailFile.setLastModified(System.currentTimeMillis());
+            }
+            // Recently used entries survive trimming
+            metaFile.setLastModified(System.currentTimeMillis());
+            return new Preview(thumbnail, durationMs, pageCount);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unreadable preview cache entry " + key, e);
+            return null;
+        }
+    }
+    
+    private void writeCached(String key, Preview preview) {
+        try {
+            if (preview.thumbnail != null) {
+                File thumbnailFile = new File(cacheDir, key + ".jpg");
+                writeAtomically(thumbnailFile, out ->
+                        preview.thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out));
+            }
+            String meta = preview.durationMs + " " + preview.pageCount + " " + (preview.thumbnail != null ? 1 : 0);
+            writeAtomically(new File(cacheDir, key + ".meta"), out -> out.write(meta.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            Log.e(TAG, "💥 Error caching preview " + key, e);
+        }
+    }
+    
+    // Oldest entries go first once the cache is over its size
+    private void trimDiskCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= DISK_CACHE_BYTES * 3 / 4) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+    
+    // Path, size and mtime, so a file replaced under the same name gets a new entry
+    private static String cacheKey(File file) {
+        String identity = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+    
+    private interface StreamWriter {
+        void write(FileOutputStream out) throws IOException;
+    }
+    
+    // Write to a temp file and rename so a crash never leaves a half-written entry behind
+    private static void writeAtomically(File target, StreamWriter writer) throws IOException {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File temp = new File(dir, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            writer.write(out);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot rename " + temp);
+        }
+    }
+    
+    private static byte[] readFully(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+        }
+        return bytes;
+    }
+    
+    private static class Preview {
+        static final Preview NONE = new Preview(null, 0, 0);
+        
+        final Bitmap thumbnail;
+        final long durationMs;
+        final int pageCount;
+        
+        Preview(Bitmap thumbnail, long durationMs, int pageCount) {
+            this.thumbnail = thumbnail;
+            this.durationMs = durationMs;
+            this.pageCount = pageCount;
+        }
+        
+        // "12 pages" or "3:25", or null when there is nothing to add to the description
+        String getDetails() {
+            if (pageCount > 0) {
+                return pageCount == 1 ? "1 page" : pageCount + " pages";
+            }
+            if (durationMs > 0) {
+                long seconds = durationMs / 1000;
+                return seconds >= 3600
+                        ? String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60)
+                        : String.format(Locale.US, "%d:%02d", seconds / 60, seconds % 60);
+            }
+            return null;
+        }
+    }
+}
\ No newline at end of file
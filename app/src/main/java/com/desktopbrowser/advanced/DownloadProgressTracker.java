@@ -0,0 +1,274 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Follows active downloads while any of them is running. System DownloadManager downloads are read with
+// one query filtered to their ids and written to the ledger; in-app downloads already write the ledger
+// and are read back from it. Only downloads whose bytes or status moved are published, and polling
+// stops by itself once nothing is active.
+public class DownloadProgressTracker {
+    
+    private static final String TAG = "DownloadProgressTracker";
+    
+    private static final long POLL_INTERVAL_MS = 1000;
+    private static final int WORK_QUEUE_CAPACITY = 16;
+    
+    public interface ProgressListener {
+        // Called on the main thread with fresh rows from the ledger, one per changed download
+        void onDownloadsChanged(List<DownloadItem> changed);
+    }
+    
+    private final android.app.DownloadManager systemDownloads;
+    private final DownloadManager ledger;
+    private final ProgressListener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor pollExecutor;
+    private final Runnable scheduledPoll = this::poll;
+    
+    // System download id -> last state written to the ledger (null until the first poll).
+    // Only touched on the poll thread.
+    private final Map<Long, Snapshot> tracked = new HashMap<>();
+    
+    // In-app download id -> last published bytes and status. Only touched on the poll thread.
+    private final Map<String, String> trackedInApp = new HashMap<>();
+    
+    // Main thread only
+    private boolean running = false;
+    private boolean pollInFlight = false;
+    
+    public DownloadProgressTracker(Context context, ProgressListener listener) {
+        this.systemDownloads = (android.app.DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
+        this.ledger = DownloadManager.getInstance(context);
+        this.listener = listener;
+        
+        pollExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "DownloadProgress");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                (runnable, executor) -> Log.w(TAG, "Progress queue full - dropping task"));
+    }
+    
+    // Starts following the active items among the given ones; ids that are not system downloads are ignored
+    public void track(Collection<DownloadItem> items) {
+        List<Long> ids = new ArrayList<>();
+        List<String> inAppIds = new ArrayList<>();
+        for (DownloadItem item : items) {
+            if (!item.isActive || item.isPaused || item.downloadId == null) {
+                continue;
+            }
+            if (SegmentedDownloader.isInAppDownload(item.downloadId) || BlobDownloadBridge.isBlobDownload(item.downloadId)) {
+                inAppIds.add(item.downloadId);
+                continue;
+            }
+            try {
+                ids.add(Long.parseLong(item.downloadId));
+            } catch (NumberFormatException e) {
+                // Not a system download (data: URIs are saved in full, "data-" ids); nothing to poll
+            }
+        }
+        if (ids.isEmpty() && inAppIds.isEmpty()) {
+            return;
+        }
+        pollExecutor.execute(() -> {
+            for (Long id : ids) {
+                if (!tracked.containsKey(id)) {
+                    tracked.put(id, null);
+                }
+            }
+            for (String downloadId : inAppIds) {
+                if (!trackedInApp.containsKey(downloadId)) {
+                    trackedInApp.put(downloadId, null);
+                }
+            }
+        });
+        start();
+    }
+    
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        if (!pollInFlight) {
+            mainHandler.post(scheduledPoll);
+        }
+    }
+    
+    public void stop() {
+        running = false;
+        mainHandler.removeCallbacks(scheduledPoll);
+    }
+    
+    public void shutdown() {
+        stop();
+        pollExecutor.shutdownNow();
+    }
+    
+    private void poll() {
+        if (!running || pollInFlight) {
+            return;
+        }
+        pollInFlight = true;
+        pollExecutor.execute(() -> {
+            List<DownloadItem> changed = new ArrayList<>();
+            boolean anyActive = true;
+            try {
+                anyActive = pollOnce(changed);
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error polling download progress", e);
+            }
+            boolean keepPolling = anyActive;
+            mainHandler.post(() -> {
+                pollInFlight = false;
+                if (!changed.isEmpty()) {
+                    listener.onDownloadsChanged(changed);
+                }
+                if (!running) {
+                    return;
+                }
+                if (keepPolling) {
+                    mainHandler.postDelayed(scheduledPoll, POLL_INTERVAL_MS);
+                } else {
+                    running = false;
+                    Log.d(TAG, "🛑 No active downloads - progress polling stopped");
+                }
+            });
+        });
+    }
+    
+    // Runs on the poll thread. Returns whether any tracked download is still active.
+    private boolean pollOnce(List<DownloadItem> changed) {
+        pollInApp(changed);
+        if (tracked.isEmpty()) {
+            return !trackedInApp.isEmpty();
+        }
+        long[] ids = new long[tracked.size()];
+        int n = 0;
+        for (Long id : tracked.keySet()) {
+            ids[n++] = id;
+        }
+        
+        List<String> changedIds = new ArrayList<>();
+        Map<Long, Snapshot> seen = new HashMap<>();
+        android.app.DownloadManager.Query query = new android.app.DownloadManager.Query().setFilterById(ids);
+        try (Cursor cursor = systemDownloads.query(query)) {
+            if (cursor != null) {
+                int idColumn = cursor.getColumnIndexOrThrow(android.app.DownloadManager.COLUMN_ID);
+                int statusColumn = cursor.getColumnIndexOrThrow(android.app.DownloadManager.COLUMN_STATUS);
+                int bytesColumn = cursor.getColumnIndexOrThrow(android.app.DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR);
+                int totalColumn = cursor.getColumnIndexOrThrow(android.app.DownloadManager.COLUMN_TOTAL_SIZE_BYTES);
+                while (cursor.moveToNext()) {
+                    seen.put(cursor.getLong(idColumn), new Snapshot(cursor.getInt(statusColumn),
+                            cursor.getLong(bytesColumn), cursor.getLong(totalColumn)));
+                }
+            }
+        }
+        
+        for (long id : ids) {
+            String downloadId = String.valueOf(id);
+            Snapshot current = seen.get(id);
+            if (current == null) {
+                // Removed from the system download list (cancelled elsewhere)
+                ledger.markDownloadFailed(downloadId);
+                tracked.remove(id);
+                changedIds.add(downloadId);
+                continue;
+            }
+            if (current.equals(tracked.get(id))) {
+                continue;
+            }
+            
+            switch (current.status) {
+                case android.app.DownloadManager.STATUS_SUCCESSFUL:
+                    long size = current.total > 0 ? current.total : current.bytes;
+                    ledger.updateDownloadProgress(downloadId, 100, size, size);
+                    tracked.remove(id);
+                    break;
+                case android.app.DownloadManager.STATUS_FAILED:
+                    ledger.markDownloadFailed(downloadId);
+                    tracked.remove(id);
+                    break;
+                default:
+                    // Pending, running or paused; 100% is only reported once the system says it finished
+                    int progress = current.total > 0 ? (int) Math.min(99, current.bytes * 100 / current.total) : 0;
+                    ledger.updateDownloadProgress(downloadId, progress, current.bytes, Math.max(current.total, 0));
+                    tracked.put(id, current);
+                    break;
+            }
+            changedIds.add(downloadId);
+        }
+        
+        for (String downloadId : changedIds) {
+            DownloadItem item = ledger.getDownload(downloadId);
+            if (item != null) {
+                changed.add(item);
+            }
+        }
+        return !tracked.isEmpty() || !trackedInApp.isEmpty();
+    }
+    
+    // In-app downloads write their own progress; publish the rows that moved since the last tick
+    private void pollInApp(List<DownloadItem> changed) {
+        List<String> finished = new ArrayList<>();
+        for (Map.Entry<String, String> entry : trackedInApp.entrySet()) {
+            DownloadItem item = ledger.getDownload(entry.getKey());
+            if (item == null) {
+                finished.add(entry.getKey());
+                continue;
+            }
+            String state = item.bytesDownloaded + "|" + item.downloadStatus;
+            if (!state.equals(entry.getValue())) {
+                entry.setValue(state);
+                changed.add(item);
+            }
+            if (!item.isActive || item.isPaused) {
+                // Resuming goes through the scheduler and reloads the list, which tracks it again
+                finished.add(entry.getKey());
+            }
+        }
+        for (String downloadId : finished) {
+            trackedInApp.remove(downloadId);
+        }
+    }
+    
+    private static class Snapshot {
+        final int status;
+        final long bytes;
+        final long total;
+        
+        Snapshot(int status, long bytes, long total) {
+            this.status = status;
+            this.bytes = bytes;
+            this.total = total;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) o;
+            return status == other.status && bytes == other.bytes && total == other.total;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (int) (31 * (31 * status + bytes) + total);
+        }
+    }
+}
\ No newline at end of file
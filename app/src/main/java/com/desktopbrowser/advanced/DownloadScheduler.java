@@ -0,0 +1,350 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.preference.PreferenceManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Sits in front of the download engine. Every HTTP download becomes a queued ledger row and is started
+// when a slot is free, highest priority first and oldest first within a priority. A queued download of
+// higher priority than a running one takes its slot (the running one is stopped at its checkpoints and
+// re-queued). Downloads can be paused and resumed, held back while the network is metered, and the
+// number running at once adapts to measured throughput up to the configured maximum.
+public class DownloadScheduler {
+    
+    private static final String TAG = "DownloadScheduler";
+    
+    // Preferences written by SettingsActivity
+    public static final String PREF_MAX_CONCURRENT = "downloads_max_concurrent";
+    public static final String PREF_UNMETERED_ONLY = "downloads_unmetered_only";
+    public static final int DEFAULT_MAX_CONCURRENT = 3;
+    
+    private static final String STATUS_QUEUED = "⏳ Queued";
+    private static final String STATUS_WAITING_FOR_WIFI = "📶 Waiting for Wi-Fi";
+    private static final String STATUS_PAUSED = "⏸️ Paused";
+    
+    // Known-small files go straight to the system DownloadManager without waiting for a slot
+    private static final long SMALL_DOWNLOAD_BYTES = 8L * 1024 * 1024;
+    
+    // Adaptive concurrency: sample total throughput, try one more slot while downloads are waiting and
+    // keep it only if throughput grew by at least MIN_GAIN; after backing off, hold for a while
+    private static final long SAMPLE_INTERVAL_MS = 5000;
+    private static final double MIN_GAIN = 0.10;
+    private static final int HOLD_SAMPLES_AFTER_BACKOFF = 6;
+    
+    private static final int WORK_QUEUE_CAPACITY = 64;
+    
+    private static DownloadScheduler instance;
+    
+    private final Context context;
+    private final DownloadManager ledger;
+    private final SegmentedDownloader engine;
+    private final SharedPreferences preferences;
+    private final ConnectivityManager connectivityManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // Single scheduler thread; everything below is only touched on it
+    private final ThreadPoolExecutor schedulerExecutor;
+    
+    // Downloads this scheduler started and counts against the limit
+    private final Map<String, Slot> running = new HashMap<>();
+    private int concurrencyLimit = 1;
+    private boolean limitJustRaised = false;
+    private int holdSamples = 0;
+    private long lastSampleBytes = -1;
+    private double lastThroughput = 0;
+    private boolean sampling = false;
+    
+    private DownloadScheduler(Context context) {
+        this.context = context;
+        this.ledger = DownloadManager.getInstance(context);
+        this.engine = SegmentedDownloader.getInstance(context);
+        this.preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        
+        schedulerExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "DownloadScheduler");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                },
+                (runnable, executor) -> Log.w(TAG, "Scheduler queue full - dropping task"));
+        
+        // Re-evaluate when the network changes (Wi-Fi lost or back)
+        connectivityManager.registerNetworkCallback(new NetworkRequest.Builder().build(),
+                new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        reschedule();
+                    }
+                    
+                    @Override
+                    public void onLost(Network network) {
+                        reschedule();
+                    }
+                });
+        
+        // Downloads queued or running when the process died are picked up from the ledger
+        reschedule();
+    }
+    
+    public static synchronized DownloadScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // Queues an HTTP(S) download. expectedBytes is the size announced by the page, or -1 if unknown.
+    public void enqueue(String url, String filename, long expectedBytes, int priority) {
+        schedulerExecutor.execute(() -> {
+            String downloadId = SegmentedDownloader.newDownloadId();
+            // Never write over an earlier download, or share a .part file with a running one
+            ledger.addDownload(ledger.uniqueFilename(filename), url, downloadId);
+            ledger.setDownloadPriority(downloadId, priority);
+            
+            if (expectedBytes > 0 && expectedBytes < SMALL_DOWNLOAD_BYTES) {
+                // Not worth a slot; the engine hands it to the system DownloadManager right after the probe
+                engine.start(downloadId, !isUnmeteredOnly(), () -> { });
+                return;
+            }
+            ledger.setDownloadStatus(downloadId, STATUS_QUEUED);
+            schedule();
+        });
+    }
+    
+    // Pause and resume update the ledger on the scheduler thread; screens get the changed row through
+    // the download service's observers
+    public void pause(String downloadId) {
+        schedulerExecutor.execute(() -> {
+            ledger.setDownloadPaused(downloadId, true, STATUS_PAUSED);
+            engine.stop(downloadId);
+            Log.d(TAG, "⏸️ Download paused: " + downloadId);
+            publish(downloadId);
+            schedule();
+        });
+    }
+    
+    public void resume(String downloadId) {
+        schedulerExecutor.execute(() -> {
+            ledger.setDownloadPaused(downloadId, false, STATUS_QUEUED);
+            Log.d(TAG, "▶️ Download resumed: " + downloadId);
+            publish(downloadId);
+            schedule();
+        });
+    }
+    
+    private void publish(String downloadId) {
+        DownloadItem item = ledger.getDownload(downloadId);
+        if (item != null) {
+            DownloadService.publish(context, Collections.singletonList(item));
+        }
+    }
+    
+    public void setPriority(String downloadId, int priority) {
+        schedulerExecutor.execute(() -> {
+            ledger.setDownloadPriority(downloadId, priority);
+            Slot slot = running.get(downloadId);
+            if (slot != null) {
+                slot.priority = priority;
+            }
+            schedule();
+        });
+    }
+    
+    // Called when the download settings change, and by the network callback
+    public void reschedule() {
+        schedulerExecutor.execute(this::schedule);
+    }
+    
+    public static boolean isUnmeteredOnly(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_UNMETERED_ONLY, false);
+    }
+    
+    private boolean isUnmeteredOnly() {
+        return preferences.getBoolean(PREF_UNMETERED_ONLY, false);
+    }
+    
+    private int getMaxConcurrent() {
+        return Math.max(1, preferences.getInt(PREF_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT));
+    }
+    
+    // Scheduler thread. Starts, preempts or holds back downloads so the running set matches the
+    // current limit, the network constraint and the priorities of what is waiting.
+    private void schedule() {
+        List<DownloadItem> waiting = new ArrayList<>();
+        for (DownloadItem item : ledger.getActiveDownloads()) {
+            // A stopped download still winding down in the engine is not startable yet
+            if (SegmentedDownloader.isInAppDownload(item.downloadId) && !item.isPaused
+                    && !running.containsKey(item.downloadId) && !engine.isRunning(item.downloadId)) {
+                waiting.add(item);
+            }
+        }
+        
+        boolean networkAllowed = !isUnmeteredOnly() || !connectivityManager.isActiveNetworkMetered();
+        if (!networkAllowed) {
+            // Metered network: running downloads stop at their checkpoints and everything waits
+            for (String downloadId : new ArrayList<>(running.keySet())) {
+                engine.stop(downloadId);
+            }
+            for (DownloadItem item : waiting) {
+                if (!STATUS_WAITING_FOR_WIFI.equals(item.downloadStatus)) {
+                    ledger.setDownloadStatus(item.downloadId, STATUS_WAITING_FOR_WIFI);
+                }
+            }
+            return;
+        }
+        
+        concurrencyLimit = Math.min(Math.max(1, concurrencyLimit), getMaxConcurrent());
+        
+        // Highest priority first, then oldest first
+        Collections.sort(waiting, (a, b) -> a.priority != b.priority
+                ? Integer.compare(b.priority, a.priority)
+                : Long.compare(a.downloadTime, b.downloadTime));
+        
+        boolean started = false;
+        for (DownloadItem item : waiting) {
+            if (running.size() >= concurrencyLimit) {
+                // Full: a higher-priority download takes the slot of the lowest-priority running one
+                String victim = lowestPriorityRunning();
+                if (victim == null || running.get(victim).priority >= item.priority) {
+                    break;
+                }
+                Log.d(TAG, "🔀 " + item.downloadId + " preempts " + victim);
+                engine.stop(victim);
+                running.remove(victim);
+            }
+            startDownload(item);
+            started = true;
+        }
+        if (started) {
+            // The service lets go while everything is held (waiting for Wi-Fi); bring it back
+            mainHandler.post(() -> DownloadService.start(context));
+        }
+        
+        // Limit lowered (settings or backoff): stop the surplus, lowest priority first
+        while (running.size() > concurrencyLimit) {
+            String victim = lowestPriorityRunning();
+            engine.stop(victim);
+            running.remove(victim);
+        }
+        
+        for (DownloadItem item : waiting) {
+            if (!running.containsKey(item.downloadId) && !STATUS_QUEUED.equals(item.downloadStatus)) {
+                ledger.setDownloadStatus(item.downloadId, STATUS_QUEUED);
+            }
+        }
+        
+        if (!running.isEmpty() && !sampling) {
+            sampling = true;
+            lastSampleBytes = -1;
+            mainHandler.postDelayed(this::postSample, SAMPLE_INTERVAL_MS);
+        }
+    }
+    
+    // Held back by the scheduler rather than running or about to run; the download service doesn't stay
+    // in the foreground for these
+    public static boolean isHeld(DownloadItem item) {
+        return STATUS_WAITING_FOR_WIFI.equals(item.downloadStatus);
+    }
+    
+    private void startDownload(DownloadItem item) {
+        String downloadId = item.downloadId;
+        Slot slot = new Slot(item.priority);
+        running.put(downloadId, slot);
+        Log.d(TAG, "▶️ Starting " + downloadId + " (" + running.size() + "/" + concurrencyLimit + ")");
+        engine.start(downloadId, !isUnmeteredOnly(), () -> schedulerExecutor.execute(() -> {
+            // A preempted download may already have been started again; only free the slot this run held
+            if (running.get(downloadId) == slot) {
+                running.remove(downloadId);
+            }
+            schedule();
+        }));
+    }
+    
+    private String lowestPriorityRunning() {
+        String lowest = null;
+        int lowestPriority = Integer.MAX_VALUE;
+        for (Map.Entry<String, Slot> entry : running.entrySet()) {
+            if (entry.getValue().priority < lowestPriority) {
+                lowest = entry.getKey();
+                lowestPriority = entry.getValue().priority;
+            }
+        }
+        return lowest;
+    }
+    
+    private void postSample() {
+        schedulerExecutor.execute(this::sampleThroughput);
+    }
+    
+    // Scheduler thread, every SAMPLE_INTERVAL_MS while downloads run
+    private void sampleThroughput() {
+        if (running.isEmpty()) {
+            sampling = false;
+            return;
+        }
+        mainHandler.postDelayed(this::postSample, SAMPLE_INTERVAL_MS);
+        
+        long bytes = engine.getTransferredBytes();
+        if (lastSampleBytes < 0) {
+            lastSampleBytes = bytes;
+            return;
+        }
+        double throughput = (bytes - lastSampleBytes) * 1000.0 / SAMPLE_INTERVAL_MS;
+        lastSampleBytes = bytes;
+        
+        if (limitJustRaised) {
+            limitJustRaised = false;
+            if (throughput < lastThroughput * (1 + MIN_GAIN)) {
+                // The extra connection didn't buy bandwidth; give the slot back
+                concurrencyLimit--;
+                holdSamples = HOLD_SAMPLES_AFTER_BACKOFF;
+                Log.d(TAG, "📉 Concurrency back to " + concurrencyLimit + " at "
+                        + DownloadManager.formatSpeed((long) throughput));
+                schedule();
+            }
+        } else if (holdSamples > 0) {
+            holdSamples--;
+        } else if (running.size() >= concurrencyLimit && concurrencyLimit < getMaxConcurrent() && hasWaiting()) {
+            concurrencyLimit++;
+            limitJustRaised = true;
+            Log.d(TAG, "📈 Trying concurrency " + concurrencyLimit + " at "
+                    + DownloadManager.formatSpeed((long) throughput));
+            schedule();
+        }
+        lastThroughput = throughput;
+    }
+    
+    private boolean hasWaiting() {
+        for (DownloadItem item : ledger.getActiveDownloads()) {
+            if (SegmentedDownloader.isInAppDownload(item.downloadId) && !item.isPaused
+                    && !running.containsKey(item.downloadId) && !engine.isRunning(item.downloadId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static class Slot {
+        int priority;
+        
+        Slot(int priority) {
+            this.priority = priority;
+        }
+    }
+}
\ No newline at end of file
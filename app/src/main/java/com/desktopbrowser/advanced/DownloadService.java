@@ -0,0 +1,309 @@
+package com.desktopbrowser.advanced;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+import androidx.core.app.ActivityCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Foreground service that keeps downloads going when no screen is open. Screens only submit work through
+// the static methods here and observe progress; the work itself runs in the app-scoped scheduler, engine
+// and data: URI writer, and this service keeps the process in the foreground while any of it is pending.
+// It also owns the one DownloadProgressTracker, so progress and completion of system DownloadManager
+// downloads are written to the ledger (and hashed, previewed) whether or not the Downloads screen is
+// open. The service shows one progress notification and stops itself once nothing is active.
+public class DownloadService extends Service {
+    
+    private static final String TAG = "DownloadService";
+    
+    private static final String CHANNEL_ID = "downloads";
+    private static final int NOTIFICATION_ID = 1001;
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    private static final int WORK_QUEUE_CAPACITY = 4;
+    private static final int REQUEST_NOTIFICATIONS = 1;
+    
+    // Screens following progress; main thread only
+    private static final List<DownloadProgressTracker.ProgressListener> observers = new ArrayList<>();
+    
+    // Main thread only; the user is asked at most once per process
+    private static boolean notificationPermissionAsked = false;
+    
+    // Ledger reads behind the static entry points, kept off the main thread; idles out when done
+    private static final ThreadPoolExecutor restoreExecutor = new ThreadPoolExecutor(0, 1, 30L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(runnable, "DownloadRestore");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            },
+            (runnable, executor) -> Log.w(TAG, "Restore queue full - dropping task"));
+    
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable scheduledRefresh = this::refresh;
+    private DownloadManager ledger;
+    private DownloadProgressTracker tracker;
+    private NotificationManager notificationManager;
+    private ThreadPoolExecutor statusExecutor;
+    
+    // Main thread only
+    private int lastStartId;
+    private boolean refreshInFlight = false;
+    private boolean destroyed = false;
+    private android.app.Notification notification;
+    
+    // Queues an HTTP(S) download and keeps the process alive until the queue is done
+    public static void enqueue(Context context, String url, String filename, long expectedBytes, int priority) {
+        DownloadScheduler.getInstance(context).enqueue(url, filename, expectedBytes, priority);
+        start(context);
+    }
+    
+    // Saves a data: URI in the background; the result is reported with a toast even if the page is gone
+    public static void saveDataUri(Context context, String dataUri, String filename) {
+        Context appContext = context.getApplicationContext();
+        DataUriDownloader.getInstance(appContext).save(dataUri, filename, new DataUriDownloader.Callback() {
+            @Override
+            public void onSaved(String savedFilename, long bytes) {
+                Toast.makeText(appContext, "Data file downloaded: " + savedFilename, Toast.LENGTH_LONG).show();
+            }
+            
+            @Override
+            public void onFailed(String error) {
+                Toast.makeText(appContext, "Failed to download data file: " + error, Toast.LENGTH_LONG).show();
+            }
+        });
+        start(appContext);
+    }
+    
+    // Downloads that were queued or running when the process died are picked up again. The ledger is
+    // loaded and the scheduler built in the background; only the start decision comes back here.
+    public static void restore(Context context) {
+        Context appContext = context.getApplicationContext();
+        Handler handler = new Handler(Looper.getMainLooper());
+        restoreExecutor.execute(() -> {
+            DownloadScheduler.getInstance(appContext);
+            List<DownloadItem> active = DownloadManager.getInstance(appContext).getActiveDownloads();
+            handler.post(() -> follow(appContext, active));
+        });
+    }
+    
+    // Starts the service if any of these downloads is still running or queued
+    public static void follow(Context context, Collection<DownloadItem> items) {
+        for (DownloadItem item : items) {
+            if (item.isActive && !item.isPaused && !DownloadScheduler.isHeld(item)) {
+                start(context);
+                return;
+            }
+        }
+    }
+    
+    // Notifications are opt-in from API 33, and without them the progress notification - the only sign
+    // that downloads go on once the screens are closed - is hidden. Screens call this as they start a
+    // download; downloads run either way, so the answer is not waited for.
+    public static void requestNotificationPermission(Activity activity) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU || notificationPermissionAsked) {
+            return;
+        }
+        notificationPermissionAsked = true;
+        if (ContextCompat.checkSelfPermission(activity, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(activity,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_NOTIFICATIONS);
+        }
+    }
+    
+    public static void start(Context context) {
+        try {
+            ContextCompat.startForegroundService(context, new Intent(context, DownloadService.class));
+        } catch (IllegalStateException e) {
+            // Not allowed from the background (API 31+); the downloads still run, just without the service
+            Log.w(TAG, "Could not start download service", e);
+        }
+    }
+    
+    // Main thread. Observers get the rows whose progress or status changed.
+    public static void addObserver(DownloadProgressTracker.ProgressListener observer) {
+        if (!observers.contains(observer)) {
+            observers.add(observer);
+        }
+    }
+    
+    public static void removeObserver(DownloadProgressTracker.ProgressListener observer) {
+        observers.remove(observer);
+    }
+    
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ledger = DownloadManager.getInstance(this);
+        notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        tracker = new DownloadProgressTracker(this, this::onDownloadsChanged);
+        
+        statusExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "DownloadService");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                (runnable, executor) -> Log.w(TAG, "Status queue full - dropping task"));
+        
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Downloads", NotificationManager.IMPORTANCE_LOW);
+            channel.setDescription("Progress of running downloads");
+            notificationManager.createNotificationChannel(channel);
+        }
+        Log.d(TAG, "🚀 Download service created");
+    }
+    
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
+        
+        // Must be foreground right away; a fresh service's notification fills in on the first refresh
+        if (notification == null) {
+            notification = baseNotification().setContentTitle("Preparing downloads...").setProgress(0, 0, true).build();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        
+        mainHandler.removeCallbacks(scheduledRefresh);
+        refresh();
+        // The queue lives in the ledger and is restored on the next launch, so no restart is needed
+        return START_NOT_STICKY;
+    }
+    
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+    
+    @Override
+    public void onDestroy() {
+        destroyed = true;
+        mainHandler.removeCallbacks(scheduledRefresh);
+        tracker.shutdown();
+        statusExecutor.shutdownNow();
+        Log.d(TAG, "🛑 Download service stopped");
+        super.onDestroy();
+    }
+    
+    private void onDownloadsChanged(List<DownloadItem> changed) {
+        for (DownloadProgressTracker.ProgressListener observer : new ArrayList<>(observers)) {
+            observer.onDownloadsChanged(changed);
+        }
+    }
+    
+    // Any thread. Rows changed outside the progress tracker (pause, resume) go to the same observers,
+    // and a download that can run again keeps the service up.
+    public static void publish(Context context, List<DownloadItem> changed) {
+        new Handler(Looper.getMainLooper()).post(() -> {
+            for (DownloadProgressTracker.ProgressListener observer : new ArrayList<>(observers)) {
+                observer.onDownloadsChanged(changed);
+            }
+            follow(context, changed);
+        });
+    }
+    
+    // Main thread, every REFRESH_INTERVAL_MS: follow what is active, update the notification, or stop
+    private void refresh() {
+        if (refreshInFlight) {
+            return;
+        }
+        refreshInFlight = true;
+        statusExecutor.execute(() -> {
+            List<DownloadItem> active = new ArrayList<>();
+            for (DownloadItem item : ledger.getActiveDownloads()) {
+                // Downloads waiting for Wi-Fi don't keep the service up; the scheduler restarts it
+                if (!item.isPaused && !DownloadScheduler.isHeld(item)) {
+                    active.add(item);
+                }
+            }
+            boolean busy = !active.isEmpty() || DataUriDownloader.getInstance(this).isBusy();
+            mainHandler.post(() -> {
+                refreshInFlight = false;
+                if (destroyed) {
+                    return;
+                }
+                if (!busy) {
+                    // A start request that came in meanwhile has a newer id and keeps the service alive
+                    ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+                    stopSelf(lastStartId);
+                    return;
+                }
+                tracker.track(active);
+                notification = buildNotification(active);
+                notificationManager.notify(NOTIFICATION_ID, notification);
+                mainHandler.postDelayed(scheduledRefresh, REFRESH_INTERVAL_MS);
+            });
+        });
+    }
+    
+    private NotificationCompat.Builder baseNotification() {
+        Intent intent = new Intent(this, DownloadsActivity.class);
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentIntent(PendingIntent.getActivity(this, 0, intent, flags))
+                .setCategory(NotificationCompat.CATEGORY_PROGRESS)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
+    }
+    
+    // One download: its name and status. Several: how many, and their combined progress.
+    private android.app.Notification buildNotification(List<DownloadItem> active) {
+        NotificationCompat.Builder builder = baseNotification();
+        if (active.isEmpty()) {
+            return builder.setContentTitle("Saving file...").setProgress(0, 0, true).build();
+        }
+        
+        long bytes = 0;
+        long total = 0;
+        for (DownloadItem item : active) {
+            if (item.totalBytes > 0) {
+                bytes += item.bytesDownloaded;
+                total += item.totalBytes;
+            }
+        }
+        int progress = total > 0 ? (int) Math.min(100, bytes * 100 / total) : 0;
+        
+        if (active.size() == 1) {
+            DownloadItem item = active.get(0);
+            builder.setContentTitle(item.filename)
+                    .setContentText(item.getStatusWithIcon());
+        } else {
+            builder.setContentTitle("Downloading " + active.size() + " files")
+                    .setContentText(total > 0
+                            ? progress + "% • " + DownloadManager.formatFileSize(bytes) + " of " + DownloadManager.formatFileSize(total)
+                            : "Starting...");
+        }
+        return builder.setProgress(100, progress, total == 0).build();
+    }
+}
\ No newline at end of file
@@ -2,7 +2,6 @@ package com.desktopbrowser.advanced;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -15,11 +14,10 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
-import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 
 public class DownloadsActivity extends AppCompatActivity {
     
@@ -30,11 +28,12 @@ public class DownloadsActivity extends AppCompatActivity {
     private TextView emptyStateText;
     private AdManager adManager;
     private DownloadManager downloadManager;
+    private DownloadsIndexer downloadsIndexer;
     private List<DownloadItem> downloadItems;
     private DownloadsAdapter adapter;
     
-    // ENHANCED: Live progress tracking
-    private Timer progressUpdateTimer;
+    // ENHANCED: Live progress tracking, reported by DownloadService
+    private DownloadProgressTracker.ProgressListener progressObserver;
     private Handler uiHandler;
     private boolean isActivityActive = false;
     
@@ -76,11 +75,15 @@ public class DownloadsActivity extends AppCompatActivity {
         // Initialize managers and handlers
         adManager = AdManager.getInstance(this);
         downloadManager = DownloadManager.getInstance(this);
+        downloadsIndexer = DownloadsIndexer.getInstance(this);
         downloadItems = new ArrayList<>();
         uiHandler = new Handler(Looper.getMainLooper());
+        progressObserver = this::applyProgressChanges;
         
-        // Setup RecyclerView
+        // Setup RecyclerView; the adapter lives as long as the screen and is fed new lists
         downloadsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new DownloadsAdapter(this);
+        downloadsRecyclerView.setAdapter(adapter);
         
         if (mainContainer == null || downloadsRecyclerView == null) {
             throw new RuntimeException("Required views not found in downloads layout");
@@ -101,22 +104,26 @@ public class DownloadsActivity extends AppCompatActivity {
             Log.d(TAG, "🔍 Loading downloads from storage with live progress support");
             downloadItems = downloadManager.getAllDownloads();
             
-            // ENHANCED: Also scan Downloads directory for files not in our database
-            scanDownloadsDirectory();
+            // ENHANCED: Also show files in the Downloads directory that aren't in our database. The indexer
+            // already knows them from its last scan; the rescan below only reports what changed since.
+            Set<String> trackedPaths = new HashSet<>();
+            for (DownloadItem item : downloadItems) {
+                if (item.filepath != null) {
+                    trackedPaths.add(item.filepath);
+                }
+            }
+            downloadItems.addAll(0, downloadsIndexer.getUntrackedFiles(trackedPaths));
+            adapter.updateDownloads(downloadItems);
+            downloadsIndexer.scan(trackedPaths, this::applyUntrackedChanges);
             
             if (downloadItems.isEmpty()) {
-                // Show empty state
-                downloadsRecyclerView.setVisibility(View.GONE);
-                emptyStateText.setVisibility(View.VISIBLE);
-                emptyStateText.setText("📥 No downloads yet\n\nDownloaded files will appear here with live progress tracking");
+                showEmptyState(true);
                 Log.d(TAG, "📭 No downloads found - showing empty state");
             } else {
                 // Show downloads list with enhanced adapter
-                downloadsRecyclerView.setVisibility(View.VISIBLE);
-                emptyStateText.setVisibility(View.GONE);
+                showEmptyState(false);
                 
-                adapter = new DownloadsAdapter(downloadItems, this);
-                downloadsRecyclerView.setAdapter(adapter);
+                DownloadService.follow(this, downloadItems);
                 
                 Log.d(TAG, "✅ Loaded " + downloadItems.size() + " downloads with live progress support");
                 
@@ -138,123 +145,60 @@ public class DownloadsActivity extends AppCompatActivity {
         }
     }
     
-    // ENHANCED: Start live progress updates
-    private void startLiveProgressUpdates() {
-        if (progressUpdateTimer != null) {
-            progressUpdateTimer.cancel();
+    private void showEmptyState(boolean empty) {
+        if (empty) {
+            downloadsRecyclerView.setVisibility(View.GONE);
+            emptyStateText.setVisibility(View.VISIBLE);
+            emptyStateText.setText("📥 No downloads yet\n\nDownloaded files will appear here with live progress tracking");
+        } else {
+            downloadsRecyclerView.setVisibility(View.VISIBLE);
+            emptyStateText.setVisibility(View.GONE);
         }
-        
-        progressUpdateTimer = new Timer();
-        progressUpdateTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (isActivityActive) {
-                    updateLiveProgress();
-                }
-            }
-        }, 1000, 2000); // Update every 2 seconds
-        
-        Log.d(TAG, "🔄 Live progress updates started");
     }
     
-    // ENHANCED: Update live progress for all active downloads
-    private void updateLiveProgress() {
-        try {
-            List<DownloadItem> activeDownloads = downloadManager.getActiveDownloads();
-            
-            if (!activeDownloads.isEmpty()) {
-                Log.d(TAG, "📊 Updating live progress for " + activeDownloads.size() + " active downloads");
-                
-                // Update UI on main thread
-                uiHandler.post(() -> {
-                    try {
-                        if (adapter != null) {
-                            // Refresh the downloads list to show updated progress
-                            downloadItems.clear();
-                            downloadItems.addAll(downloadManager.getAllDownloads());
-                            adapter.notifyDataSetChanged();
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error updating progress UI", e);
-                    }
-                });
+    // Untracked files that appeared, changed or went away since the indexer's last scan
+    private void applyUntrackedChanges(List<DownloadItem> added, List<String> removedPaths) {
+        if (!isActivityActive || adapter == null) {
+            return;
+        }
+        Set<String> removed = new HashSet<>(removedPaths);
+        List<DownloadItem> items = new ArrayList<>(added);
+        for (DownloadItem item : adapter.getCurrentList()) {
+            // Only the indexer's own rows are dropped; ledger rows for the same path stay
+            if (!(item.downloadId.startsWith(DownloadsIndexer.ID_PREFIX) && removed.contains(item.filepath))) {
+                items.add(item);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error updating live progress", e);
         }
+        downloadItems = items;
+        adapter.updateDownloads(items);
+        showEmptyState(items.isEmpty());
+        Log.d(TAG, "📂 Untracked files: +" + added.size() + " / -" + removedPaths.size());
     }
     
-    // ENHANCED: Stop live progress updates
-    private void stopLiveProgressUpdates() {
-        if (progressUpdateTimer != null) {
-            progressUpdateTimer.cancel();
-            progressUpdateTimer = null;
-            Log.d(TAG, "🛑 Live progress updates stopped");
-        }
+    // ENHANCED: Start live progress updates
+    private void startLiveProgressUpdates() {
+        // The download service polls while something is active and reports the rows that changed
+        DownloadService.addObserver(progressObserver);
+        Log.d(TAG, "🔄 Live progress updates started");
     }
     
-    // FIXED: Scan Downloads directory for files that might not be in our database
-    private void scanDownloadsDirectory() {
+    // ENHANCED: Apply progress for the downloads that actually changed
+    private void applyProgressChanges(List<DownloadItem> changed) {
+        if (!isActivityActive || adapter == null) {
+            return;
+        }
         try {
-            File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-            if (downloadsDir.exists() && downloadsDir.isDirectory()) {
-                File[] files = downloadsDir.listFiles();
-                if (files != null) {
-                    Log.d(TAG, "🔍 Scanning Downloads directory, found " + files.length + " files");
-                    
-                    for (File file : files) {
-                        if (file.isFile()) {
-                            // Check if this file is already in our download list
-                            boolean alreadyTracked = false;
-                            for (DownloadItem item : downloadItems) {
-                                if (file.getAbsolutePath().equals(item.filepath)) {
-                                    alreadyTracked = true;
-                                    break;
-                                }
-                            }
-                            
-                            // If not tracked, add it to our list
-                            if (!alreadyTracked) {
-                                Log.d(TAG, "📄 Found untracked download: " + file.getName());
-                                addUnTrackedDownload(file);
-                            }
-                        }
-                    }
-                }
-            }
+            // Diffed in the background; rows whose progress moved get a progress-only rebind
+            adapter.applyChanges(changed);
         } catch (Exception e) {
-            Log.e(TAG, "💥 Error scanning Downloads directory", e);
+            Log.e(TAG, "Error updating progress UI", e);
         }
     }
     
-    // Add untracked download to our list
-    private void addUnTrackedDownload(File file) {
-        try {
-            DownloadManager.FileTypeInfo typeInfo = downloadManager.intelligentFileTypeDetection(
-                "file://" + file.getAbsolutePath(), file.getName());
-            
-            DownloadItem item = new DownloadItem();
-            item.url = "file://" + file.getAbsolutePath();
-            item.filename = file.getName();
-            item.filepath = file.getAbsolutePath();
-            item.downloadId = String.valueOf(System.currentTimeMillis());
-            item.fileSize = file.length();
-            item.downloadTime = file.lastModified();
-            item.fileType = typeInfo.category;
-            item.fileIcon = typeInfo.icon;
-            item.fileDescription = typeInfo.description;
-            
-            // Set as completed since it's already downloaded
-            item.downloadProgress = 100;
-            item.downloadStatus = "✅ Completed";
-            item.isActive = false;
-            
-            downloadItems.add(0, item); // Add to beginning of list
-            Log.d(TAG, "✅ Added untracked download: " + file.getName());
-            
-        } catch (Exception e) {
-            Log.e(TAG, "💥 Error adding untracked download", e);
-        }
+    // ENHANCED: Stop live progress updates
+    private void stopLiveProgressUpdates() {
+        DownloadService.removeObserver(progressObserver);
+        Log.d(TAG, "🛑 Live progress updates stopped");
     }
     
     @Override
@@ -294,7 +238,7 @@ public class DownloadsActivity extends AppCompatActivity {
         super.onDestroy();
         isActivityActive = false;
         
-        // ENHANCED: Clean up resources
+        // ENHANCED: Clean up resources; downloads keep running in DownloadService
         stopLiveProgressUpdates();
         
         Log.d(TAG, "💀 Downloads activity destroyed - cleaned up live progress resources");
@@ -310,7 +254,7 @@ public class DownloadsActivity extends AppCompatActivity {
     // ENHANCED: Get count of active downloads
     public int getActiveDownloadsCount() {
         int count = 0;
-        for (DownloadItem item : downloadItems) {
+        for (DownloadItem item : adapter.getCurrentList()) {
             if (item.isActive) {
                 count++;
             }
@@ -320,6 +264,6 @@ public class DownloadsActivity extends AppCompatActivity {
     
     // ENHANCED: Get total downloads count
     public int getTotalDownloadsCount() {
-        return downloadItems.size();
+        return adapter.getCurrentList().size();
     }
 }
\ No newline at end of file
@@ -13,36 +13,108 @@ import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.core.content.FileProvider;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import android.os.Handler;
-import android.os.Looper;
+import java.util.Map;
 
-public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.DownloadViewHolder> {
+// Rows are diffed off the main thread by ListAdapter. Lists submitted to it are never mutated; every
+// change builds a new list with fresh DownloadItems. A row whose only change is its progress is rebound
+// with PAYLOAD_PROGRESS, which touches just the progress bar and the progress lines.
+public class DownloadsAdapter extends ListAdapter<DownloadItem, DownloadsAdapter.DownloadViewHolder> {
     
     private static final String TAG = "DownloadsAdapter";
     
-    private List<DownloadItem> downloadItems;
-    private Context context;
-    private Handler uiHandler;
+    private static final Object PAYLOAD_PROGRESS = new Object();
     
-    public DownloadsAdapter(List<DownloadItem> downloadItems, Context context) {
-        this.downloadItems = downloadItems;
+    private static final int COLOR_PROGRESS_RUNNING = android.graphics.Color.parseColor("#2196F3");
+    private static final int COLOR_PROGRESS_DONE = android.graphics.Color.parseColor("#4CAF50");
+    
+    private static final DiffUtil.ItemCallback<DownloadItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<DownloadItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull DownloadItem oldItem, @NonNull DownloadItem newItem) {
+            return equal(oldItem.downloadId, newItem.downloadId);
+        }
+        
+        @Override
+        public boolean areContentsTheSame(@NonNull DownloadItem oldItem, @NonNull DownloadItem newItem) {
+            return sameRow(oldItem, newItem) && sameProgress(oldItem, newItem);
+        }
+        
+        @Override
+        public Object getChangePayload(@NonNull DownloadItem oldItem, @NonNull DownloadItem newItem) {
+            // Only progress moved on a row that shows a progress bar and keeps its styling
+            if (sameRow(oldItem, newItem) && showsProgress(oldItem) && showsProgress(newItem)
+                    && statusCategory(oldItem) == statusCategory(newItem)) {
+                return PAYLOAD_PROGRESS;
+            }
+            return null;
+        }
+    };
+    
+    private final Context context;
+    private final DownloadPreviewManager previewManager;
+    
+    // downloadId -> stable RecyclerView item id, assigned on first sight
+    private final Map<String, Long> stableIds = new HashMap<>();
+    
+    public DownloadsAdapter(Context context) {
+        super(DIFF_CALLBACK);
         this.context = context;
-        this.uiHandler = new Handler(Looper.getMainLooper());
+        this.previewManager = DownloadPreviewManager.getInstance(context);
+        setHasStableIds(true);
+    }
+    
+    @Override
+    public long getItemId(int position) {
+        String downloadId = getItem(position).downloadId;
+        Long id = stableIds.get(downloadId);
+        if (id == null) {
+            id = (long) stableIds.size();
+            stableIds.put(downloadId, id);
+        }
+        return id;
     }
     
     @NonNull
     @Override
     public DownloadViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.item_download, parent, false);
-        return new DownloadViewHolder(view);
+        DownloadViewHolder holder = new DownloadViewHolder(view);
+        
+        // Listeners look the row up when clicked, so they survive moves and partial binds
+        holder.itemView.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                openFile(getItem(position));
+            }
+        });
+        holder.itemView.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                showFileOptions(getItem(position));
+            }
+            return true;
+        });
+        return holder;
+    }
+    
+    @Override
+    public void onBindViewHolder(@NonNull DownloadViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_PROGRESS)) {
+            bindProgress(holder, getItem(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
     }
     
     @Override
     public void onBindViewHolder(@NonNull DownloadViewHolder holder, int position) {
-        DownloadItem item = downloadItems.get(position);
+        DownloadItem item = getItem(position);
         
         try {
             // Set file icon
@@ -51,31 +123,15 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
             // Set filename
             holder.fileName.setText(item.filename != null ? item.filename : "Unknown File");
             
-            // Set file description
-            holder.fileDescription.setText(item.fileDescription != null ? item.fileDescription : "File");
+            // Set file description; finished files also get a thumbnail and duration or page count, loaded in the background
+            previewManager.loadInto(holder.fileThumbnail, holder.fileDescription, item);
             
             // ENHANCED: Show live progress or file size
-            if (item.isActive && item.downloadProgress > 0) {
+            if (showsProgress(item)) {
                 // Show progress bar and live progress info
                 holder.progressBar.setVisibility(View.VISIBLE);
-                holder.progressBar.setProgress(item.downloadProgress);
                 holder.progressText.setVisibility(View.VISIBLE);
-                holder.progressText.setText(item.getProgressText());
-                
-                // Show live download info
-                holder.fileSize.setText(item.getDownloadInfoSummary());
-                holder.downloadTime.setText(item.getStatusWithIcon());
-                
-                // Set progress bar color based on status
-                if (item.downloadProgress == 100) {
-                    holder.progressBar.getProgressDrawable().setColorFilter(
-                        android.graphics.Color.parseColor("#4CAF50"), 
-                        android.graphics.PorterDuff.Mode.SRC_IN);
-                } else {
-                    holder.progressBar.getProgressDrawable().setColorFilter(
-                        android.graphics.Color.parseColor("#2196F3"), 
-                        android.graphics.PorterDuff.Mode.SRC_IN);
-                }
+                bindProgress(holder, item);
                 
                 Log.d(TAG, "📊 Showing live progress for: " + item.filename + " - " + item.downloadProgress + "%");
                 
@@ -111,15 +167,6 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
                 holder.statusIndicator.setVisibility(View.GONE);
             }
             
-            // Set click listener
-            holder.itemView.setOnClickListener(v -> openFile(item));
-            
-            // Set long click listener for options
-            holder.itemView.setOnLongClickListener(v -> {
-                showFileOptions(item, position);
-                return true;
-            });
-            
         } catch (Exception e) {
             Log.e(TAG, "💥 Error binding download item", e);
             
@@ -134,11 +181,61 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
         }
     }
     
-    @Override
-    public int getItemCount() {
-        return downloadItems != null ? downloadItems.size() : 0;
+    // Progress bar, progress text and the two live info lines; the bar is only re-tinted when its color changes
+    private void bindProgress(DownloadViewHolder holder, DownloadItem item) {
+        holder.progressBar.setProgress(item.downloadProgress);
+        holder.progressText.setText(item.getProgressText());
+        holder.fileSize.setText(item.getDownloadInfoSummary());
+        holder.downloadTime.setText(item.getStatusWithIcon());
+        
+        int color = item.downloadProgress == 100 ? COLOR_PROGRESS_DONE : COLOR_PROGRESS_RUNNING;
+        if (color != holder.progressColor) {
+            holder.progressBar.getProgressDrawable().setColorFilter(color, android.graphics.PorterDuff.Mode.SRC_IN);
+            holder.progressColor = color;
+        }
+    }
+    
+    private static boolean showsProgress(DownloadItem item) {
+        return item.isActive && item.downloadProgress > 0;
+    }
+    
+    // Which of the row stylings (completed, downloading, failed, plain) applies
+    private static int statusCategory(DownloadItem item) {
+        if (item.isCompleted()) {
+            return 0;
+        } else if (item.isDownloading()) {
+            return 1;
+        } else if (item.isFailed()) {
+            return 2;
+        }
+        return 3;
+    }
+    
+    // Everything a full bind shows apart from the progress lines
+    private static boolean sameRow(DownloadItem a, DownloadItem b) {
+        return a.isActive == b.isActive
+                && equal(a.filename, b.filename)
+                && equal(a.fileIcon, b.fileIcon)
+                && equal(a.fileDescription, b.fileDescription)
+                && a.fileSize == b.fileSize
+                && a.downloadTime == b.downloadTime;
     }
     
+    private static boolean sameProgress(DownloadItem a, DownloadItem b) {
+        return a.downloadProgress == b.downloadProgress
+                && a.isPaused == b.isPaused
+                && equal(a.downloadStatus, b.downloadStatus)
+                && equal(a.downloadSpeed, b.downloadSpeed)
+                && equal(a.estimatedTimeRemaining, b.estimatedTimeRemaining)
+                && equal(a.sha256, b.sha256)
+                && equal(a.expectedSha256, b.expectedSha256);
+    }
+    
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+    
+
     // ENHANCED: Open file with appropriate app
     private void openFile(DownloadItem item) {
         try {
@@ -167,9 +264,10 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
                 file
             );
             
-            // Determine MIME type
-            String mimeType = android.webkit.MimeTypeMap.getSingleton()
-                .getMimeTypeFromExtension(android.webkit.MimeTypeMap.getFileExtensionFromUrl(item.filepath));
+            // Determine MIME type, from the first bytes when the name has no extension
+            String mimeType = FileTypeRegistry.hasExtension(file.getName())
+                ? FileTypeRegistry.getMimeType(file.getName())
+                : FileTypeRegistry.sniffMimeType(file);
             
             if (mimeType == null) {
                 mimeType = "*/*";
@@ -195,7 +293,7 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
     }
     
     // ENHANCED: Show file options menu
-    private void showFileOptions(DownloadItem item, int position) {
+    private void showFileOptions(DownloadItem item) {
         android.app.AlertDialog.Builder builder = new android.app.AlertDialog.Builder(context);
         builder.setTitle("📄 " + item.filename);
         
@@ -207,8 +305,26 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
             options.add("📊 View Progress Details");
             actions.add(() -> showProgressDetails(item));
             
+            if (SegmentedDownloader.isInAppDownload(item.downloadId)) {
+                if (item.isPaused) {
+                    options.add("▶️ Resume Download");
+                    actions.add(() -> resumeDownload(item));
+                } else {
+                    options.add("⏸️ Pause Download");
+                    actions.add(() -> pauseDownload(item));
+                }
+                
+                if (item.priority < DownloadItem.PRIORITY_HIGH) {
+                    options.add("⬆️ Download First");
+                    actions.add(() -> {
+                        DownloadScheduler.getInstance(context).setPriority(item.downloadId, DownloadItem.PRIORITY_HIGH);
+                        Toast.makeText(context, "⬆️ " + item.filename + " moved to the front", Toast.LENGTH_SHORT).show();
+                    });
+                }
+            }
+            
             options.add("⏸️ Cancel Download");
-            actions.add(() -> cancelDownload(item, position));
+            actions.add(() -> cancelDownload(item));
         } else {
             // Normal file options
             options.add("📂 Open File");
@@ -221,7 +337,7 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
             actions.add(() -> showFileDetails(item));
             
             options.add("🗑️ Delete File");
-            actions.add(() -> deleteFile(item, position));
+            actions.add(() -> deleteFile(item));
         }
         
         String[] optionsArray = options.toArray(new String[0]);
@@ -263,8 +379,18 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
         builder.show();
     }
     
+    // Pause an in-app download; it keeps its checkpoints and continues from them on resume
+    // The row is updated when the scheduler reports it back through the download service
+    private void pauseDownload(DownloadItem item) {
+        DownloadScheduler.getInstance(context).pause(item.downloadId);
+    }
+    
+    private void resumeDownload(DownloadItem item) {
+        DownloadScheduler.getInstance(context).resume(item.downloadId);
+    }
+    
     // Cancel active download
-    private void cancelDownload(DownloadItem item, int position) {
+    private void cancelDownload(DownloadItem item) {
         new android.app.AlertDialog.Builder(context)
             .setTitle("⏸️ Cancel Download")
             .setMessage("Cancel download of " + item.filename + "?")
@@ -274,13 +400,21 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
                     android.app.DownloadManager downloadManager = 
                         (android.app.DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
                     
-                    if (item.downloadId != null && !item.downloadId.isEmpty()) {
-                        downloadManager.remove(Long.parseLong(item.downloadId));
+                    if (SegmentedDownloader.isInAppDownload(item.downloadId)) {
+                        // The engine removes the row together with the partial file
+                        SegmentedDownloader.getInstance(context).cancel(item.downloadId, item.filepath);
+                    } else {
+                        if (BlobDownloadBridge.isBlobDownload(item.downloadId)) {
+                            // Stops the page streaming and deletes what was written so far
+                            BlobDownloadBridge.cancel(item.downloadId);
+                        } else if (item.downloadId != null && !item.downloadId.isEmpty()) {
+                            downloadManager.remove(Long.parseLong(item.downloadId));
+                        }
+                        DownloadManager.getInstance(context).removeDownloadById(item.downloadId);
                     }
                     
                     // Remove from our list
-                    downloadItems.remove(position);
-                    notifyItemRemoved(position);
+                    removeItem(item.downloadId);
                     
                     Toast.makeText(context, "⏸️ Download cancelled: " + item.filename, Toast.LENGTH_SHORT).show();
                     
@@ -341,7 +475,7 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
     }
     
     // Delete file
-    private void deleteFile(DownloadItem item, int position) {
+    private void deleteFile(DownloadItem item) {
         new android.app.AlertDialog.Builder(context)
             .setTitle("🗑️ Delete File")
             .setMessage("Delete " + item.filename + " permanently?")
@@ -353,8 +487,7 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
                         DownloadManager.getInstance(context).removeDownload(item.filepath);
                         
                         // Remove from adapter
-                        downloadItems.remove(position);
-                        notifyItemRemoved(position);
+                        removeItem(item.downloadId);
                         
                         Toast.makeText(context, "🗑️ File deleted: " + item.filename, Toast.LENGTH_SHORT).show();
                     } else {
@@ -371,32 +504,40 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
     
     // ENHANCED: Update adapter data with live progress
     public void updateDownloads(List<DownloadItem> newDownloads) {
-        this.downloadItems.clear();
-        this.downloadItems.addAll(newDownloads);
-        
-        uiHandler.post(() -> {
-            notifyDataSetChanged();
-        });
-        
+        submitList(new ArrayList<>(newDownloads));
         Log.d(TAG, "📊 Downloads list updated with " + newDownloads.size() + " items");
     }
     
-    // ENHANCED: Update specific download progress
-    public void updateDownloadProgress(String downloadId, int progress) {
-        for (int i = 0; i < downloadItems.size(); i++) {
-            DownloadItem item = downloadItems.get(i);
-            if (downloadId.equals(item.downloadId)) {
-                final int position = i;
-                uiHandler.post(() -> {
-                    notifyItemChanged(position);
-                });
+    // Replaces the rows of these downloads with the given fresh copies; rows not shown are ignored
+    public void applyChanges(List<DownloadItem> changed) {
+        Map<String, DownloadItem> byId = new HashMap<>();
+        for (DownloadItem item : changed) {
+            byId.put(item.downloadId, item);
+        }
+        List<DownloadItem> updated = new ArrayList<>(getCurrentList());
+        for (int i = 0; i < updated.size(); i++) {
+            DownloadItem replacement = byId.get(updated.get(i).downloadId);
+            if (replacement != null) {
+                updated.set(i, replacement);
+            }
+        }
+        submitList(updated);
+    }
+    
+    private void removeItem(String downloadId) {
+        List<DownloadItem> updated = new ArrayList<>(getCurrentList());
+        for (int i = 0; i < updated.size(); i++) {
+            if (equal(downloadId, updated.get(i).downloadId)) {
+                updated.remove(i);
                 break;
             }
         }
+        submitList(updated);
     }
     
     static class DownloadViewHolder extends RecyclerView.ViewHolder {
         TextView fileIcon;
+        ImageView fileThumbnail;
         TextView fileName;
         TextView fileDescription;
         TextView fileSize;
@@ -407,11 +548,13 @@ public class DownloadsAdapter extends RecyclerView.Adapter<DownloadsAdapter.Down
         ProgressBar progressBar;
         TextView progressText;
         TextView statusIndicator;
+        int progressColor;
         
         public DownloadViewHolder(@NonNull View itemView) {
             super(itemView);
             
             fileIcon = itemView.findViewById(R.id.file_icon);
+            fileThumbnail = itemView.findViewById(R.id.file_thumbnail);
             fileName = itemView.findViewById(R.id.file_name);
             fileDescription = itemView.findViewById(R.id.file_description);
             fileSize = itemView.findViewById(R.id.file_size);
@@ -0,0 +1,244 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+import androidx.annotation.RequiresApi;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Finds files in the Downloads directory that the ledger doesn't track (saved by other apps or before
+// the ledger existed). Keeps an index by path with each file's size and mtime from the last scan, so a
+// rescan only builds entries for files that are new or changed, and reports just what was added to or
+// removed from the set of untracked files. Files are listed through MediaStore on API 29+ and with
+// listFiles() before that; scans run on one background thread.
+public class DownloadsIndexer {
+    
+    private static final String TAG = "DownloadsIndexer";
+    
+    // Download id prefix of untracked files; the rest of the id is the file's path
+    public static final String ID_PREFIX = "file:";
+    
+    private static final String PART_SUFFIX = ".part";
+    private static final int WORK_QUEUE_CAPACITY = 4;
+    
+    private static final Comparator<DownloadItem> NEWEST_FIRST = (a, b) -> Long.compare(b.downloadTime, a.downloadTime);
+    
+    public interface Listener {
+        // Called on the main thread. removedPaths may include paths whose entry is also in added (changed files).
+        void onUntrackedFilesChanged(List<DownloadItem> added, List<String> removedPaths);
+    }
+    
+    private static DownloadsIndexer instance;
+    
+    private final Context context;
+    private final File downloadsDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor scanExecutor;
+    
+    // Scan thread only: path -> size and mtime seen by the last scan, and the untracked files reported so far
+    private final Map<String, FileStamp> stamps = new HashMap<>();
+    private final Map<String, DownloadItem> untracked = new HashMap<>();
+    
+    // Read on the main thread to show known untracked files before a rescan finishes
+    private volatile List<DownloadItem> untrackedSnapshot = Collections.emptyList();
+    
+    private DownloadsIndexer(Context context) {
+        this.context = context.getApplicationContext();
+        this.downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        
+        scanExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "DownloadsIndexer");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                (runnable, executor) -> Log.w(TAG, "Index queue full - dropping scan"));
+    }
+    
+    public static synchronized DownloadsIndexer getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadsIndexer(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // Untracked files as of the last scan, minus those now tracked; newest first
+    public List<DownloadItem> getUntrackedFiles(Set<String> trackedPaths) {
+        List<DownloadItem> files = new ArrayList<>();
+        for (DownloadItem item : untrackedSnapshot) {
+            if (!trackedPaths.contains(item.filepath)) {
+                files.add(item);
+            }
+        }
+        return files;
+    }
+    
+    // Rescans the directory against the ledger's paths and reports the difference to the listener
+    public void scan(Set<String> trackedPaths, Listener listener) {
+        scanExecutor.execute(() -> {
+            try {
+                Map<String, FileStamp> current = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                        ? listWithMediaStore() : null;
+                if (current == null) {
+                    current = listWithFiles();
+                }
+                
+                List<DownloadItem> added = new ArrayList<>();
+                List<String> removed = new ArrayList<>();
+                
+                // Gone, changed, or tracked by the ledger since the last scan
+                Iterator<Map.Entry<String, DownloadItem>> reported = untracked.entrySet().iterator();
+                while (reported.hasNext()) {
+                    String path = reported.next().getKey();
+                    FileStamp stamp = current.get(path);
+                    if (stamp == null || trackedPaths.contains(path) || !stamp.equals(stamps.get(path))) {
+                        reported.remove();
+                        removed.add(path);
+                    }
+                }
+                
+                for (Map.Entry<String, FileStamp> entry : current.entrySet()) {
+                    String path = entry.getKey();
+                    if (untracked.containsKey(path) || trackedPaths.contains(path) || path.endsWith(PART_SUFFIX)) {
+                        continue;
+                    }
+                    DownloadItem item = createItem(path, entry.getValue());
+                    untracked.put(path, item);
+                    added.add(item);
+                }
+                
+                stamps.clear();
+                stamps.putAll(current);
+                
+                if (added.isEmpty() && removed.isEmpty()) {
+                    return;
+                }
+                List<DownloadItem> snapshot = new ArrayList<>(untracked.values());
+                Collections.sort(snapshot, NEWEST_FIRST);
+                Collections.sort(added, NEWEST_FIRST);
+                untrackedSnapshot = Collections.unmodifiableList(snapshot);
+                Log.d(TAG, "📂 Downloads index: " + current.size() + " files, +" + added.size() + " / -" + removed.size() + " untracked");
+                mainHandler.post(() -> listener.onUntrackedFilesChanged(added, removed));
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error scanning Downloads directory", e);
+            }
+        });
+    }
+    
+    private Map<String, FileStamp> listWithFiles() {
+        Map<String, FileStamp> files = new HashMap<>();
+        File[] entries = downloadsDir.listFiles();
+        if (entries != null) {
+            for (File file : entries) {
+                if (file.isFile()) {
+                    files.put(file.getAbsolutePath(), new FileStamp(file.length(), file.lastModified()));
+                }
+            }
+        }
+        return files;
+    }
+    
+    // Top level of Downloads as MediaStore indexed it; size and mtime come from the query, so no file is
+    // stat()ed. Returns null if MediaStore can't be queried so the caller falls back to listFiles().
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private Map<String, FileStamp> listWithMediaStore() {
+        Uri uri = MediaStore.Downloads.EXTERNAL_CONTENT_URI;
+        String[] projection = {
+                MediaStore.MediaColumns.DISPLAY_NAME,
+                MediaStore.MediaColumns.SIZE,
+                MediaStore.MediaColumns.DATE_MODIFIED
+        };
+        String selection = MediaStore.MediaColumns.RELATIVE_PATH + " = ? AND " + MediaStore.MediaColumns.IS_PENDING + " = 0";
+        String[] selectionArgs = {Environment.DIRECTORY_DOWNLOADS + "/"};
+        
+        try (Cursor cursor = context.getContentResolver().query(uri, projection, selection, selectionArgs, null)) {
+            if (cursor == null) {
+                return null;
+            }
+            Map<String, FileStamp> files = new HashMap<>();
+            int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME);
+            int sizeColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.SIZE);
+            int modifiedColumn = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED);
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(nameColumn);
+                if (name == null) {
+                    continue;
+                }
+                // DATE_MODIFIED is in seconds
+                files.put(new File(downloadsDir, name).getAbsolutePath(),
+                        new FileStamp(cursor.getLong(sizeColumn), cursor.getLong(modifiedColumn) * 1000));
+            }
+            return files;
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "MediaStore query failed, listing the directory instead", e);
+            return null;
+        }
+    }
+    
+    private DownloadItem createItem(String path, FileStamp stamp) {
+        File file = new File(path);
+        String name = file.getName();
+        // Already on the scan thread, so files without an extension can be sniffed
+        FileTypeRegistry.FileTypeInfo typeInfo = FileTypeRegistry.detect(file);
+        
+        DownloadItem item = new DownloadItem();
+        item.url = "file://" + path;
+        item.filename = name;
+        item.filepath = path;
+        // Unique per file: the list keys its rows on downloadId
+        item.downloadId = ID_PREFIX + path;
+        item.fileSize = stamp.size;
+        item.downloadTime = stamp.modified;
+        item.fileType = typeInfo.category;
+        item.fileIcon = typeInfo.icon;
+        item.fileDescription = typeInfo.description;
+        
+        // Set as completed since it's already downloaded
+        item.downloadProgress = 100;
+        item.downloadStatus = "✅ Completed";
+        item.isActive = false;
+        return item;
+    }
+    
+    private static class FileStamp {
+        final long size;
+        final long modified;
+        
+        FileStamp(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileStamp)) {
+                return false;
+            }
+            FileStamp other = (FileStamp) o;
+            return size == other.size && modified == other.modified;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (int) (31 * size + modified);
+        }
+    }
+}
\ No newline at end of file
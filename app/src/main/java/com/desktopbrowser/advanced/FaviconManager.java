@@ -0,0 +1,292 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Site icons captured from the WebView, shared by bookmarks, history, suggestions and tabs.
+// Icons are downscaled and PNG-encoded on a background thread and stored content-addressed
+// (icons/<sha1 of PNG>.png) with a tiny per-host pointer file, so sites sharing an icon share one file.
+// Decoded bitmaps sit in an LRU cache; list rows bind from it or get a background decode.
+// The icon files are capped on disk, oldest first; a host whose icon was evicted just shows the placeholder.
+public class FaviconManager {
+    
+    private static final String TAG = "FaviconManager";
+    
+    private static final String CACHE_DIR = "favicons";
+    private static final String ICONS_DIR = "icons";
+    private static final String HOSTS_DIR = "hosts";
+    
+    // Icons are stored at this size; list rows show them at 20-24dp
+    private static final int ICON_SIZE_PX = 64;
+    
+    private static final long DISK_CACHE_BYTES = 4L * 1024 * 1024;
+    private static final int MEMORY_CACHE_BYTES = 2 * 1024 * 1024;
+    private static final int MISSING_CACHE_ENTRIES = 256;
+    private static final int WORK_QUEUE_CAPACITY = 128;
+    
+    private static FaviconManager instance;
+    
+    private final File iconsDir;
+    private final File hostsDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor ioExecutor;
+    
+    // host -> decoded icon
+    private final LruCache<String, Bitmap> memoryCache = new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String host, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+    
+    // Hosts already checked on disk with no icon, so scrolling past them does not hit the disk again
+    private final LruCache<String, Boolean> missingHosts = new LruCache<>(MISSING_CACHE_ENTRIES);
+    
+    // Row tag for one bind. Set and checked on the UI thread; the next bind of the row marks it stale,
+    // which the IO thread reads instead of touching the view.
+    private static class Binding {
+        volatile boolean stale;
+    }
+    
+    private FaviconManager(Context context) {
+        File root = new File(context.getCacheDir(), CACHE_DIR);
+        iconsDir = new File(root, ICONS_DIR);
+        hostsDir = new File(root, HOSTS_DIR);
+        
+        // One low-priority thread for both decodes and stores; rows that scroll away are simply skipped
+        ioExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WORK_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "FaviconIO");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+    
+    public static synchronized FaviconManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new FaviconManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // Called from WebViewClient.onPageStarted / WebChromeClient.onReceivedIcon with the page's icon
+    public void onIconReceived(String pageUrl, Bitmap icon) {
+        String host = hostOf(pageUrl);
+        if (host == null || icon == null || icon.isRecycled()) {
+            return;
+        }
+        // WebView may reuse the bitmap after this callback; copy it before leaving the UI thread
+        Bitmap copy = icon.copy(Bitmap.Config.ARGB_8888, false);
+        if (copy == null) {
+            return;
+        }
+        ioExecutor.execute(() -> storeIcon(host, copy));
+    }
+    
+    private void storeIcon(String host, Bitmap icon) {
+        try {
+            // Fit the longer side; non-square icons keep their aspect ratio
+            int longest = Math.max(icon.getWidth(), icon.getHeight());
+            Bitmap scaled = longest > ICON_SIZE_PX
+                    ? Bitmap.createScaledBitmap(icon,
+                            Math.max(1, icon.getWidth() * ICON_SIZE_PX / longest),
+                            Math.max(1, icon.getHeight() * ICON_SIZE_PX / longest), true)
+                    : icon;
+            
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            scaled.compress(Bitmap.CompressFormat.PNG, 100, png);
+            byte[] bytes = png.toByteArray();
+            String hash = sha1Hex(bytes);
+            
+            File iconFile = new File(iconsDir, hash + ".png");
+            if (!iconFile.exists()) {
+                writeAtomically(iconFile, bytes);
+                trimDiskCache();
+            } else {
+                // Still in use; keep it out of the eviction order's front
+                iconFile.setLastModified(System.currentTimeMillis());
+            }
+            File hostFile = hostFile(host);
+            if (!hash.equals(readPointer(hostFile))) {
+                writeAtomically(hostFile, hash.getBytes(StandardCharsets.UTF_8));
+            }
+            
+            memoryCache.put(host, scaled);
+            missingHosts.remove(host);
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error storing favicon for " + host, e);
+        }
+    }
+    
+    // Cached icon for the page's host, or null. Never touches the disk; safe on the UI thread.
+    public Bitmap getCachedIcon(String pageUrl) {
+        String host = hostOf(pageUrl);
+        return host != null ? memoryCache.get(host) : null;
+    }
+    
+    // Binds the site icon into a list row. Memory hits bind immediately; otherwise the placeholder is shown
+    // and the icon is decoded off the UI thread, then bound only if the row still shows the same host.
+    public void loadInto(ImageView view, String pageUrl, int placeholderRes) {
+        String host = hostOf(pageUrl);
+        Object previous = view.getTag(R.id.favicon_host);
+        if (previous instanceof Binding) {
+            ((Binding) previous).stale = true;
+        }
+        Binding binding = new Binding();
+        view.setTag(R.id.favicon_host, binding);
+        
+        Bitmap cached = host != null ? memoryCache.get(host) : null;
+        if (cached != null) {
+            showIcon(view, cached);
+            return;
+        }
+        showPlaceholder(view, placeholderRes);
+        if (host == null || missingHosts.get(host) != null) {
+            return;
+        }
+        
+        ioExecutor.execute(() -> {
+            if (binding.stale) {
+                // Row was rebound before we got to it
+                return;
+            }
+            Bitmap icon = readIcon(host);
+            if (icon == null) {
+                missingHosts.put(host, Boolean.TRUE);
+                return;
+            }
+            memoryCache.put(host, icon);
+            mainHandler.post(() -> {
+                if (!binding.stale) {
+                    showIcon(view, icon);
+                }
+            });
+        });
+    }
+    
+    // Placeholders are tinted vector icons, favicons must not be; remember the layout's tint to restore it
+    private static void showIcon(ImageView view, Bitmap icon) {
+        if (view.getTag(R.id.favicon_tint) == null && view.getImageTintList() != null) {
+            view.setTag(R.id.favicon_tint, view.getImageTintList());
+        }
+        view.setImageTintList(null);
+        view.setImageBitmap(icon);
+    }
+    
+    private static void showPlaceholder(ImageView view, int placeholderRes) {
+        Object tint = view.getTag(R.id.favicon_tint);
+        if (tint instanceof ColorStateList) {
+            view.setImageTintList((ColorStateList) tint);
+        }
+        view.setImageResource(placeholderRes);
+    }
+    
+    private Bitmap readIcon(String host) {
+        String hash = readPointer(hostFile(host));
+        if (hash == null) {
+            return null;
+        }
+        File iconFile = new File(iconsDir, hash + ".png");
+        return iconFile.exists() ? BitmapFactory.decodeFile(iconFile.getAbsolutePath()) : null;
+    }
+    
+    // IO thread. Host pointers are a few bytes each and left alone; one whose icon is gone reads as missing.
+    private void trimDiskCache() {
+        File[] files = iconsDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= DISK_CACHE_BYTES * 3 / 4) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+    
+    private File hostFile(String host) {
+        return new File(hostsDir, host);
+    }
+    
+    private static String readPointer(File hostFile) {
+        if (!hostFile.exists()) {
+            return null;
+        }
+        byte[] buffer = new byte[64];
+        try (FileInputStream in = new FileInputStream(hostFile)) {
+            int length = in.read(buffer);
+            return length > 0 ? new String(buffer, 0, length, StandardCharsets.UTF_8) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    // Write to a temp file and rename so a crash never leaves a half-written icon behind
+    private static void writeAtomically(File target, byte[] bytes) throws IOException {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File temp = new File(dir, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot rename " + temp);
+        }
+    }
+    
+    private static String hostOf(String pageUrl) {
+        if (pageUrl == null) {
+            return null;
+        }
+        String host = Uri.parse(pageUrl).getHost();
+        if (host == null || host.isEmpty()) {
+            return null;
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        return host.startsWith("www.") ? host.substring(4) : host;
+    }
+    
+    private static String sha1Hex(byte[] bytes) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(String.format(Locale.ROOT, "%02x", b));
+        }
+        return hex.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,401 @@
+package com.desktopbrowser.advanced;
+
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Everything the app knows about file types in one table: extension -> MIME type -> category, icon and
+// description. The table is built once and never changes, and every extension of a kind shares one
+// FileTypeInfo, so classifying a download allocates nothing. Extensions are looked up in place, straight
+// out of the filename or URL, without being copied or lower-cased first. Extensions the table doesn't
+// know fall back to MimeTypeMap once and the answer is remembered; files without an extension can be
+// classified from their first bytes.
+public final class FileTypeRegistry {
+    
+    private static final String TAG = "FileTypeRegistry";
+    
+    public static final String DEFAULT_EXTENSION = "bin";
+    
+    private static final int MAX_EXTENSION_LENGTH = 10;
+    private static final int SNIFF_BYTES = 16;
+    
+    // INTELLIGENT FILE TYPE DETECTION
+    public static final class FileTypeInfo {
+        public final String category;
+        public final String icon;
+        public final String description;
+        
+        FileTypeInfo(String category, String icon, String description) {
+            this.category = category;
+            this.icon = icon;
+            this.description = description;
+        }
+    }
+    
+    public static final FileTypeInfo IMAGE = new FileTypeInfo("Image", "🖼️", "Image File");
+    public static final FileTypeInfo VIDEO = new FileTypeInfo("Video", "🎥", "Video File");
+    public static final FileTypeInfo AUDIO = new FileTypeInfo("Audio", "🎵", "Audio File");
+    public static final FileTypeInfo PDF = new FileTypeInfo("Document", "📄", "PDF Document");
+    public static final FileTypeInfo WORD = new FileTypeInfo("Document", "📝", "Word Document");
+    public static final FileTypeInfo EXCEL = new FileTypeInfo("Document", "📊", "Excel Spreadsheet");
+    public static final FileTypeInfo POWERPOINT = new FileTypeInfo("Document", "📊", "PowerPoint Presentation");
+    public static final FileTypeInfo TEXT = new FileTypeInfo("Document", "📄", "Text File");
+    public static final FileTypeInfo ARCHIVE = new FileTypeInfo("Archive", "🗜️", "Archive File");
+    public static final FileTypeInfo ANDROID_APP = new FileTypeInfo("Application", "📱", "Android App");
+    public static final FileTypeInfo WINDOWS_APP = new FileTypeInfo("Application", "⚙️", "Windows Application");
+    public static final FileTypeInfo WEB_PAGE = new FileTypeInfo("Web", "🌐", "Web Page");
+    public static final FileTypeInfo STYLESHEET = new FileTypeInfo("Web", "🎨", "Stylesheet");
+    public static final FileTypeInfo JAVASCRIPT = new FileTypeInfo("Web", "⚡", "JavaScript File");
+    public static final FileTypeInfo OTHER = new FileTypeInfo("Other", "📄", "File");
+    
+    // Open-addressed extension table, probed with the characters of the name in place. Power of two,
+    // kept well over twice the number of extensions so probe runs stay short.
+    private static final int TABLE_SIZE = 256;
+    private static final String[] extensionKeys = new String[TABLE_SIZE];
+    private static final Entry[] extensionEntries = new Entry[TABLE_SIZE];
+    
+    // Lower-case MIME type -> canonical extension
+    private static final Map<String, String> extensionsByMimeType;
+    
+    // Extensions not in the table, classified through MimeTypeMap on first sight
+    private static final Map<String, FileTypeInfo> fallbackTypes = new ConcurrentHashMap<>();
+    
+    static {
+        Map<String, String> byMimeType = new HashMap<>();
+        
+        // Images
+        add(byMimeType, IMAGE, "image/jpeg", "jpg", "jpeg");
+        add(byMimeType, IMAGE, "image/png", "png");
+        add(byMimeType, IMAGE, "image/gif", "gif");
+        add(byMimeType, IMAGE, "image/bmp", "bmp");
+        add(byMimeType, IMAGE, "image/webp", "webp");
+        add(byMimeType, IMAGE, "image/svg+xml", "svg");
+        add(byMimeType, IMAGE, "image/tiff", "tiff", "tif");
+        add(byMimeType, IMAGE, "image/x-icon", "ico");
+        byMimeType.put("image/jpg", "jpg");
+        byMimeType.put("image/ico", "ico");
+        
+        // Videos
+        add(byMimeType, VIDEO, "video/mp4", "mp4");
+        add(byMimeType, VIDEO, "video/x-msvideo", "avi");
+        add(byMimeType, VIDEO, "video/x-matroska", "mkv");
+        add(byMimeType, VIDEO, "video/quicktime", "mov");
+        add(byMimeType, VIDEO, "video/x-ms-wmv", "wmv");
+        add(byMimeType, VIDEO, "video/x-flv", "flv");
+        add(byMimeType, VIDEO, "video/webm", "webm");
+        add(byMimeType, VIDEO, "video/x-m4v", "m4v");
+        byMimeType.put("video/avi", "avi");
+        
+        // Audio
+        add(byMimeType, AUDIO, "audio/mpeg", "mp3");
+        add(byMimeType, AUDIO, "audio/wav", "wav");
+        add(byMimeType, AUDIO, "audio/flac", "flac");
+        add(byMimeType, AUDIO, "audio/aac", "aac");
+        add(byMimeType, AUDIO, "audio/ogg", "ogg");
+        add(byMimeType, AUDIO, "audio/mp4", "m4a");
+        add(byMimeType, AUDIO, "audio/x-ms-wma", "wma");
+        byMimeType.put("audio/mp3", "mp3");
+        byMimeType.put("audio/x-wav", "wav");
+        
+        // Documents
+        add(byMimeType, PDF, "application/pdf", "pdf");
+        add(byMimeType, WORD, "application/msword", "doc");
+        add(byMimeType, WORD, "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx");
+        add(byMimeType, EXCEL, "application/vnd.ms-excel", "xls");
+        add(byMimeType, EXCEL, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+        add(byMimeType, POWERPOINT, "application/vnd.ms-powerpoint", "ppt");
+        add(byMimeType, POWERPOINT, "application/vnd.openxmlformats-officedocument.presentationml.presentation", "pptx");
+        add(byMimeType, TEXT, "text/plain", "txt");
+        add(byMimeType, TEXT, "text/csv", "csv");
+        add(byMimeType, OTHER, "application/rtf", "rtf");
+        add(byMimeType, OTHER, "application/json", "json");
+        
+        // Archives
+        add(byMimeType, ARCHIVE, "application/zip", "zip");
+        add(byMimeType, ARCHIVE, "application/x-rar-compressed", "rar");
+        add(byMimeType, ARCHIVE, "application/x-7z-compressed", "7z");
+        add(byMimeType, ARCHIVE, "application/x-tar", "tar");
+        add(byMimeType, ARCHIVE, "application/gzip", "gz");
+        byMimeType.put("application/vnd.rar", "rar");
+        byMimeType.put("application/x-gzip", "gz");
+        
+        // Applications
+        add(byMimeType, ANDROID_APP, "application/vnd.android.package-archive", "apk");
+        add(byMimeType, WINDOWS_APP, "application/x-msdownload", "exe");
+        add(byMimeType, OTHER, "application/x-msi", "msi");
+        add(byMimeType, OTHER, "application/java-archive", "jar");
+        byMimeType.put("application/exe", "exe");
+        
+        // Web files
+        add(byMimeType, WEB_PAGE, "text/html", "html", "htm");
+        add(byMimeType, STYLESHEET, "text/css", "css");
+        add(byMimeType, JAVASCRIPT, "text/javascript", "js");
+        byMimeType.put("application/javascript", "js");
+        
+        extensionsByMimeType = Collections.unmodifiableMap(byMimeType);
+    }
+    
+    private FileTypeRegistry() {
+    }
+    
+    // The first extension is the one files of this MIME type are saved with
+    private static void add(Map<String, String> byMimeType, FileTypeInfo info, String mimeType, String... extensions) {
+        for (String extension : extensions) {
+            int index = slot(extension, 0, extension.length());
+            while (extensionKeys[index] != null) {
+                index = (index + 1) & (TABLE_SIZE - 1);
+            }
+            extensionKeys[index] = extension;
+            extensionEntries[index] = new Entry(mimeType, info);
+        }
+        byMimeType.put(mimeType, extensions[0]);
+    }
+    
+    // Category, icon and description for a download; the filename's extension wins over the URL's
+    public static FileTypeInfo detect(String url, String filename) {
+        String source = filename;
+        int end = filename != null ? filename.length() : 0;
+        int dot = extensionStart(filename);
+        if (dot < 0 && url != null) {
+            source = url;
+            end = pathEnd(url);
+            dot = lastDot(url, end);
+        }
+        if (dot < 0) {
+            return OTHER;
+        }
+        Entry entry = lookup(source, dot + 1, end);
+        return entry != null ? entry.info : fallbackType(source.substring(dot + 1, end));
+    }
+    
+    // Classifies a file on disk by name, or by content when the name has no extension. Reads the file,
+    // so not for the main thread.
+    public static FileTypeInfo detect(File file) {
+        String name = file.getName();
+        if (hasExtension(name)) {
+            return detect(null, name);
+        }
+        FileTypeInfo sniffed = detectFromContent(file);
+        return sniffed != null ? sniffed : OTHER;
+    }
+    
+    // Type recognised from the file's first bytes, or null
+    public static FileTypeInfo detectFromContent(File file) {
+        String mimeType = sniffMimeType(file);
+        if (mimeType == null) {
+            return null;
+        }
+        String extension = extensionsByMimeType.get(mimeType);
+        Entry entry = extension != null ? lookup(extension, 0, extension.length()) : null;
+        return entry != null ? entry.info : OTHER;
+    }
+    
+    public static boolean hasExtension(String filename) {
+        return extensionStart(filename) >= 0;
+    }
+    
+    // MIME type for a file name or path, or null when neither the table nor MimeTypeMap knows it
+    public static String getMimeType(String filename) {
+        int dot = extensionStart(filename);
+        if (dot < 0) {
+            return null;
+        }
+        Entry entry = lookup(filename, dot + 1, filename.length());
+        if (entry != null) {
+            return entry.mimeType;
+        }
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(filename.substring(dot + 1).toLowerCase(Locale.US));
+    }
+    
+    // Extension (without the dot) to save content of this MIME type with; "bin" when unknown
+    public static String getExtensionForMimeType(String mimeType) {
+        if (mimeType == null || mimeType.isEmpty()) {
+            return DEFAULT_EXTENSION;
+        }
+        int semicolon = mimeType.indexOf(';');
+        String type = (semicolon >= 0 ? mimeType.substring(0, semicolon) : mimeType).trim().toLowerCase(Locale.US);
+        String extension = extensionsByMimeType.get(type);
+        if (extension == null) {
+            extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(type);
+        }
+        return extension != null ? extension : DEFAULT_EXTENSION;
+    }
+    
+    // MIME type recognised from the file's magic number, or null. Reads the first few bytes of the file.
+    public static String sniffMimeType(File file) {
+        byte[] header = new byte[SNIFF_BYTES];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) != -1) {
+                length += read;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file + " to detect its type", e);
+            return null;
+        }
+        return sniffMimeType(header, length);
+    }
+    
+    static String sniffMimeType(byte[] header, int length) {
+        if (startsWith(header, length, 0, 0x25, 0x50, 0x44, 0x46)) {                  // %PDF
+            return "application/pdf";
+        } else if (startsWith(header, length, 0, 0x89, 0x50, 0x4E, 0x47)) {           // \x89PNG
+            return "image/png";
+        } else if (startsWith(header, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        } else if (startsWith(header, length, 0, 0x47, 0x49, 0x46, 0x38)) {           // GIF8
+            return "image/gif";
+        } else if (startsWith(header, length, 0, 0x42, 0x4D)) {                       // BM
+            return "image/bmp";
+        } else if (startsWith(header, length, 0, 0x52, 0x49, 0x46, 0x46)) {           // RIFF container
+            if (startsWith(header, length, 8, 0x57, 0x45, 0x42, 0x50)) {              // WEBP
+                return "image/webp";
+            } else if (startsWith(header, length, 8, 0x57, 0x41, 0x56, 0x45)) {       // WAVE
+                return "audio/wav";
+            } else if (startsWith(header, length, 8, 0x41, 0x56, 0x49, 0x20)) {       // AVI
+                return "video/x-msvideo";
+            }
+        } else if (startsWith(header, length, 4, 0x66, 0x74, 0x79, 0x70)) {           // ISO media: ftyp
+            if (startsWith(header, length, 8, 0x4D, 0x34, 0x41)) {                    // M4A brand
+                return "audio/mp4";
+            } else if (startsWith(header, length, 8, 0x71, 0x74)) {                   // qt brand
+                return "video/quicktime";
+            }
+            return "video/mp4";
+        } else if (startsWith(header, length, 0, 0x1A, 0x45, 0xDF, 0xA3)) {           // EBML
+            return "video/webm";
+        } else if (startsWith(header, length, 0, 0x49, 0x44, 0x33)                   // ID3
+                || (length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xE0) == 0xE0)) {
+            return "audio/mpeg";
+        } else if (startsWith(header, length, 0, 0x66, 0x4C, 0x61, 0x43)) {           // fLaC
+            return "audio/flac";
+        } else if (startsWith(header, length, 0, 0x4F, 0x67, 0x67, 0x53)) {           // OggS
+            return "audio/ogg";
+        } else if (startsWith(header, length, 0, 0x50, 0x4B, 0x03, 0x04)) {           // PK (also docx, apk, ...)
+            return "application/zip";
+        } else if (startsWith(header, length, 0, 0x52, 0x61, 0x72, 0x21)) {           // Rar!
+            return "application/x-rar-compressed";
+        } else if (startsWith(header, length, 0, 0x37, 0x7A, 0xBC, 0xAF, 0x27, 0x1C)) {
+            return "application/x-7z-compressed";
+        } else if (startsWith(header, length, 0, 0x1F, 0x8B)) {
+            return "application/gzip";
+        } else if (startsWith(header, length, 0, 0x4D, 0x5A)) {                       // MZ
+            return "application/x-msdownload";
+        }
+        
+        // Markup: skip leading whitespace, then look for a tag that only HTML starts with
+        String text = new String(header, 0, length, StandardCharsets.ISO_8859_1).trim().toLowerCase(Locale.US);
+        if (text.startsWith("<!doctype html") || text.startsWith("<html") || text.startsWith("<head")) {
+            return "text/html";
+        }
+        return null;
+    }
+    
+    private static boolean startsWith(byte[] header, int length, int offset, int... magic) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static FileTypeInfo fallbackType(String extension) {
+        String key = extension.toLowerCase(Locale.US);
+        FileTypeInfo info = fallbackTypes.get(key);
+        if (info == null) {
+            info = OTHER;
+            String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(key);
+            if (mimeType != null) {
+                if (mimeType.startsWith("image/")) {
+                    info = IMAGE;
+                } else if (mimeType.startsWith("video/")) {
+                    info = VIDEO;
+                } else if (mimeType.startsWith("audio/")) {
+                    info = AUDIO;
+                } else if (mimeType.startsWith("text/")) {
+                    info = TEXT;
+                }
+            }
+            if (info == OTHER) {
+                Log.d(TAG, "🤷 Unknown file type for extension: " + key);
+            }
+            fallbackTypes.put(key, info);
+        }
+        return info;
+    }
+    
+    // Index of the dot starting the extension of a file name or path, or -1
+    private static int extensionStart(String name) {
+        return name != null ? lastDot(name, name.length()) : -1;
+    }
+    
+    // End of the path part of a URL, before any query or fragment
+    private static int pathEnd(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+    
+    // Last dot in the final path segment of s[0, end) that is followed by a plausible extension
+    private static int lastDot(String s, int end) {
+        for (int i = end - 1; i >= 0 && end - i <= MAX_EXTENSION_LENGTH + 1; i--) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                return i < end - 1 ? i : -1;
+            }
+            if (c == '/') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    private static Entry lookup(String s, int start, int end) {
+        int length = end - start;
+        int index = slot(s, start, end);
+        String key;
+        while ((key = extensionKeys[index]) != null) {
+            if (key.length() == length && key.regionMatches(true, 0, s, start, length)) {
+                return extensionEntries[index];
+            }
+            index = (index + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+    
+    private static int slot(String s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(s.charAt(i));
+        }
+        return (hash ^ (hash >>> 16)) & (TABLE_SIZE - 1);
+    }
+    
+    private static final class Entry {
+        final String mimeType;
+        final FileTypeInfo info;
+        
+        Entry(String mimeType, FileTypeInfo info) {
+            this.mimeType = mimeType;
+            this.info = info;
+        }
+    }
+}
\ No newline at end of file
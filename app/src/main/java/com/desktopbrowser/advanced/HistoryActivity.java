@@ -3,31 +3,74 @@ package com.desktopbrowser.advanced;
 import android.app.AlertDialog;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
+import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class HistoryActivity extends AppCompatActivity {
     
-    private ListView historyListView;
+    private static final String TAG = "HistoryActivity";
+    
+    // Rows fetched per keyset page, and how close to the end we start fetching the next one
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 15;
+    
+    // Search runs after typing pauses, and shows at most this many ranked matches
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int SEARCH_RESULT_LIMIT = 200;
+    
+    // Today, Yesterday and Last week come from the day aggregates; anything older is keyset-paged
+    private static final int RECENT_DAYS = 7;
+    
+    private static final int VIEW_TYPE_HEADER = 0;
+    private static final int VIEW_TYPE_ITEM = 1;
+    
+    private RecyclerView historyRecyclerView;
+    private LinearLayoutManager layoutManager;
     private TextView emptyView;
     private HistoryManager historyManager;
-    private List<HistoryManager.HistoryItem> historyItems;
+    private FaviconManager faviconManager;
+    // Group header titles (String) interleaved with HistoryItems; search results have no headers
+    private List<Object> rows;
     private HistoryAdapter adapter;
     private AdManager adManager;
     
+    // Paging state - pages are read off the UI thread and appended on it
+    private ExecutorService pageLoader;
+    private Handler uiHandler;
+    private boolean isLoadingPage = false;
+    private boolean reachedEnd = false;
+    private int loadGeneration = 0;
+    private long olderBefore;
+    private HistoryManager.HistoryItem lastPagedItem;
+    private boolean hasOlderHeader = false;
+    private String currentQuery = "";
+    private Runnable pendingSearch;
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -61,40 +104,221 @@ public class HistoryActivity extends AppCompatActivity {
     }
     
     private void initializeViews() {
-        historyListView = findViewById(R.id.history_list_view);
+        historyRecyclerView = findViewById(R.id.history_recycler_view);
         emptyView = findViewById(R.id.empty_view);
         historyManager = HistoryManager.getInstance(this);
+        faviconManager = FaviconManager.getInstance(this);
+        rows = new ArrayList<>();
+        pageLoader = Executors.newSingleThreadExecutor();
+        uiHandler = new Handler(Looper.getMainLooper());
         
-        historyListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        layoutManager = new LinearLayoutManager(this);
+        historyRecyclerView.setLayoutManager(layoutManager);
+        historyRecyclerView.addItemDecoration(
+                new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        adapter = new HistoryAdapter();
+        historyRecyclerView.setAdapter(adapter);
+        
+        // Fetch the next page as the user approaches the end of what is loaded
+        historyRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                HistoryManager.HistoryItem item = historyItems.get(position);
-                openUrl(item.getUrl());
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0 || !currentQuery.isEmpty()) {
+                    return;
+                }
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= rows.size() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
             }
         });
+    }
+    
+    private void loadHistory() {
+        // Start over from the newest entry; any in-flight page from a previous load is discarded
+        loadGeneration++;
+        isLoadingPage = true;
+        reachedEnd = false;
+        lastPagedItem = null;
+        hasOlderHeader = false;
+        rows.clear();
+        adapter.notifyDataSetChanged();
         
-        historyListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
-            @Override
-            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-                HistoryManager.HistoryItem item = historyItems.get(position);
-                showDeleteDialog(item, position);
-                return true;
+        final int generation = loadGeneration;
+        final long today = HistoryManager.toLocalDay(System.currentTimeMillis());
+        pageLoader.execute(() -> {
+            Map<Long, List<HistoryManager.HistoryItem>> days;
+            try {
+                days = historyManager.getHistoryByDay(today - RECENT_DAYS + 1);
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error loading recent history", e);
+                days = new LinkedHashMap<>();
             }
+            final Map<Long, List<HistoryManager.HistoryItem>> result = days;
+            uiHandler.post(() -> onRecentLoaded(generation, today, result));
         });
     }
     
-    private void loadHistory() {
-        historyItems = historyManager.getAllHistory();
+    private void onRecentLoaded(int generation, long today, Map<Long, List<HistoryManager.HistoryItem>> days) {
+        if (isFinishing() || generation != loadGeneration) {
+            return;
+        }
+        
+        List<HistoryManager.HistoryItem> lastWeek = new ArrayList<>();
+        Map<String, HistoryManager.HistoryItem> lastWeekByUrl = new LinkedHashMap<>();
+        for (Map.Entry<Long, List<HistoryManager.HistoryItem>> entry : days.entrySet()) {
+            long day = entry.getKey();
+            if (day == today) {
+                addGroup("Today", entry.getValue());
+            } else if (day == today - 1) {
+                addGroup("Yesterday", entry.getValue());
+            } else {
+                // Days arrive newest first, so the first entry per URL carries its latest visit
+                for (HistoryManager.HistoryItem item : entry.getValue()) {
+                    HistoryManager.HistoryItem merged = lastWeekByUrl.get(item.getUrl());
+                    if (merged == null) {
+                        lastWeekByUrl.put(item.getUrl(), item);
+                        lastWeek.add(item);
+                    } else {
+                        merged.setVisitCount(merged.getVisitCount() + item.getVisitCount());
+                    }
+                }
+            }
+        }
+        addGroup("Last week", lastWeek);
+        adapter.notifyDataSetChanged();
+        
+        // Older entries are URLs not visited since the start of the recent window
+        Calendar windowStart = Calendar.getInstance();
+        windowStart.set(Calendar.HOUR_OF_DAY, 0);
+        windowStart.set(Calendar.MINUTE, 0);
+        windowStart.set(Calendar.SECOND, 0);
+        windowStart.set(Calendar.MILLISECOND, 0);
+        windowStart.add(Calendar.DAY_OF_YEAR, -(RECENT_DAYS - 1));
+        olderBefore = windowStart.getTimeInMillis();
+        
+        isLoadingPage = false;
+        loadNextPage();
+    }
+    
+    private void addGroup(String title, List<HistoryManager.HistoryItem> items) {
+        if (!items.isEmpty()) {
+            rows.add(title);
+            rows.addAll(items);
+        }
+    }
+    
+    private void loadNextPage() {
+        if (isLoadingPage || reachedEnd) {
+            return;
+        }
+        isLoadingPage = true;
+        
+        final int generation = loadGeneration;
+        final long beforeTimestamp;
+        final long beforeId;
+        if (lastPagedItem == null) {
+            beforeTimestamp = olderBefore;
+            beforeId = Long.MAX_VALUE;
+        } else {
+            beforeTimestamp = lastPagedItem.getTimestamp();
+            beforeId = lastPagedItem.getId();
+        }
+        
+        pageLoader.execute(() -> {
+            List<HistoryManager.HistoryItem> page;
+            try {
+                page = historyManager.getHistoryPage(beforeTimestamp, beforeId, PAGE_SIZE);
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error loading history page", e);
+                page = new ArrayList<>();
+            }
+            final List<HistoryManager.HistoryItem> result = page;
+            uiHandler.post(() -> onPageLoaded(generation, result));
+        });
+    }
+    
+    private void onPageLoaded(int generation, List<HistoryManager.HistoryItem> page) {
+        if (isFinishing() || generation != loadGeneration) {
+            return;
+        }
+        isLoadingPage = false;
+        
+        if (page.size() < PAGE_SIZE) {
+            reachedEnd = true;
+        }
+        if (!page.isEmpty()) {
+            int start = rows.size();
+            if (!hasOlderHeader) {
+                rows.add("Older");
+                hasOlderHeader = true;
+            }
+            rows.addAll(page);
+            lastPagedItem = page.get(page.size() - 1);
+            adapter.notifyItemRangeInserted(start, rows.size() - start);
+        }
+        updateEmptyState();
+    }
+    
+    private void onSearchQueryChanged(String query) {
+        String trimmed = query != null ? query.trim() : "";
+        if (trimmed.equals(currentQuery)) {
+            return;
+        }
+        currentQuery = trimmed;
+        
+        if (pendingSearch != null) {
+            uiHandler.removeCallbacks(pendingSearch);
+        }
+        if (trimmed.isEmpty()) {
+            loadHistory();
+            return;
+        }
+        pendingSearch = () -> runSearch(trimmed);
+        uiHandler.postDelayed(pendingSearch, SEARCH_DEBOUNCE_MS);
+    }
+    
+    private void runSearch(String query) {
+        // Search results replace the paged list; paging resumes once the query is cleared
+        loadGeneration++;
+        final int generation = loadGeneration;
+        isLoadingPage = true;
         
-        if (historyItems.isEmpty()) {
-            historyListView.setVisibility(View.GONE);
+        pageLoader.execute(() -> {
+            List<HistoryManager.HistoryItem> results;
+            try {
+                results = historyManager.search(query, SEARCH_RESULT_LIMIT);
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error searching history", e);
+                results = new ArrayList<>();
+            }
+            final List<HistoryManager.HistoryItem> matches = results;
+            uiHandler.post(() -> onSearchResults(generation, matches));
+        });
+    }
+    
+    private void onSearchResults(int generation, List<HistoryManager.HistoryItem> results) {
+        if (isFinishing() || generation != loadGeneration) {
+            return;
+        }
+        isLoadingPage = false;
+        reachedEnd = true;
+        rows.clear();
+        rows.addAll(results);
+        adapter.notifyDataSetChanged();
+        updateEmptyState();
+    }
+    
+    private void updateEmptyState() {
+        if (rows.isEmpty()) {
+            historyRecyclerView.setVisibility(View.GONE);
             emptyView.setVisibility(View.VISIBLE);
+            emptyView.setText(currentQuery.isEmpty()
+                    ? "No browsing history\n\nStart browsing to see your history here"
+                    : "No history matches \"" + currentQuery + "\"");
         } else {
-            historyListView.setVisibility(View.VISIBLE);
+            historyRecyclerView.setVisibility(View.VISIBLE);
             emptyView.setVisibility(View.GONE);
-            
-            adapter = new HistoryAdapter();
-            historyListView.setAdapter(adapter);
         }
     }
     
@@ -104,19 +328,17 @@ public class HistoryActivity extends AppCompatActivity {
         startActivity(intent);
     }
     
-    private void showDeleteDialog(HistoryManager.HistoryItem item, int position) {
+    private void showDeleteDialog(HistoryManager.HistoryItem item) {
         new AlertDialog.Builder(this)
                 .setTitle("Delete History Item")
                 .setMessage("Remove \"" + item.getTitle() + "\" from history?")
                 .setPositiveButton("Delete", (dialog, which) -> {
-                    historyManager.removeHistoryItem(item.getId());
-                    historyItems.remove(position);
-                    adapter.notifyDataSetChanged();
-                    
-                    if (historyItems.isEmpty()) {
-                        historyListView.setVisibility(View.GONE);
-                        emptyView.setVisibility(View.VISIBLE);
+                    if (!historyManager.removeHistoryUrl(item.getUrl())) {
+                        Toast.makeText(this, "History is busy - try again", Toast.LENGTH_SHORT).show();
+                        return;
                     }
+                    removeUrlRows(item.getUrl());
+                    updateEmptyState();
                     
                     Toast.makeText(this, "History item deleted", Toast.LENGTH_SHORT).show();
                 })
@@ -124,9 +346,51 @@ public class HistoryActivity extends AppCompatActivity {
                 .show();
     }
     
+    // A URL can appear under several days; drop every row for it and any header left empty
+    private void removeUrlRows(String url) {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            Object row = rows.get(i);
+            if (row instanceof HistoryManager.HistoryItem
+                    && url.equals(((HistoryManager.HistoryItem) row).getUrl())) {
+                rows.remove(i);
+                adapter.notifyItemRemoved(i);
+            }
+        }
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            boolean nextIsItem = i + 1 < rows.size() && rows.get(i + 1) instanceof HistoryManager.HistoryItem;
+            if (rows.get(i) instanceof String && !nextIsItem) {
+                if ("Older".equals(rows.get(i))) {
+                    hasOlderHeader = false;
+                }
+                rows.remove(i);
+                adapter.notifyItemRemoved(i);
+            }
+        }
+    }
+    
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.history_menu, menu);
+        
+        MenuItem searchItem = menu.findItem(R.id.action_search_history);
+        if (searchItem != null) {
+            SearchView searchView = (SearchView) searchItem.getActionView();
+            searchView.setQueryHint("Search titles and URLs");
+            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+                @Override
+                public boolean onQueryTextSubmit(String query) {
+                    onSearchQueryChanged(query);
+                    searchView.clearFocus();
+                    return true;
+                }
+                
+                @Override
+                public boolean onQueryTextChange(String newText) {
+                    onSearchQueryChanged(newText);
+                    return true;
+                }
+            });
+        }
         return true;
     }
     
@@ -150,53 +414,112 @@ public class HistoryActivity extends AppCompatActivity {
                 .setTitle("Clear All History")
                 .setMessage("This will remove all browsing history. This action cannot be undone.")
                 .setPositiveButton("Clear All", (dialog, which) -> {
-                    historyManager.clearHistory();
-                    historyItems.clear();
-                    if (adapter != null) {
-                        adapter.notifyDataSetChanged();
+                    if (!historyManager.clearHistory()) {
+                        Toast.makeText(this, "History is busy - try again", Toast.LENGTH_SHORT).show();
+                        return;
                     }
-                    historyListView.setVisibility(View.GONE);
-                    emptyView.setVisibility(View.VISIBLE);
+                    loadGeneration++;
+                    reachedEnd = true;
+                    rows.clear();
+                    adapter.notifyDataSetChanged();
+                    updateEmptyState();
                     Toast.makeText(this, "History cleared", Toast.LENGTH_SHORT).show();
                 })
                 .setNegativeButton("Cancel", null)
                 .show();
     }
     
-    private class HistoryAdapter extends ArrayAdapter<HistoryManager.HistoryItem> {
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pendingSearch != null) {
+            uiHandler.removeCallbacks(pendingSearch);
+        }
+        if (pageLoader != null) {
+            pageLoader.shutdownNow();
+        }
+    }
+    
+    private class HistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         
-        public HistoryAdapter() {
-            super(HistoryActivity.this, R.layout.item_history, historyItems);
+        private final SimpleDateFormat dateFormat =
+                new SimpleDateFormat("MMM dd, yyyy - HH:mm", Locale.getDefault());
+        
+        @Override
+        public int getItemViewType(int position) {
+            return rows.get(position) instanceof String ? VIEW_TYPE_HEADER : VIEW_TYPE_ITEM;
         }
         
+        @NonNull
         @Override
-        public View getView(int position, View convertView, android.view.ViewGroup parent) {
-            View view = convertView;
-            if (view == null) {
-                view = getLayoutInflater().inflate(R.layout.item_history, parent, false);
+        public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            if (viewType == VIEW_TYPE_HEADER) {
+                View view = getLayoutInflater().inflate(R.layout.item_history_header, parent, false);
+                return new HeaderViewHolder(view);
+            }
+            View view = getLayoutInflater().inflate(R.layout.item_history, parent, false);
+            return new HistoryViewHolder(view);
+        }
+        
+        @Override
+        public void onBindViewHolder(@NonNull RecyclerView.ViewHolder viewHolder, int position) {
+            Object row = rows.get(position);
+            if (row instanceof String) {
+                ((HeaderViewHolder) viewHolder).titleView.setText((String) row);
+                return;
             }
             
-            HistoryManager.HistoryItem item = historyItems.get(position);
-            
-            TextView titleView = view.findViewById(R.id.history_title);
-            TextView urlView = view.findViewById(R.id.history_url);
-            TextView timeView = view.findViewById(R.id.history_time);
-            TextView visitCountView = view.findViewById(R.id.visit_count);
-            
-            titleView.setText(item.getTitle());
-            urlView.setText(item.getUrl());
+            HistoryManager.HistoryItem item = (HistoryManager.HistoryItem) row;
+            HistoryViewHolder holder = (HistoryViewHolder) viewHolder;
             
-            SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy - HH:mm", Locale.getDefault());
-            timeView.setText(sdf.format(new Date(item.getTimestamp())));
+            faviconManager.loadInto(holder.iconView, item.getUrl(), R.drawable.ic_history);
+            holder.titleView.setText(item.getTitle());
+            holder.urlView.setText(item.getUrl());
+            holder.timeView.setText(dateFormat.format(new Date(item.getTimestamp())));
             
             if (item.getVisitCount() > 1) {
-                visitCountView.setText(item.getVisitCount() + " visits");
-                visitCountView.setVisibility(View.VISIBLE);
+                holder.visitCountView.setText(item.getVisitCount() + " visits");
+                holder.visitCountView.setVisibility(View.VISIBLE);
             } else {
-                visitCountView.setVisibility(View.GONE);
+                holder.visitCountView.setVisibility(View.GONE);
             }
             
-            return view;
+            holder.itemView.setOnClickListener(v -> openUrl(item.getUrl()));
+            holder.itemView.setOnLongClickListener(v -> {
+                showDeleteDialog(item);
+                return true;
+            });
+        }
+        
+        @Override
+        public int getItemCount() {
+            return rows.size();
+        }
+    }
+    
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        TextView titleView;
+        
+        HeaderViewHolder(@NonNull View itemView) {
+            super(itemView);
+            titleView = itemView.findViewById(R.id.history_header);
+        }
+    }
+    
+    static class HistoryViewHolder extends RecyclerView.ViewHolder {
+        ImageView iconView;
+        TextView titleView;
+        TextView urlView;
+        TextView timeView;
+        TextView visitCountView;
+        
+        HistoryViewHolder(@NonNull View itemView) {
+            super(itemView);
+            iconView = itemView.findViewById(R.id.history_icon);
+            titleView = itemView.findViewById(R.id.history_title);
+            urlView = itemView.findViewById(R.id.history_url);
+            timeView = itemView.findViewById(R.id.history_time);
+            visitCountView = itemView.findViewById(R.id.visit_count);
         }
     }
 }
\ No newline at end of file
@@ -3,15 +3,34 @@ package com.desktopbrowser.advanced;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class HistoryManager extends SQLiteOpenHelper {
     
+    private static final String TAG = "HistoryManager";
     private static final String DATABASE_NAME = "history.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 4;
     
     private static final String TABLE_HISTORY = "history";
     private static final String COLUMN_ID = "id";
@@ -20,10 +39,123 @@ public class HistoryManager extends SQLiteOpenHelper {
     private static final String COLUMN_TIMESTAMP = "timestamp";
     private static final String COLUMN_VISIT_COUNT = "visit_count";
     
+    private static final String INDEX_HISTORY_URL = "idx_history_url";
+    private static final String INDEX_HISTORY_TIMESTAMP = "idx_history_timestamp";
+    
+    // Append-only log with one row per visit; history keeps the per-URL summary
+    private static final String TABLE_VISITS = "visits";
+    private static final String COLUMN_URL_ID = "url_id";
+    private static final String COLUMN_VISIT_TIME = "visit_time";
+    private static final String COLUMN_TRANSITION = "transition";
+    private static final String COLUMN_REFERRER = "referrer";
+    
+    // Per-day aggregates of the visit log, maintained on write so day-grouped views need no GROUP BY
+    private static final String TABLE_VISIT_DAYS = "visit_days";
+    private static final String COLUMN_DAY = "day";
+    private static final String COLUMN_LAST_VISIT = "last_visit";
+    
+    private static final String INDEX_VISITS_TIME = "idx_visits_time";
+    private static final String INDEX_VISITS_URL = "idx_visits_url";
+    private static final String INDEX_VISIT_DAYS_DAY = "idx_visit_days_day";
+    private static final String INDEX_VISIT_DAYS_URL = "idx_visit_days_url";
+    
+    // How a visit started, stored in visits.transition
+    public static final int TRANSITION_LINK = 0;
+    public static final int TRANSITION_TYPED = 1;
+    public static final int TRANSITION_RELOAD = 2;
+    
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+    
+    // External-content FTS4 index over history titles and URLs, kept in sync by triggers
+    private static final String TABLE_HISTORY_FTS = "history_fts";
+    
+    private static final String UPSERT_HISTORY_SQL = "INSERT INTO " + TABLE_HISTORY + " ("
+            + COLUMN_TITLE + ", " + COLUMN_URL + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_VISIT_COUNT + ")"
+            + " VALUES (?, ?, ?, ?)"
+            + " ON CONFLICT(" + COLUMN_URL + ") DO UPDATE SET "
+            + COLUMN_TITLE + " = excluded." + COLUMN_TITLE + ", "
+            + COLUMN_TIMESTAMP + " = excluded." + COLUMN_TIMESTAMP + ", "
+            + COLUMN_VISIT_COUNT + " = " + COLUMN_VISIT_COUNT + " + excluded." + COLUMN_VISIT_COUNT;
+    
+    private static final String UPDATE_HISTORY_SQL = "UPDATE " + TABLE_HISTORY + " SET "
+            + COLUMN_TITLE + " = ?, "
+            + COLUMN_TIMESTAMP + " = ?, "
+            + COLUMN_VISIT_COUNT + " = " + COLUMN_VISIT_COUNT + " + ?"
+            + " WHERE " + COLUMN_URL + " = ?";
+    
+    private static final String SELECT_URL_ID_SQL = "SELECT " + COLUMN_ID + " FROM " + TABLE_HISTORY
+            + " WHERE " + COLUMN_URL + " = ?";
+    
+    private static final String INSERT_VISIT_SQL = "INSERT INTO " + TABLE_VISITS + " ("
+            + COLUMN_URL_ID + ", " + COLUMN_VISIT_TIME + ", " + COLUMN_TRANSITION + ", " + COLUMN_REFERRER + ")"
+            + " VALUES (?, ?, ?, ?)";
+    
+    private static final String UPDATE_VISIT_DAY_SQL = "UPDATE " + TABLE_VISIT_DAYS + " SET "
+            + COLUMN_VISIT_COUNT + " = " + COLUMN_VISIT_COUNT + " + 1, "
+            + COLUMN_LAST_VISIT + " = MAX(" + COLUMN_LAST_VISIT + ", ?)"
+            + " WHERE " + COLUMN_DAY + " = ? AND " + COLUMN_URL_ID + " = ?";
+    
+    private static final String INSERT_VISIT_DAY_SQL = "INSERT INTO " + TABLE_VISIT_DAYS + " ("
+            + COLUMN_DAY + ", " + COLUMN_URL_ID + ", " + COLUMN_VISIT_COUNT + ", " + COLUMN_LAST_VISIT + ")"
+            + " VALUES (?, ?, 1, ?)";
+    
+    // Pending history writes beyond this are dropped instead of blocking page loads
+    private static final int WRITE_QUEUE_CAPACITY = 256;
+    
+    // Write-behind buffer: visits are flushed after this delay or once this many URLs are pending
+    private static final long FLUSH_INTERVAL_MS = 5000;
+    private static final int FLUSH_THRESHOLD = 20;
+    
+    // Retention pruning: first run shortly after startup, then periodically; each batch is its own writer task
+    private static final long PRUNE_INITIAL_DELAY_MS = 30 * 1000;
+    private static final long PRUNE_INTERVAL_MS = 6 * 60 * 60 * 1000;
+    private static final int PRUNE_BATCH_SIZE = 200;
+    private static final int VACUUM_PAGES_PER_STEP = 128;
+    
+    private static final Comparator<HistoryItem> NEWEST_FIRST = (a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp());
+    private static final Comparator<HistoryItem> MOST_VISITED_FIRST = (a, b) -> a.getVisitCount() != b.getVisitCount()
+            ? Integer.compare(b.getVisitCount(), a.getVisitCount())
+            : Long.compare(b.getTimestamp(), a.getTimestamp());
+    
     private static HistoryManager instance;
     
+    // Visits not yet committed, keyed by URL so redirects and auto-refreshes coalesce into one row write
+    private final Object pendingLock = new Object();
+    private Map<String, PendingVisit> pendingVisits = new LinkedHashMap<>();
+    private final List<Map<String, PendingVisit>> flushingVisits = new ArrayList<>();
+    private final Handler flushHandler = new Handler(Looper.getMainLooper());
+    private final Runnable scheduledFlush = this::flushPendingVisits;
+    private boolean flushScheduled = false;
+    
+    private volatile RetentionPolicy retentionPolicy = RetentionPolicy.DEFAULT;
+    private final Runnable scheduledPrune = this::startPruning;
+    private boolean pruneRunning = false;
+    // Set once the one-time auto_vacuum conversion has been queued
+    private boolean vacuumConversionQueued = false;
+    private boolean prunedAnything = false;
+    
+    // In-memory consumers of history changes (e.g. SuggestionEngine); called on the caller's thread
+    private final List<HistoryListener> listeners = new CopyOnWriteArrayList<>();
+    
+    // Single writer thread; the database handle stays open for the life of the process
+    private final ThreadPoolExecutor writeExecutor;
+    
     private HistoryManager(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        
+        // WAL lets readers (HistoryActivity) run while the writer thread commits
+        setWriteAheadLoggingEnabled(true);
+        
+        writeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(WRITE_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "HistoryWriter");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        
+        flushHandler.postDelayed(scheduledPrune, PRUNE_INITIAL_DELAY_MS);
     }
     
     public static synchronized HistoryManager getInstance(Context context) {
@@ -33,6 +165,16 @@ public class HistoryManager extends SQLiteOpenHelper {
         return instance;
     }
     
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Lets pruning hand freed pages back to the filesystem a few at a time (takes effect for new databases;
+        // existing ones are converted once by convertWhenIdle())
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        // Visit rows and day aggregates cascade away with their history row
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+    
     @Override
     public void onCreate(SQLiteDatabase db) {
         String createTable = "CREATE TABLE " + TABLE_HISTORY + "("
@@ -43,57 +185,631 @@ public class HistoryManager extends SQLiteOpenHelper {
                 + COLUMN_VISIT_COUNT + " INTEGER DEFAULT 1"
                 + ")";
         db.execSQL(createTable);
+        createHistoryIndexes(db);
+        createHistorySearchIndex(db);
+        createVisitTables(db);
     }
     
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_HISTORY);
-        onCreate(db);
+        // Step through each schema version so existing history is preserved
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            upgradeToVersion3(db);
+        }
+        if (oldVersion < 4) {
+            upgradeToVersion4(db);
+        }
+    }
+    
+    // Version 2: UNIQUE index on url (for upsert) and index on timestamp (for ordering)
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        // Collapse any duplicate URLs left by the old check-then-insert path. The most recently visited row
+        // of each URL is kept (so it already has the latest timestamp) and takes the visit counts of the
+        // others before they are deleted.
+        String sameUrl = " FROM " + TABLE_HISTORY + " dup WHERE dup." + COLUMN_URL + " = " + TABLE_HISTORY + "." + COLUMN_URL;
+        String isKept = COLUMN_ID + " = (SELECT dup." + COLUMN_ID + sameUrl
+                + " ORDER BY dup." + COLUMN_TIMESTAMP + " DESC, dup." + COLUMN_ID + " DESC LIMIT 1)";
+        db.execSQL("UPDATE " + TABLE_HISTORY + " SET "
+                + COLUMN_VISIT_COUNT + " = (SELECT SUM(dup." + COLUMN_VISIT_COUNT + ")" + sameUrl + ")"
+                + " WHERE " + isKept + " AND " + COLUMN_URL + " IN (SELECT " + COLUMN_URL + " FROM " + TABLE_HISTORY
+                + " GROUP BY " + COLUMN_URL + " HAVING COUNT(*) > 1)");
+        db.execSQL("DELETE FROM " + TABLE_HISTORY + " WHERE NOT (" + isKept + ")");
+        createHistoryIndexes(db);
+        Log.d(TAG, "✅ History schema upgraded to version 2");
+    }
+    
+    // Version 3: full-text search index, populated from the existing rows
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        createHistorySearchIndex(db);
+        db.execSQL("INSERT INTO " + TABLE_HISTORY_FTS + "(" + TABLE_HISTORY_FTS + ") VALUES('rebuild')");
+        Log.d(TAG, "✅ History schema upgraded to version 3");
+    }
+    
+    // Version 4: per-visit log and day aggregates. Earlier visits were never recorded individually,
+    // so each existing row is backfilled as a single visit at its last timestamp.
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        createVisitTables(db);
+        db.execSQL("INSERT INTO " + TABLE_VISITS + " (" + COLUMN_URL_ID + ", " + COLUMN_VISIT_TIME + ", "
+                + COLUMN_TRANSITION + ") SELECT " + COLUMN_ID + ", " + COLUMN_TIMESTAMP + ", " + TRANSITION_LINK
+                + " FROM " + TABLE_HISTORY);
+        // Day boundaries use the current UTC offset; good enough for a one-time backfill
+        long offset = TimeZone.getDefault().getOffset(System.currentTimeMillis());
+        db.execSQL("INSERT INTO " + TABLE_VISIT_DAYS + " (" + COLUMN_DAY + ", " + COLUMN_URL_ID + ", "
+                + COLUMN_VISIT_COUNT + ", " + COLUMN_LAST_VISIT + ") SELECT (" + COLUMN_TIMESTAMP + " + " + offset
+                + ") / " + DAY_MS + ", " + COLUMN_ID + ", 1, " + COLUMN_TIMESTAMP + " FROM " + TABLE_HISTORY);
+        Log.d(TAG, "✅ History schema upgraded to version 4");
+    }
+    
+    private void createHistoryIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_HISTORY_URL
+                + " ON " + TABLE_HISTORY + "(" + COLUMN_URL + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_HISTORY_TIMESTAMP
+                + " ON " + TABLE_HISTORY + "(" + COLUMN_TIMESTAMP + ")");
+    }
+    
+    private void createVisitTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_VISITS + "("
+                + COLUMN_ID + " INTEGER PRIMARY KEY,"
+                + COLUMN_URL_ID + " INTEGER NOT NULL REFERENCES " + TABLE_HISTORY + "(" + COLUMN_ID + ") ON DELETE CASCADE,"
+                + COLUMN_VISIT_TIME + " INTEGER NOT NULL,"
+                + COLUMN_TRANSITION + " INTEGER NOT NULL DEFAULT " + TRANSITION_LINK + ","
+                + COLUMN_REFERRER + " TEXT"
+                + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_VISITS_TIME
+                + " ON " + TABLE_VISITS + "(" + COLUMN_VISIT_TIME + ")");
+        // Needed by the cascade, otherwise every history delete scans the visit log
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_VISITS_URL
+                + " ON " + TABLE_VISITS + "(" + COLUMN_URL_ID + ")");
+        
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_VISIT_DAYS + "("
+                + COLUMN_DAY + " INTEGER NOT NULL,"
+                + COLUMN_URL_ID + " INTEGER NOT NULL REFERENCES " + TABLE_HISTORY + "(" + COLUMN_ID + ") ON DELETE CASCADE,"
+                + COLUMN_VISIT_COUNT + " INTEGER NOT NULL,"
+                + COLUMN_LAST_VISIT + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + COLUMN_DAY + ", " + COLUMN_URL_ID + ")"
+                + ")");
+        // Covers the day-range query and its ORDER BY, so grouped views read rows in display order
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_VISIT_DAYS_DAY
+                + " ON " + TABLE_VISIT_DAYS + "(" + COLUMN_DAY + ", " + COLUMN_LAST_VISIT + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_VISIT_DAYS_URL
+                + " ON " + TABLE_VISIT_DAYS + "(" + COLUMN_URL_ID + ")");
+    }
+    
+    // Days since the epoch in the device's local time zone, as stored in visit_days.day
+    public static long toLocalDay(long timeMs) {
+        return (timeMs + TimeZone.getDefault().getOffset(timeMs)) / DAY_MS;
+    }
+    
+    // FTS4 rather than FTS5: FTS5 is not compiled into the platform SQLite on older devices.
+    // prefix="2,3" adds prefix indexes so short type-ahead queries do not scan the term list.
+    private void createHistorySearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_HISTORY_FTS + " USING fts4("
+                + "content=\"" + TABLE_HISTORY + "\", "
+                + COLUMN_TITLE + ", " + COLUMN_URL + ", prefix=\"2,3\")");
+        
+        // Visit-count bumps leave title and url alone, so only real text changes touch the index
+        String textChanged = " WHEN old." + COLUMN_TITLE + " IS NOT new." + COLUMN_TITLE
+                + " OR old." + COLUMN_URL + " IS NOT new." + COLUMN_URL;
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS history_fts_ai AFTER INSERT ON " + TABLE_HISTORY + " BEGIN "
+                + "INSERT INTO " + TABLE_HISTORY_FTS + "(docid, " + COLUMN_TITLE + ", " + COLUMN_URL + ") "
+                + "VALUES (new." + COLUMN_ID + ", new." + COLUMN_TITLE + ", new." + COLUMN_URL + "); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS history_fts_bd BEFORE DELETE ON " + TABLE_HISTORY + " BEGIN "
+                + "DELETE FROM " + TABLE_HISTORY_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS history_fts_bu BEFORE UPDATE ON " + TABLE_HISTORY + textChanged + " BEGIN "
+                + "DELETE FROM " + TABLE_HISTORY_FTS + " WHERE docid = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS history_fts_au AFTER UPDATE ON " + TABLE_HISTORY + textChanged + " BEGIN "
+                + "INSERT INTO " + TABLE_HISTORY_FTS + "(docid, " + COLUMN_TITLE + ", " + COLUMN_URL + ") "
+                + "VALUES (new." + COLUMN_ID + ", new." + COLUMN_TITLE + ", new." + COLUMN_URL + "); END");
     }
     
     public void addHistoryItem(String title, String url) {
-        SQLiteDatabase db = this.getWritableDatabase();
+        addHistoryItem(title, url, TRANSITION_LINK, null);
+    }
+    
+    // Visits are buffered and coalesced per URL, then written in one transaction.
+    // The per-URL row is written once per batch; each visit still gets its own log row.
+    public void addHistoryItem(String title, String url, int transition, String referrer) {
+        long timestamp = System.currentTimeMillis();
+        int pendingCount;
         
-        // Check if URL already exists
-        String checkQuery = "SELECT " + COLUMN_ID + ", " + COLUMN_VISIT_COUNT + 
-                           " FROM " + TABLE_HISTORY + " WHERE " + COLUMN_URL + " = ?";
-        Cursor cursor = db.rawQuery(checkQuery, new String[]{url});
+        synchronized (pendingLock) {
+            PendingVisit visit = pendingVisits.get(url);
+            if (visit == null) {
+                visit = new PendingVisit(url);
+                pendingVisits.put(url, visit);
+            }
+            visit.title = title;
+            visit.timestamp = timestamp;
+            visit.count++;
+            visit.records.add(new VisitRecord(timestamp, transition, referrer));
+            pendingCount = pendingVisits.size();
+        }
         
-        if (cursor.moveToFirst()) {
-            // Update existing entry
-            int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
-            int visitCountIndex = cursor.getColumnIndexOrThrow(COLUMN_VISIT_COUNT);
-            
-            long id = cursor.getLong(idIndex);
-            int visitCount = cursor.getInt(visitCountIndex) + 1;
-            
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_TITLE, title);
-            values.put(COLUMN_TIMESTAMP, System.currentTimeMillis());
-            values.put(COLUMN_VISIT_COUNT, visitCount);
-            
-            db.update(TABLE_HISTORY, values, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+        for (HistoryListener listener : listeners) {
+            listener.onVisitRecorded(title, url, timestamp);
+        }
+        
+        if (pendingCount >= FLUSH_THRESHOLD) {
+            flushPendingVisits();
         } else {
-            // Insert new entry
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_TITLE, title);
-            values.put(COLUMN_URL, url);
-            values.put(COLUMN_TIMESTAMP, System.currentTimeMillis());
-            values.put(COLUMN_VISIT_COUNT, 1);
-            
-            db.insert(TABLE_HISTORY, null, values);
+            scheduleFlush();
+        }
+    }
+    
+    private void scheduleFlush() {
+        synchronized (pendingLock) {
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        flushHandler.postDelayed(scheduledFlush, FLUSH_INTERVAL_MS);
+    }
+    
+    // Hands all buffered visits to the writer thread; called on a timer, at the size threshold and from onPause
+    public void flushPendingVisits() {
+        final Map<String, PendingVisit> batch;
+        
+        synchronized (pendingLock) {
+            flushScheduled = false;
+            if (pendingVisits.isEmpty()) {
+                return;
+            }
+            if (writeExecutor.getQueue().remainingCapacity() == 0) {
+                // Writer is backed up - keep buffering rather than losing the batch
+                Log.w(TAG, "History writer busy - deferring flush of " + pendingVisits.size() + " visits");
+                flushScheduled = true;
+                flushHandler.postDelayed(scheduledFlush, FLUSH_INTERVAL_MS);
+                return;
+            }
+            batch = pendingVisits;
+            pendingVisits = new LinkedHashMap<>();
+            flushingVisits.add(batch);
         }
+        flushHandler.removeCallbacks(scheduledFlush);
         
-        cursor.close();
-        db.close();
+        boolean accepted = submitWrite(() -> {
+            try {
+                writeVisitBatch(batch.values());
+            } finally {
+                synchronized (pendingLock) {
+                    flushingVisits.remove(batch);
+                }
+            }
+        });
+        if (!accepted) {
+            // Another write took the last slot since the check above; put the batch back in front of
+            // the visits buffered since and try again later
+            synchronized (pendingLock) {
+                flushingVisits.remove(batch);
+                restorePendingVisits(batch);
+            }
+        }
+    }
+    
+    private void writeVisitBatch(Collection<PendingVisit> visits) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        boolean hasUpsert = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+        SQLiteStatement statement = db.compileStatement(hasUpsert ? UPSERT_HISTORY_SQL : UPDATE_HISTORY_SQL);
+        SQLiteStatement selectUrlId = db.compileStatement(SELECT_URL_ID_SQL);
+        SQLiteStatement insertVisit = db.compileStatement(INSERT_VISIT_SQL);
+        SQLiteStatement updateDay = db.compileStatement(UPDATE_VISIT_DAY_SQL);
+        SQLiteStatement insertDay = db.compileStatement(INSERT_VISIT_DAY_SQL);
+        
+        db.beginTransaction();
+        try {
+            for (PendingVisit visit : visits) {
+                if (hasUpsert) {
+                    writeVisitWithUpsert(statement, visit);
+                } else {
+                    writeVisitWithUpdate(db, statement, visit);
+                }
+                
+                selectUrlId.bindString(1, visit.url);
+                long urlId = selectUrlId.simpleQueryForLong();
+                for (VisitRecord record : visit.records) {
+                    writeVisitLog(insertVisit, updateDay, insertDay, urlId, record);
+                }
+            }
+            db.setTransactionSuccessful();
+            Log.d(TAG, "✅ Flushed " + visits.size() + " history visits");
+        } finally {
+            db.endTransaction();
+            statement.close();
+            selectUrlId.close();
+            insertVisit.close();
+            updateDay.close();
+            insertDay.close();
+        }
+    }
+    
+    // Appends the visit and bumps its day aggregate; the (day, url_id) primary key makes the UPDATE one probe
+    private void writeVisitLog(SQLiteStatement insertVisit, SQLiteStatement updateDay, SQLiteStatement insertDay,
+                               long urlId, VisitRecord record) {
+        insertVisit.clearBindings();
+        insertVisit.bindLong(1, urlId);
+        insertVisit.bindLong(2, record.time);
+        insertVisit.bindLong(3, record.transition);
+        if (record.referrer != null) {
+            insertVisit.bindString(4, record.referrer);
+        }
+        insertVisit.executeInsert();
+        
+        long day = toLocalDay(record.time);
+        updateDay.bindLong(1, record.time);
+        updateDay.bindLong(2, day);
+        updateDay.bindLong(3, urlId);
+        if (updateDay.executeUpdateDelete() > 0) {
+            return;
+        }
+        insertDay.bindLong(1, day);
+        insertDay.bindLong(2, urlId);
+        insertDay.bindLong(3, record.time);
+        insertDay.executeInsert();
+    }
+    
+    // Platform SQLite >= 3.28 supports UPSERT: one statement, one index probe
+    private void writeVisitWithUpsert(SQLiteStatement upsert, PendingVisit visit) {
+        upsert.clearBindings();
+        upsert.bindString(1, visit.title);
+        upsert.bindString(2, visit.url);
+        upsert.bindLong(3, visit.timestamp);
+        upsert.bindLong(4, visit.count);
+        upsert.executeInsert();
+    }
+    
+    // Older SQLite has no UPSERT: try the indexed UPDATE first and INSERT only on a miss
+    private void writeVisitWithUpdate(SQLiteDatabase db, SQLiteStatement update, PendingVisit visit) {
+        update.clearBindings();
+        update.bindString(1, visit.title);
+        update.bindLong(2, visit.timestamp);
+        update.bindLong(3, visit.count);
+        update.bindString(4, visit.url);
+        if (update.executeUpdateDelete() > 0) {
+            return;
+        }
+        
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TITLE, visit.title);
+        values.put(COLUMN_URL, visit.url);
+        values.put(COLUMN_TIMESTAMP, visit.timestamp);
+        values.put(COLUMN_VISIT_COUNT, visit.count);
+        db.insert(TABLE_HISTORY, null, values);
+    }
+    
+    // Merged view of visits not yet committed: both the open buffer and batches queued on the writer
+    private Map<String, PendingVisit> snapshotPendingVisits() {
+        Map<String, PendingVisit> snapshot = new LinkedHashMap<>();
+        synchronized (pendingLock) {
+            for (Map<String, PendingVisit> batch : flushingVisits) {
+                mergePendingVisits(snapshot, batch);
+            }
+            mergePendingVisits(snapshot, pendingVisits);
+        }
+        return snapshot;
+    }
+    
+    private static void mergePendingVisits(Map<String, PendingVisit> target, Map<String, PendingVisit> source) {
+        for (PendingVisit visit : source.values()) {
+            PendingVisit merged = target.get(visit.url);
+            if (merged == null) {
+                merged = new PendingVisit(visit.url);
+                target.put(visit.url, merged);
+            }
+            merged.title = visit.title;
+            merged.timestamp = Math.max(merged.timestamp, visit.timestamp);
+            merged.count += visit.count;
+            merged.records.addAll(visit.records);
+        }
+    }
+    
+    // Applies uncommitted visits on top of rows read from the database
+    private List<HistoryItem> overlayPendingVisits(Map<String, PendingVisit> pending, Map<String, HistoryItem> storedByUrl) {
+        List<HistoryItem> items = new ArrayList<>(pending.size());
+        for (PendingVisit visit : pending.values()) {
+            HistoryItem item = new HistoryItem();
+            HistoryItem stored = storedByUrl.get(visit.url);
+            item.setId(stored != null ? stored.getId() : 0);
+            item.setTitle(visit.title);
+            item.setUrl(visit.url);
+            item.setTimestamp(visit.timestamp);
+            item.setVisitCount((stored != null ? stored.getVisitCount() : 0) + visit.count);
+            items.add(item);
+        }
+        Collections.sort(items, NEWEST_FIRST);
+        return items;
     }
     
     public List<HistoryItem> getAllHistory() {
-        List<HistoryItem> history = new ArrayList<>();
+        Map<String, PendingVisit> pending = snapshotPendingVisits();
         String selectQuery = "SELECT * FROM " + TABLE_HISTORY + " ORDER BY " + COLUMN_TIMESTAMP + " DESC";
         
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.rawQuery(selectQuery, null);
+        List<HistoryItem> stored;
+        try {
+            stored = readHistoryItems(cursor);
+        } finally {
+            cursor.close();
+        }
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        
+        Map<String, HistoryItem> storedByUrl = new HashMap<>();
+        List<HistoryItem> history = new ArrayList<>(stored.size() + pending.size());
+        for (HistoryItem item : stored) {
+            if (pending.containsKey(item.getUrl())) {
+                storedByUrl.put(item.getUrl(), item);
+            } else {
+                history.add(item);
+            }
+        }
+        history.addAll(overlayPendingVisits(pending, storedByUrl));
+        Collections.sort(history, NEWEST_FIRST);
+        return history;
+    }
+    
+    // Keyset page: the newest `limit` entries strictly older than beforeTimestamp
+    public List<HistoryItem> getHistoryPage(long beforeTimestamp, int limit) {
+        return getHistoryPage(beforeTimestamp, Long.MAX_VALUE, limit);
+    }
+    
+    // Keyset page ordered by (timestamp, id) so rows sharing a timestamp are neither skipped nor repeated.
+    // Pass the timestamp and id of the last item of the previous page; Long.MAX_VALUE for the first page.
+    // Buffered visits are always the newest, so they lead the first page and their stored rows are skipped.
+    public List<HistoryItem> getHistoryPage(long beforeTimestamp, long beforeId, int limit) {
+        Map<String, PendingVisit> pending = snapshotPendingVisits();
+        List<HistoryItem> page = new ArrayList<>(limit);
+        
+        if (beforeTimestamp == Long.MAX_VALUE && !pending.isEmpty()) {
+            List<HistoryItem> overlaid = overlayPendingVisits(pending, queryHistoryByUrl(pending.keySet()));
+            page.addAll(overlaid.subList(0, Math.min(limit, overlaid.size())));
+        }
+        
+        long cursorTimestamp = beforeTimestamp;
+        long cursorId = beforeId;
+        while (page.size() < limit) {
+            int requested = limit - page.size();
+            List<HistoryItem> rows = queryHistoryPage(cursorTimestamp, cursorId, requested);
+            for (HistoryItem row : rows) {
+                if (!pending.containsKey(row.getUrl())) {
+                    page.add(row);
+                }
+            }
+            if (rows.size() < requested) {
+                break;
+            }
+            HistoryItem last = rows.get(rows.size() - 1);
+            cursorTimestamp = last.getTimestamp();
+            cursorId = last.getId();
+        }
+        return page;
+    }
+    
+    private List<HistoryItem> queryHistoryPage(long beforeTimestamp, long beforeId, int limit) {
+        String selectQuery = "SELECT * FROM " + TABLE_HISTORY
+                + " WHERE " + COLUMN_TIMESTAMP + " < ?"
+                + " OR (" + COLUMN_TIMESTAMP + " = ? AND " + COLUMN_ID + " < ?)"
+                + " ORDER BY " + COLUMN_TIMESTAMP + " DESC, " + COLUMN_ID + " DESC"
+                + " LIMIT ?";
+        String timestamp = String.valueOf(beforeTimestamp);
+        
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(selectQuery,
+                new String[]{timestamp, timestamp, String.valueOf(beforeId), String.valueOf(limit)});
+        try {
+            return readHistoryItems(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    private Map<String, HistoryItem> queryHistoryByUrl(Collection<String> urls) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < urls.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        String selectQuery = "SELECT * FROM " + TABLE_HISTORY
+                + " WHERE " + COLUMN_URL + " IN (" + placeholders + ")";
+        
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(selectQuery, urls.toArray(new String[0]));
+        Map<String, HistoryItem> byUrl = new HashMap<>();
+        try {
+            for (HistoryItem item : readHistoryItems(cursor)) {
+                byUrl.put(item.getUrl(), item);
+            }
+        } finally {
+            cursor.close();
+        }
+        return byUrl;
+    }
+    
+    // History grouped by local day, newest day first, for days >= fromDay (see toLocalDay).
+    // One range scan over the day index; each item's count and timestamp are for that day only.
+    public Map<Long, List<HistoryItem>> getHistoryByDay(long fromDay) {
+        Map<String, PendingVisit> pending = snapshotPendingVisits();
+        String selectQuery = "SELECT h." + COLUMN_ID + ", h." + COLUMN_TITLE + ", h." + COLUMN_URL + ", d." + COLUMN_DAY
+                + ", d." + COLUMN_VISIT_COUNT + ", d." + COLUMN_LAST_VISIT
+                + " FROM " + TABLE_VISIT_DAYS + " d JOIN " + TABLE_HISTORY + " h ON h." + COLUMN_ID + " = d." + COLUMN_URL_ID
+                + " WHERE d." + COLUMN_DAY + " >= ?"
+                + " ORDER BY d." + COLUMN_DAY + " DESC, d." + COLUMN_LAST_VISIT + " DESC";
+        
+        Map<Long, List<HistoryItem>> days = new LinkedHashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(selectQuery, new String[]{String.valueOf(fromDay)});
+        try {
+            while (cursor.moveToNext()) {
+                HistoryItem item = new HistoryItem();
+                item.setId(cursor.getLong(0));
+                item.setTitle(cursor.getString(1));
+                item.setUrl(cursor.getString(2));
+                item.setVisitCount(cursor.getInt(4));
+                item.setTimestamp(cursor.getLong(5));
+                
+                long day = cursor.getLong(3);
+                List<HistoryItem> items = days.get(day);
+                if (items == null) {
+                    items = new ArrayList<>();
+                    days.put(day, items);
+                }
+                items.add(item);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (pending.isEmpty()) {
+            return days;
+        }
+        
+        overlayPendingVisitsByDay(pending, fromDay, days);
+        List<Long> order = new ArrayList<>(days.keySet());
+        Collections.sort(order, Collections.reverseOrder());
+        Map<Long, List<HistoryItem>> sorted = new LinkedHashMap<>();
+        for (Long day : order) {
+            sorted.put(day, days.get(day));
+        }
+        return sorted;
+    }
+    
+    // Applies each buffered visit to the aggregate of the day it happened on
+    private void overlayPendingVisitsByDay(Map<String, PendingVisit> pending, long fromDay, Map<Long, List<HistoryItem>> days) {
+        Map<String, HistoryItem> storedByUrl = queryHistoryByUrl(pending.keySet());
+        for (PendingVisit visit : pending.values()) {
+            for (VisitRecord record : visit.records) {
+                long day = toLocalDay(record.time);
+                if (day < fromDay) {
+                    continue;
+                }
+                List<HistoryItem> items = days.get(day);
+                if (items == null) {
+                    items = new ArrayList<>();
+                    days.put(day, items);
+                }
+                HistoryItem item = null;
+                for (HistoryItem candidate : items) {
+                    if (candidate.getUrl().equals(visit.url)) {
+                        item = candidate;
+                        break;
+                    }
+                }
+                if (item == null) {
+                    HistoryItem stored = storedByUrl.get(visit.url);
+                    item = new HistoryItem();
+                    item.setId(stored != null ? stored.getId() : 0);
+                    item.setUrl(visit.url);
+                    items.add(item);
+                }
+                item.setTitle(visit.title);
+                item.setTimestamp(Math.max(item.getTimestamp(), record.time));
+                item.setVisitCount(item.getVisitCount() + 1);
+            }
+        }
+        for (List<HistoryItem> items : days.values()) {
+            Collections.sort(items, NEWEST_FIRST);
+        }
+    }
+    
+    // Prefix search over titles and URLs: "git hub" matches "GitHub - octocat/Hello-World".
+    // Matches are ranked by visit count, then recency; buffered visits are included.
+    public List<HistoryItem> search(String query, int limit) {
+        List<String> terms = tokenizeSearchQuery(query);
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(term).append('*');
+        }
+        
+        Map<String, PendingVisit> pending = snapshotPendingVisits();
+        String selectQuery = "SELECT h.* FROM " + TABLE_HISTORY + " h"
+                + " JOIN (SELECT docid FROM " + TABLE_HISTORY_FTS
+                + " WHERE " + TABLE_HISTORY_FTS + " MATCH ?) f ON h." + COLUMN_ID + " = f.docid"
+                + " ORDER BY h." + COLUMN_VISIT_COUNT + " DESC, h." + COLUMN_TIMESTAMP + " DESC"
+                + " LIMIT ?";
+        
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(selectQuery, new String[]{match.toString(), String.valueOf(limit)});
+        List<HistoryItem> stored;
+        try {
+            stored = readHistoryItems(cursor);
+        } finally {
+            cursor.close();
+        }
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        
+        // Overlay buffered visits: refresh matching stored rows and add buffered-only matches
+        Map<String, PendingVisit> matchingPending = new LinkedHashMap<>();
+        for (PendingVisit visit : pending.values()) {
+            if (matchesAllTerms(visit.title, visit.url, terms)) {
+                matchingPending.put(visit.url, visit);
+            }
+        }
+        Map<String, HistoryItem> storedByUrl = new HashMap<>();
+        List<HistoryItem> results = new ArrayList<>(stored.size() + matchingPending.size());
+        for (HistoryItem item : stored) {
+            if (pending.containsKey(item.getUrl())) {
+                storedByUrl.put(item.getUrl(), item);
+                matchingPending.put(item.getUrl(), pending.get(item.getUrl()));
+            } else {
+                results.add(item);
+            }
+        }
+        results.addAll(overlayPendingVisits(matchingPending, storedByUrl));
+        Collections.sort(results, MOST_VISITED_FIRST);
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+    
+    // Mirrors the FTS "simple" tokenizer: lowercase runs of letters and digits
+    private static List<String> tokenizeSearchQuery(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+    
+    private static boolean matchesAllTerms(String title, String url, List<String> terms) {
+        List<String> words = tokenizeSearchQuery(title);
+        words.addAll(tokenizeSearchQuery(url));
+        for (String term : terms) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(term)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private List<HistoryItem> readHistoryItems(Cursor cursor) {
+        List<HistoryItem> history = new ArrayList<>(cursor.getCount());
         
         if (cursor.moveToFirst()) {
             int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
@@ -114,21 +830,316 @@ public class HistoryManager extends SQLiteOpenHelper {
             } while (cursor.moveToNext());
         }
         
-        cursor.close();
-        db.close();
         return history;
     }
     
-    public void clearHistory() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_HISTORY, null, null);
-        db.close();
+    // The clear, remove and delete calls below return false if the writer queue was full and nothing was
+    // removed; listeners are only told about writes that were accepted
+    public boolean clearHistory() {
+        Map<String, PendingVisit> dropped;
+        synchronized (pendingLock) {
+            dropped = pendingVisits;
+            pendingVisits = new LinkedHashMap<>();
+        }
+        boolean accepted = submitWrite(() -> {
+            // Emptying the child tables first lets SQLite truncate them instead of cascading row by row
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(TABLE_VISIT_DAYS, null, null);
+                db.delete(TABLE_VISITS, null, null);
+                db.delete(TABLE_HISTORY, null, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+        if (!accepted) {
+            restorePendingVisits(dropped);
+            return false;
+        }
+        for (HistoryListener listener : listeners) {
+            listener.onHistoryInvalidated();
+        }
+        return true;
     }
     
-    public void removeHistoryItem(long id) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_HISTORY, COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
-        db.close();
+    public boolean removeHistoryItem(long id) {
+        boolean accepted = submitWrite(() -> getWritableDatabase().delete(TABLE_HISTORY, COLUMN_ID + " = ?",
+                new String[]{String.valueOf(id)}));
+        if (!accepted) {
+            return false;
+        }
+        for (HistoryListener listener : listeners) {
+            listener.onHistoryInvalidated();
+        }
+        return true;
+    }
+    
+    // Removes a URL whether it is already stored or still buffered
+    public boolean removeHistoryUrl(String url) {
+        PendingVisit dropped;
+        synchronized (pendingLock) {
+            dropped = pendingVisits.remove(url);
+        }
+        boolean accepted = submitWrite(() -> getWritableDatabase().delete(TABLE_HISTORY, COLUMN_URL + " = ?",
+                new String[]{url}));
+        if (!accepted) {
+            if (dropped != null) {
+                Map<String, PendingVisit> restored = new LinkedHashMap<>();
+                restored.put(url, dropped);
+                restorePendingVisits(restored);
+            }
+            return false;
+        }
+        for (HistoryListener listener : listeners) {
+            listener.onHistoryRemoved(url);
+        }
+        return true;
+    }
+    
+    // Puts buffered visits taken out for a write that was refused back in front of those buffered since
+    private void restorePendingVisits(Map<String, PendingVisit> visits) {
+        synchronized (pendingLock) {
+            Map<String, PendingVisit> merged = new LinkedHashMap<>();
+            mergePendingVisits(merged, visits);
+            mergePendingVisits(merged, pendingVisits);
+            pendingVisits = merged;
+        }
+        scheduleFlush();
+    }
+    
+    public void setRetentionPolicy(RetentionPolicy policy) {
+        retentionPolicy = policy;
+    }
+    
+    // Kicks off a pruning pass on the writer thread and schedules the next one
+    private void startPruning() {
+        flushHandler.removeCallbacks(scheduledPrune);
+        flushHandler.postDelayed(scheduledPrune, PRUNE_INTERVAL_MS);
+        
+        synchronized (pendingLock) {
+            if (pruneRunning) {
+                return;
+            }
+            pruneRunning = true;
+            prunedAnything = false;
+        }
+        continuePruning();
+    }
+    
+    // Queues the next prune step; if the writer queue is full the pass ends here and the next
+    // scheduled one starts over, rather than leaving pruneRunning set with nothing queued
+    private void continuePruning() {
+        if (!submitWrite(this::pruneStep)) {
+            finishPruning();
+        }
+    }
+    
+    // Deletes one small batch of the oldest rows that violate the policy, then re-queues itself so
+    // visits and other writes interleave with pruning instead of waiting behind one large DELETE
+    private void pruneStep() {
+        try {
+            SQLiteDatabase db = this.getWritableDatabase();
+            RetentionPolicy policy = retentionPolicy;
+            
+            long cutoff = System.currentTimeMillis() - policy.maxAgeMs;
+            int deleted = deleteOldestBatch(db, COLUMN_TIMESTAMP + " < ?", new String[]{String.valueOf(cutoff)});
+            
+            // URLs that are still visited keep their history row, but their old visits age out of the log
+            if (deleted == 0) {
+                deleted = deleteExpiredVisits(db, cutoff);
+            }
+            
+            if (deleted == 0) {
+                long excessRows = DatabaseUtils.queryNumEntries(db, TABLE_HISTORY) - policy.maxRows;
+                if (excessRows > 0) {
+                    deleted = deleteOldestBatch(db, null, null, (int) Math.min(PRUNE_BATCH_SIZE, excessRows));
+                }
+            }
+            
+            if (deleted == 0 && getLiveDatabaseBytes(db) > policy.maxDatabaseBytes) {
+                deleted = deleteOldestBatch(db, null, null);
+            }
+            
+            if (deleted > 0) {
+                prunedAnything = true;
+                continuePruning();
+                return;
+            }
+            
+            // Nothing left to delete: release free pages in small steps (only once the database has been
+            // converted; until then incremental_vacuum does nothing)
+            if (isIncrementalVacuum(db) && DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) > 0) {
+                runPragma(db, "PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP + ")");
+                continuePruning();
+                return;
+            }
+            
+            finishPruning();
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error pruning history", e);
+            finishPruning();
+        }
+    }
+    
+    private void finishPruning() {
+        boolean notify;
+        synchronized (pendingLock) {
+            pruneRunning = false;
+            notify = prunedAnything;
+        }
+        if (notify) {
+            Log.d(TAG, "🧹 History pruned to retention policy");
+            for (HistoryListener listener : listeners) {
+                listener.onHistoryInvalidated();
+            }
+        }
+    }
+    
+    private int deleteOldestBatch(SQLiteDatabase db, String where, String[] whereArgs) {
+        return deleteOldestBatch(db, where, whereArgs, PRUNE_BATCH_SIZE);
+    }
+    
+    private int deleteOldestBatch(SQLiteDatabase db, String where, String[] whereArgs, int limit) {
+        String oldest = "SELECT " + COLUMN_ID + " FROM " + TABLE_HISTORY
+                + (where != null ? " WHERE " + where : "")
+                + " ORDER BY " + COLUMN_TIMESTAMP + " ASC LIMIT " + limit;
+        return db.delete(TABLE_HISTORY, COLUMN_ID + " IN (" + oldest + ")", whereArgs);
+    }
+    
+    private int deleteExpiredVisits(SQLiteDatabase db, long cutoff) {
+        int deleted = db.delete(TABLE_VISITS, COLUMN_ID + " IN (SELECT " + COLUMN_ID + " FROM " + TABLE_VISITS
+                + " WHERE " + COLUMN_VISIT_TIME + " < ? LIMIT " + PRUNE_BATCH_SIZE + ")",
+                new String[]{String.valueOf(cutoff)});
+        if (deleted == 0) {
+            deleted = db.delete(TABLE_VISIT_DAYS, "rowid IN (SELECT rowid FROM " + TABLE_VISIT_DAYS
+                    + " WHERE " + COLUMN_DAY + " < ? LIMIT " + PRUNE_BATCH_SIZE + ")",
+                    new String[]{String.valueOf(toLocalDay(cutoff))});
+        }
+        return deleted;
+    }
+    
+    // Bytes in use, excluding pages already on the freelist
+    private static long getLiveDatabaseBytes(SQLiteDatabase db) {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return (pageCount - freePages) * pageSize;
+    }
+    
+    private static boolean isIncrementalVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == 2;
+    }
+    
+    // Databases created before auto_vacuum was configured need one full VACUUM to switch modes. That
+    // rewrites the whole file and holds the writer thread meanwhile, so it is its own task, queued only
+    // while none of the app's screens are showing; visits buffer and flushes retry until it is done.
+    public void convertWhenIdle() {
+        synchronized (pendingLock) {
+            if (vacuumConversionQueued) {
+                return;
+            }
+            vacuumConversionQueued = true;
+        }
+        boolean accepted = submitWrite(() -> {
+            SQLiteDatabase db = this.getWritableDatabase();
+            if (isIncrementalVacuum(db)) {
+                return;
+            }
+            Log.d(TAG, "🔧 Converting history database to incremental auto-vacuum");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        });
+        if (!accepted) {
+            synchronized (pendingLock) {
+                vacuumConversionQueued = false;
+            }
+        }
+    }
+    
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            while (cursor.moveToNext()) {
+                // Stepping the cursor is what executes the pragma
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    public void addHistoryListener(HistoryListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeHistoryListener(HistoryListener listener) {
+        listeners.remove(listener);
+    }
+    
+    public interface HistoryListener {
+        void onVisitRecorded(String title, String url, long timestamp);
+        void onHistoryRemoved(String url);
+        // Bulk change (clear, delete by id) - listeners should reload
+        void onHistoryInvalidated();
+    }
+    
+    // Runs a write on the history writer thread so callers never block on disk I/O. Returns false if
+    // the queue was full and the write was dropped.
+    private boolean submitWrite(Runnable write) {
+        try {
+            writeExecutor.execute(() -> {
+                try {
+                    write.run();
+                } catch (Exception e) {
+                    Log.e(TAG, "💥 Error writing history", e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "History write queue full - dropping write");
+            return false;
+        }
+    }
+    
+    // Limits enforced by the background pruning job
+    public static class RetentionPolicy {
+        public static final RetentionPolicy DEFAULT =
+                new RetentionPolicy(90L * 24 * 60 * 60 * 1000, 20000, 32L * 1024 * 1024);
+        
+        public final long maxAgeMs;
+        public final int maxRows;
+        public final long maxDatabaseBytes;
+        
+        public RetentionPolicy(long maxAgeMs, int maxRows, long maxDatabaseBytes) {
+            this.maxAgeMs = maxAgeMs;
+            this.maxRows = maxRows;
+            this.maxDatabaseBytes = maxDatabaseBytes;
+        }
+    }
+    
+    private static class PendingVisit {
+        final String url;
+        String title;
+        long timestamp;
+        int count;
+        final List<VisitRecord> records = new ArrayList<>();
+        
+        PendingVisit(String url) {
+            this.url = url;
+        }
+    }
+    
+    private static class VisitRecord {
+        final long time;
+        final int transition;
+        final String referrer;
+        
+        VisitRecord(long time, int transition, String referrer) {
+            this.time = time;
+            this.transition = transition;
+            this.referrer = referrer;
+        }
     }
     
     public static class HistoryItem {
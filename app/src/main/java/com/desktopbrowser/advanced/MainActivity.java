@@ -6,7 +6,7 @@ import android.os.Bundle;
 import android.view.View;
 import android.view.ContextThemeWrapper;
 import android.view.inputmethod.EditorInfo;
-import android.widget.EditText;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -18,7 +18,7 @@ import androidx.appcompat.app.AlertDialog;
 
 public class MainActivity extends AppCompatActivity {
     
-    private EditText urlEditText;
+    private AutoCompleteTextView urlEditText;
     private Button browseButton;
     private Button menuButton;
     private GridLayout quickAccessGrid;
@@ -94,6 +94,10 @@ public class MainActivity extends AppCompatActivity {
             return false;
         });
         
+        // Frecency-ranked history/bookmark suggestions while typing; picking one browses to it
+        urlEditText.setAdapter(new SuggestionAdapter(this));
+        urlEditText.setOnItemClickListener((parent, view, position, id) -> handleBrowse());
+        
         // Menu button click listener - shows dropdown menu with navigation options
         menuButton.setOnClickListener(v -> showNavigationMenu());
     }
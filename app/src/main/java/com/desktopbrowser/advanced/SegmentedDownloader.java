@@ -0,0 +1,514 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Environment;
+import android.util.Log;
+import android.webkit.CookieManager;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-app HTTP download engine for large files. When the server accepts byte ranges the file is split
+// into segments fetched over parallel connections and written with positional FileChannel writes into
+// a preallocated .part file. Each segment's position is checkpointed in the download ledger, so an
+// interrupted download continues where it stopped. Everything else goes to the system DownloadManager.
+// Downloads are queued, limited and paused by DownloadScheduler, which is the only caller of start().
+public class SegmentedDownloader {
+    
+    private static final String TAG = "SegmentedDownloader";
+    
+    // Ledger ids of in-app downloads; system DownloadManager ids are plain numbers
+    private static final String ID_PREFIX = "seg-";
+    private static final String PART_SUFFIX = ".part";
+    
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/131.0.0.0 Safari/537.36";
+    
+    // Smaller files are not worth the extra connections
+    private static final long MIN_SEGMENTED_BYTES = 8L * 1024 * 1024;
+    private static final long MIN_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_SEGMENTS = 4;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    
+    private static SegmentedDownloader instance;
+    
+    private final Context context;
+    private final DownloadManager ledger;
+    
+    // One coordinator per download (probe, progress, completion) and one worker per running segment
+    private final ThreadPoolExecutor coordinatorExecutor;
+    private final ThreadPoolExecutor segmentExecutor;
+    
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+    
+    private final Map<String, ActiveDownload> running = new ConcurrentHashMap<>();
+    private final AtomicLong transferredBytes = new AtomicLong();
+    
+    private SegmentedDownloader(Context context) {
+        this.context = context.getApplicationContext();
+        this.ledger = DownloadManager.getInstance(context);
+        coordinatorExecutor = newCachedExecutor("DownloadCoordinator");
+        segmentExecutor = newCachedExecutor("DownloadSegment");
+    }
+    
+    public static synchronized SegmentedDownloader getInstance(Context context) {
+        if (instance == null) {
+            instance = new SegmentedDownloader(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    private static ThreadPoolExecutor newCachedExecutor(String name) {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+    }
+    
+    public static boolean isInAppDownload(String downloadId) {
+        return downloadId != null && downloadId.startsWith(ID_PREFIX);
+    }
+    
+    // Ledger id for a new in-app download
+    public static String newDownloadId() {
+        return ID_PREFIX + System.currentTimeMillis() + "-" + SEQUENCE.incrementAndGet();
+    }
+    
+    // Runs an in-app download whose ledger row already exists (created by DownloadScheduler). The server
+    // is probed first: a fresh download is planned into segments if the file is large and accepts ranges,
+    // otherwise it is handed to the system DownloadManager; a download with checkpoints continues from
+    // them unless the remote file changed. onFinished runs on the coordinator thread when this returns,
+    // whether the download completed, failed, was stopped or was handed off.
+    public void start(String downloadId, boolean allowMetered, Runnable onFinished) {
+        ActiveDownload download = new ActiveDownload(downloadId);
+        if (running.putIfAbsent(downloadId, download) != null) {
+            return;
+        }
+        coordinatorExecutor.execute(() -> {
+            try {
+                DownloadItem item = ledger.getDownload(downloadId);
+                if (item == null) {
+                    return;
+                }
+                List<DownloadManager.Segment> segments = ledger.getSegments(downloadId);
+                Probe probe = probe(item.url);
+                String expectedSha256 = probe != null ? probe.sha256 : null;
+                
+                // Checked when the hash is new to this download; resuming one that was held back as a
+                // duplicate means the user wants it anyway
+                if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(item.expectedSha256)) {
+                    ledger.setExpectedSha256(downloadId, expectedSha256);
+                    DownloadItem original = ledger.findDownloadBySha256(expectedSha256, downloadId);
+                    if (original != null) {
+                        // The server says this is content we already have; hold it until the user decides
+                        ledger.setDownloadPaused(downloadId, true, DownloadItem.STATUS_DUPLICATE + original.filename);
+                        DownloadHasher.getInstance(context).reportDuplicate(item, original,
+                                "resume it to download anyway");
+                        return;
+                    }
+                }
+                
+                if (segments.isEmpty()) {
+                    if (probe == null || !probe.isSegmentable()) {
+                        // The system download manager tracks it under its own id from here on. Its row is
+                        // added first so the name stays taken for downloads created meanwhile.
+                        enqueueWithSystemDownloadManager(item.url, item.filename, allowMetered, expectedSha256);
+                        ledger.removeDownloadById(downloadId);
+                        return;
+                    }
+                    segments = planSegments(probe.length);
+                    ledger.saveSegments(downloadId, probe.validator, segments);
+                    Log.d(TAG, "🚀 Segmented download: " + item.filename + " (" + segments.size() + " segments, "
+                            + DownloadManager.formatFileSize(probe.length) + ")");
+                } else {
+                    if (probe == null || !probe.acceptsRanges) {
+                        throw new IOException("Server no longer accepts ranges");
+                    }
+                    long totalBytes = segments.get(segments.size() - 1).end + 1;
+                    String validator = ledger.getValidator(downloadId);
+                    if (probe.length != totalBytes || (validator != null && !validator.equals(probe.validator))) {
+                        // The file changed on the server; the bytes we have belong to another version
+                        Log.w(TAG, "🔄 Remote file changed, restarting download: " + item.filename);
+                        new File(item.filepath + PART_SUFFIX).delete();
+                        segments = planSegments(probe.length);
+                        ledger.saveSegments(downloadId, probe.validator, segments);
+                    }
+                }
+                
+                download.url = probe.finalUrl;
+                download.target = new File(item.filepath);
+                download.totalBytes = probe.length;
+                download.segments = segments;
+                run(download);
+            } catch (Exception e) {
+                Log.e(TAG, "💥 Error starting download " + downloadId, e);
+                ledger.markDownloadFailed(downloadId);
+            } finally {
+                running.remove(downloadId);
+                onFinished.run();
+            }
+        });
+    }
+    
+    public boolean isRunning(String downloadId) {
+        return running.containsKey(downloadId);
+    }
+    
+    // Stops a running download, keeping its partial file and checkpoints for a later start()
+    public void stop(String downloadId) {
+        ActiveDownload download = running.get(downloadId);
+        if (download != null) {
+            download.stopped = true;
+        }
+    }
+    
+    // Stops an in-app download and discards its ledger row, partial file and checkpoints. The path is
+    // passed in because the row may be gone by the time the cleanup runs.
+    public void cancel(String downloadId, String filepath) {
+        ActiveDownload download = running.get(downloadId);
+        if (download != null) {
+            // run() removes the row and the partial file once the segments have stopped
+            download.cancelled = true;
+            download.stopped = true;
+            return;
+        }
+        // Not running (queued, paused or failed); clean up what it left behind. The row goes first so
+        // the scheduler can't start it meanwhile.
+        coordinatorExecutor.execute(() -> {
+            ledger.removeDownloadById(downloadId);
+            ledger.deleteSegments(downloadId);
+            if (filepath != null) {
+                new File(filepath + PART_SUFFIX).delete();
+            }
+        });
+    }
+    
+    // Bytes received by all in-app downloads since startup; sampled by the scheduler for throughput
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+    
+    private void run(ActiveDownload download) {
+        File partFile = new File(download.target.getPath() + PART_SUFFIX);
+        try {
+            boolean partExisted = partFile.exists();
+            try (RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+                 FileChannel channel = file.getChannel()) {
+                if (!partExisted) {
+                    // Checkpoints are meaningless without the bytes they point into
+                    for (DownloadManager.Segment segment : download.segments) {
+                        segment.position = segment.start;
+                    }
+                }
+                // Preallocate so segments can write anywhere and a full disk fails up front
+                if (file.length() != download.totalBytes) {
+                    file.setLength(download.totalBytes);
+                }
+                
+                List<Future<?>> futures = new ArrayList<>();
+                for (DownloadManager.Segment segment : download.segments) {
+                    if (!segment.isComplete()) {
+                        futures.add(segmentExecutor.submit(() -> {
+                            fetchSegment(download, segment, channel);
+                            return null;
+                        }));
+                    }
+                }
+                awaitSegments(download, futures);
+                channel.force(false);
+            }
+            
+            if (download.cancelled) {
+                partFile.delete();
+                ledger.removeDownloadById(download.downloadId);
+                Log.d(TAG, "⏹️ Download cancelled: " + download.target.getName());
+                return;
+            }
+            if (download.stopped) {
+                return;
+            }
+            
+            if (download.target.exists()) {
+                // Something else saved a file under this name meanwhile; keep it and take the next free name
+                File target = new File(download.target.getParentFile(), ledger.uniqueFilename(download.target.getName()));
+                ledger.setDownloadFile(download.downloadId, target);
+                download.target = target;
+            }
+            if (!partFile.renameTo(download.target)) {
+                throw new IOException("Cannot rename " + partFile);
+            }
+            ledger.updateDownloadProgress(download.downloadId, 100, download.totalBytes, download.totalBytes);
+            ledger.deleteSegments(download.downloadId);
+            Log.d(TAG, "✅ Segmented download completed: " + download.target.getName());
+        } catch (IOException e) {
+            // Checkpoints are kept so the download can be resumed later
+            Log.e(TAG, "💥 Segmented download failed: " + download.target.getName(), e);
+            ledger.markDownloadFailed(download.downloadId);
+        }
+    }
+    
+    // Waits for every segment, writing aggregate progress to the ledger while they run.
+    // The first segment that gives up stops the others.
+    private void awaitSegments(ActiveDownload download, List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        reportProgress(download);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            download.stopped = true;
+            waitQuietly(futures);
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            download.stopped = true;
+            waitQuietly(futures);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+    }
+    
+    // Lets the other segments notice the stop flag and checkpoint before the channel is closed
+    private static void waitQuietly(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception ignored) {
+                // Already failing
+            }
+        }
+    }
+    
+    private void reportProgress(ActiveDownload download) {
+        long bytes = 0;
+        for (DownloadManager.Segment segment : download.segments) {
+            bytes += segment.getDownloadedBytes();
+        }
+        // 100% is reserved for the renamed, complete file
+        int progress = (int) Math.min(99, bytes * 100 / download.totalBytes);
+        ledger.updateDownloadProgress(download.downloadId, progress, bytes, download.totalBytes);
+    }
+    
+    private void fetchSegment(ActiveDownload download, DownloadManager.Segment segment, FileChannel channel)
+            throws IOException, InterruptedException {
+        int attempt = 0;
+        while (!segment.isComplete() && !download.stopped) {
+            try {
+                fetchRange(download, segment, channel);
+            } catch (IOException e) {
+                if (++attempt > MAX_RETRIES || download.stopped) {
+                    throw e;
+                }
+                Log.w(TAG, "Segment " + segment.index + " failed (attempt " + attempt + "), retrying", e);
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            }
+        }
+    }
+    
+    private void fetchRange(ActiveDownload download, DownloadManager.Segment segment, FileChannel channel)
+            throws IOException {
+        HttpURLConnection connection = openConnection(download.url, "GET");
+        connection.setRequestProperty("Range", "bytes=" + segment.position + "-" + segment.end);
+        long checkpoint = segment.position;
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Range request answered with HTTP " + code);
+            }
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+            try (InputStream in = connection.getInputStream()) {
+                while (!download.stopped && !segment.isComplete()) {
+                    int wanted = (int) Math.min(buffer.length, segment.end - segment.position + 1);
+                    int read = in.read(buffer, 0, wanted);
+                    if (read == -1) {
+                        throw new IOException("Connection closed at " + segment.position + " of segment " + segment.index);
+                    }
+                    
+                    wrapper.clear();
+                    wrapper.limit(read);
+                    long writeAt = segment.position;
+                    while (wrapper.hasRemaining()) {
+                        writeAt += channel.write(wrapper, writeAt);
+                    }
+                    segment.position = writeAt;
+                    transferredBytes.addAndGet(read);
+                    
+                    // Only written bytes are checkpointed; they survive process death in the page cache
+                    if (segment.position - checkpoint >= CHECKPOINT_BYTES) {
+                        ledger.updateSegmentPosition(download.downloadId, segment.index, segment.position);
+                        checkpoint = segment.position;
+                    }
+                }
+            }
+        } finally {
+            if (segment.position != checkpoint) {
+                ledger.updateSegmentPosition(download.downloadId, segment.index, segment.position);
+            }
+            connection.disconnect();
+        }
+    }
+    
+    // HEAD request for size, range support and a validator; null if the server can't tell us
+    private Probe probe(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = openConnection(url, "HEAD");
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                Log.d(TAG, "Probe of " + url + " answered HTTP " + code);
+                return null;
+            }
+            
+            Probe probe = new Probe();
+            probe.finalUrl = connection.getURL().toString();
+            String length = connection.getHeaderField("Content-Length");
+            probe.length = length != null ? Long.parseLong(length.trim()) : -1;
+            probe.acceptsRanges = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+            
+            // Weak ETags don't promise byte-identical content, so they can't guard a resume
+            String etag = connection.getHeaderField("ETag");
+            probe.validator = etag != null && !etag.startsWith("W/") ? etag : connection.getHeaderField("Last-Modified");
+            
+            // Announced hash of the representation, checked once the file is complete
+            probe.sha256 = DownloadHasher.parseSha256Header(connection.getHeaderField("Repr-Digest"));
+            if (probe.sha256 == null) {
+                probe.sha256 = DownloadHasher.parseSha256Header(connection.getHeaderField("Digest"));
+            }
+            return probe;
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Probe failed for " + url, e);
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+    
+    private HttpURLConnection openConnection(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        // Ranges and Content-Length refer to the stored bytes, so ask for them uncompressed
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        String cookies = CookieManager.getInstance().getCookie(url);
+        if (cookies != null) {
+            connection.setRequestProperty("Cookie", cookies);
+        }
+        return connection;
+    }
+    
+    private static List<DownloadManager.Segment> planSegments(long totalBytes) {
+        int count = (int) Math.max(1, Math.min(MAX_SEGMENTS, totalBytes / MIN_SEGMENT_BYTES));
+        long segmentSize = totalBytes / count;
+        List<DownloadManager.Segment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long start = i * segmentSize;
+            long end = i == count - 1 ? totalBytes - 1 : start + segmentSize - 1;
+            segments.add(new DownloadManager.Segment(i, start, end, start));
+        }
+        return segments;
+    }
+    
+    private void enqueueWithSystemDownloadManager(String url, String filename, boolean allowMetered, String expectedSha256) {
+        android.app.DownloadManager downloadManager = (android.app.DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
+        
+        android.app.DownloadManager.Request request = new android.app.DownloadManager.Request(Uri.parse(url));
+        request.setDescription("Downloaded by Real Desktop Browser");
+        request.setTitle(filename);
+        
+        // Set headers to mimic desktop browser
+        request.addRequestHeader("User-Agent", USER_AGENT);
+        String cookies = CookieManager.getInstance().getCookie(url);
+        if (cookies != null) {
+            request.addRequestHeader("Cookie", cookies);
+        }
+        
+        // Set download location
+        request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, filename);
+        
+        // Allow download over mobile and WiFi
+        request.setAllowedNetworkTypes(android.app.DownloadManager.Request.NETWORK_WIFI | android.app.DownloadManager.Request.NETWORK_MOBILE);
+        request.setAllowedOverMetered(allowMetered);
+        
+        // Show in downloads UI
+        request.setVisibleInDownloadsUi(true);
+        request.setNotificationVisibility(android.app.DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
+        
+        long downloadId = downloadManager.enqueue(request);
+        
+        // Track download in our system
+        ledger.addDownload(filename, url, String.valueOf(downloadId));
+        if (expectedSha256 != null) {
+            ledger.setExpectedSha256(String.valueOf(downloadId), expectedSha256);
+        }
+        
+        Log.d(TAG, "✅ Download handed to system DownloadManager - ID: " + downloadId + ", File: " + filename);
+    }
+    
+    private static class Probe {
+        String finalUrl;
+        long length;
+        boolean acceptsRanges;
+        String validator;
+        String sha256;
+        
+        boolean isSegmentable() {
+            return acceptsRanges && length >= MIN_SEGMENTED_BYTES;
+        }
+    }
+    
+    // Registered as soon as start() is called so stop() and cancel() also work during the probe;
+    // the rest is filled in by the coordinator before the segments run
+    private static class ActiveDownload {
+        final String downloadId;
+        String url;
+        File target;
+        long totalBytes;
+        List<DownloadManager.Segment> segments;
+        volatile boolean stopped = false;
+        volatile boolean cancelled = false;
+        
+        ActiveDownload(String downloadId) {
+            this.downloadId = downloadId;
+        }
+    }
+}
\ No newline at end of file
@@ -19,6 +19,8 @@ public class SettingsActivity extends AppCompatActivity {
     private Switch popupBlockerSwitch;
     private Switch stealthModeSwitch;
     private Switch autofillSwitch;
+    private Switch unmeteredDownloadsSwitch;
+    private Button maxDownloadsButton;
     private SharedPreferences preferences;
     private AdManager adManager;
     
@@ -61,6 +63,8 @@ public class SettingsActivity extends AppCompatActivity {
         popupBlockerSwitch = findViewById(R.id.switch_popup_blocker);
         stealthModeSwitch = findViewById(R.id.switch_stealth_mode);
         autofillSwitch = findViewById(R.id.switch_autofill);
+        unmeteredDownloadsSwitch = findViewById(R.id.switch_downloads_unmetered);
+        maxDownloadsButton = findViewById(R.id.btn_max_downloads);
         
         preferences = PreferenceManager.getDefaultSharedPreferences(this);
         
@@ -77,6 +81,9 @@ public class SettingsActivity extends AppCompatActivity {
         popupBlockerSwitch.setChecked(preferences.getBoolean("popup_blocker", true));
         stealthModeSwitch.setChecked(preferences.getBoolean("stealth_mode", true));
         autofillSwitch.setChecked(preferences.getBoolean("autofill_enabled", false));
+        unmeteredDownloadsSwitch.setChecked(preferences.getBoolean(DownloadScheduler.PREF_UNMETERED_ONLY, false));
+        maxDownloadsButton.setText(String.valueOf(preferences.getInt(DownloadScheduler.PREF_MAX_CONCURRENT,
+                DownloadScheduler.DEFAULT_MAX_CONCURRENT)));
     }
     
     private void setupListeners() {
@@ -99,6 +106,29 @@ public class SettingsActivity extends AppCompatActivity {
         autofillSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
             preferences.edit().putBoolean("autofill_enabled", isChecked).apply();
         });
+        
+        unmeteredDownloadsSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            preferences.edit().putBoolean(DownloadScheduler.PREF_UNMETERED_ONLY, isChecked).apply();
+            DownloadScheduler.getInstance(this).reschedule();
+        });
+        
+        maxDownloadsButton.setOnClickListener(v -> showMaxDownloadsDialog());
+    }
+    
+    private void showMaxDownloadsDialog() {
+        String[] choices = {"1", "2", "3", "4", "5"};
+        int current = preferences.getInt(DownloadScheduler.PREF_MAX_CONCURRENT, DownloadScheduler.DEFAULT_MAX_CONCURRENT);
+        
+        new AlertDialog.Builder(this)
+            .setTitle("📥 Simultaneous downloads")
+            .setSingleChoiceItems(choices, current - 1, (dialog, which) -> {
+                preferences.edit().putInt(DownloadScheduler.PREF_MAX_CONCURRENT, which + 1).apply();
+                maxDownloadsButton.setText(choices[which]);
+                DownloadScheduler.getInstance(this).reschedule();
+                dialog.dismiss();
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
     }
     
     private void showErrorLogsDialog() {
@@ -0,0 +1,98 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.ImageView;
+import android.widget.TextView;
+import java.util.ArrayList;
+import java.util.List;
+
+// Drop-down adapter for the address bars; filtering is answered by SuggestionEngine's in-memory trie
+public class SuggestionAdapter extends BaseAdapter implements Filterable {
+    
+    private static final int MAX_SUGGESTIONS = 6;
+    
+    private final Context context;
+    private final SuggestionEngine suggestionEngine;
+    private final FaviconManager faviconManager;
+    private List<SuggestionEngine.Suggestion> suggestions = new ArrayList<>();
+    
+    public SuggestionAdapter(Context context) {
+        this.context = context;
+        this.suggestionEngine = SuggestionEngine.getInstance(context);
+        this.faviconManager = FaviconManager.getInstance(context);
+    }
+    
+    @Override
+    public int getCount() {
+        return suggestions.size();
+    }
+    
+    @Override
+    public SuggestionEngine.Suggestion getItem(int position) {
+        return suggestions.get(position);
+    }
+    
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+    
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) {
+            view = LayoutInflater.from(context).inflate(R.layout.item_suggestion, parent, false);
+        }
+        
+        SuggestionEngine.Suggestion suggestion = suggestions.get(position);
+        
+        ImageView iconView = view.findViewById(R.id.suggestion_icon);
+        TextView titleView = view.findViewById(R.id.suggestion_title);
+        TextView urlView = view.findViewById(R.id.suggestion_url);
+        
+        faviconManager.loadInto(iconView, suggestion.url,
+                suggestion.isBookmarked ? R.drawable.ic_bookmark_filled : R.drawable.ic_history);
+        titleView.setText(suggestion.title != null && !suggestion.title.isEmpty() ? suggestion.title : suggestion.url);
+        urlView.setText(suggestion.url);
+        
+        return view;
+    }
+    
+    @Override
+    public Filter getFilter() {
+        return new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                FilterResults results = new FilterResults();
+                List<SuggestionEngine.Suggestion> matches = suggestionEngine.suggest(constraint, MAX_SUGGESTIONS);
+                results.values = matches;
+                results.count = matches.size();
+                return results;
+            }
+            
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                suggestions = results.values != null
+                        ? (List<SuggestionEngine.Suggestion>) results.values
+                        : new ArrayList<SuggestionEngine.Suggestion>();
+                if (results.count > 0) {
+                    notifyDataSetChanged();
+                } else {
+                    notifyDataSetInvalidated();
+                }
+            }
+            
+            @Override
+            public CharSequence convertResultToString(Object resultValue) {
+                return ((SuggestionEngine.Suggestion) resultValue).url;
+            }
+        };
+    }
+}
\ No newline at end of file
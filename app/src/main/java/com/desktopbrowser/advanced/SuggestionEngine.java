@@ -0,0 +1,433 @@
+package com.desktopbrowser.advanced;
+
+import android.content.Context;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Omnibox suggestions ranked by frecency (visit count weighted by recency, plus a bookmark bonus).
+// Candidates live in an in-memory prefix trie whose nodes keep their best-scoring entries, so a
+// keystroke is one walk down the trie and never touches SQLite. The trie is loaded once in the
+// background and then updated incrementally from HistoryManager and BookmarkManager callbacks.
+public class SuggestionEngine implements HistoryManager.HistoryListener, BookmarkManager.BookmarkListener {
+    
+    private static final String TAG = "SuggestionEngine";
+    
+    // How many history rows seed the trie; older, rarely visited pages are not worth the memory
+    private static final int MAX_HISTORY_ENTRIES = 3000;
+    
+    // Keys are only indexed this deep; longer queries are answered from the deepest node's bucket
+    private static final int MAX_KEY_DEPTH = 16;
+    
+    // Best entries remembered per trie node
+    private static final int TOP_PER_NODE = 8;
+    
+    // Title words indexed per entry
+    private static final int MAX_TITLE_TOKENS = 8;
+    
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int BOOKMARK_BONUS = 140;
+    
+    private static final Comparator<Suggestion> BY_SCORE = (a, b) -> Integer.compare(b.score, a.score);
+    
+    private static SuggestionEngine instance;
+    
+    private final HistoryManager historyManager;
+    private final BookmarkManager bookmarkManager;
+    private final ExecutorService loader;
+    
+    // Guarded by `this`
+    private final Map<String, Suggestion> entries = new HashMap<>();
+    private TrieNode root = new TrieNode();
+    private boolean reloadQueued = false;
+    
+    private SuggestionEngine(Context context) {
+        historyManager = HistoryManager.getInstance(context);
+        bookmarkManager = BookmarkManager.getInstance(context);
+        loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SuggestionLoader");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        
+        historyManager.addHistoryListener(this);
+        bookmarkManager.addBookmarkListener(this);
+        scheduleReload();
+    }
+    
+    public static synchronized SuggestionEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new SuggestionEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    // A single omnibox suggestion
+    public static class Suggestion {
+        public final String url;
+        public String title;
+        public int visitCount;
+        public long lastVisit;
+        public boolean isBookmarked;
+        
+        int score;
+        String[] keys;
+        boolean removed;
+        
+        Suggestion(String url) {
+            this.url = url;
+        }
+    }
+    
+    // Answers a keystroke from memory only; safe to call on the UI thread
+    public List<Suggestion> suggest(CharSequence input, int limit) {
+        String query = normalizeUrl(input != null ? input.toString().trim() : "");
+        if (query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        synchronized (this) {
+            TrieNode node = root;
+            int depth = Math.min(query.length(), MAX_KEY_DEPTH);
+            for (int i = 0; i < depth && node != null; i++) {
+                node = node.child(query.charAt(i));
+            }
+            if (node == null) {
+                return new ArrayList<>();
+            }
+            
+            // Short queries are fully answered by the node's top list; long ones scan its bucket
+            List<Suggestion> candidates = query.length() <= MAX_KEY_DEPTH
+                    ? node.topList()
+                    : node.bucketList();
+            
+            List<Suggestion> results = new ArrayList<>(Math.min(limit, candidates.size()));
+            for (Suggestion suggestion : candidates) {
+                if (!suggestion.removed && hasKeyWithPrefix(suggestion, query)) {
+                    results.add(suggestion);
+                }
+            }
+            Collections.sort(results, BY_SCORE);
+            return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+        }
+    }
+    
+    @Override
+    public void onVisitRecorded(String title, String url, long timestamp) {
+        synchronized (this) {
+            Suggestion suggestion = entries.get(url);
+            if (suggestion == null) {
+                suggestion = new Suggestion(url);
+                entries.put(url, suggestion);
+            }
+            suggestion.title = title;
+            suggestion.visitCount++;
+            suggestion.lastVisit = Math.max(suggestion.lastVisit, timestamp);
+            index(suggestion, System.currentTimeMillis());
+        }
+    }
+    
+    @Override
+    public void onHistoryRemoved(String url) {
+        synchronized (this) {
+            Suggestion suggestion = entries.get(url);
+            if (suggestion != null && !suggestion.isBookmarked) {
+                suggestion.removed = true;
+                entries.remove(url);
+            }
+        }
+        // Removed entries leave gaps in node top lists; refill them in the background
+        scheduleReload();
+    }
+    
+    @Override
+    public void onHistoryInvalidated() {
+        scheduleReload();
+    }
+    
+    @Override
+    public void onBookmarkAdded(Bookmark bookmark) {
+        synchronized (this) {
+            Suggestion suggestion = entries.get(bookmark.getUrl());
+            if (suggestion == null) {
+                suggestion = new Suggestion(bookmark.getUrl());
+                suggestion.title = bookmark.getTitle();
+                suggestion.lastVisit = bookmark.getTimestamp();
+                entries.put(bookmark.getUrl(), suggestion);
+            }
+            suggestion.isBookmarked = true;
+            index(suggestion, System.currentTimeMillis());
+        }
+    }
+    
+    @Override
+    public void onBookmarkRemoved(String url) {
+        scheduleReload();
+    }
+    
+    @Override
+    public void onBookmarksInvalidated() {
+        scheduleReload();
+    }
+    
+    // Rebuilds the trie from the databases on the loader thread, then swaps it in
+    private void scheduleReload() {
+        synchronized (this) {
+            if (reloadQueued) {
+                return;
+            }
+            reloadQueued = true;
+        }
+        loader.execute(this::reload);
+    }
+    
+    private void reload() {
+        synchronized (this) {
+            reloadQueued = false;
+        }
+        
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, Suggestion> loaded = new HashMap<>();
+            
+            for (HistoryManager.HistoryItem item : historyManager.getHistoryPage(Long.MAX_VALUE, MAX_HISTORY_ENTRIES)) {
+                Suggestion suggestion = new Suggestion(item.getUrl());
+                suggestion.title = item.getTitle();
+                suggestion.visitCount = item.getVisitCount();
+                suggestion.lastVisit = item.getTimestamp();
+                loaded.put(item.getUrl(), suggestion);
+            }
+            for (Bookmark bookmark : bookmarkManager.getAllBookmarks()) {
+                Suggestion suggestion = loaded.get(bookmark.getUrl());
+                if (suggestion == null) {
+                    suggestion = new Suggestion(bookmark.getUrl());
+                    suggestion.title = bookmark.getTitle();
+                    suggestion.lastVisit = bookmark.getTimestamp();
+                    loaded.put(bookmark.getUrl(), suggestion);
+                }
+                suggestion.isBookmarked = true;
+            }
+            
+            long now = System.currentTimeMillis();
+            TrieNode rebuilt = new TrieNode();
+            for (Suggestion suggestion : loaded.values()) {
+                suggestion.keys = buildKeys(suggestion);
+                suggestion.score = frecency(suggestion, now);
+                insertKeys(rebuilt, suggestion);
+            }
+            
+            synchronized (this) {
+                // Visits recorded while loading are newer than what was read; keep them
+                for (Suggestion live : entries.values()) {
+                    Suggestion stored = loaded.get(live.url);
+                    if (live.lastVisit >= start && (stored == null || live.lastVisit > stored.lastVisit)) {
+                        live.keys = buildKeys(live);
+                        live.score = frecency(live, now);
+                        insertKeys(rebuilt, live);
+                        loaded.put(live.url, live);
+                    }
+                }
+                entries.clear();
+                entries.putAll(loaded);
+                root = rebuilt;
+            }
+            
+            Log.d(TAG, "✅ Suggestion trie rebuilt with " + loaded.size() + " entries in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            Log.e(TAG, "💥 Error rebuilding suggestions", e);
+        }
+    }
+    
+    // Re-scores an entry and (re)inserts it along every key path; caller holds the lock
+    private void index(Suggestion suggestion, long now) {
+        suggestion.keys = buildKeys(suggestion);
+        suggestion.score = frecency(suggestion, now);
+        insertKeys(root, suggestion);
+    }
+    
+    private static void insertKeys(TrieNode root, Suggestion suggestion) {
+        for (String key : suggestion.keys) {
+            TrieNode node = root;
+            int depth = Math.min(key.length(), MAX_KEY_DEPTH);
+            for (int i = 0; i < depth; i++) {
+                node = node.childOrCreate(key.charAt(i));
+                node.offer(suggestion);
+            }
+            if (key.length() >= MAX_KEY_DEPTH) {
+                node.addToBucket(suggestion);
+            }
+        }
+    }
+    
+    // Frecency: visits weighted by how recently the page was last seen, plus a bookmark bonus
+    private static int frecency(Suggestion suggestion, long now) {
+        long ageDays = Math.max(0, now - suggestion.lastVisit) / DAY_MS;
+        int recencyWeight;
+        if (ageDays <= 4) {
+            recencyWeight = 100;
+        } else if (ageDays <= 14) {
+            recencyWeight = 70;
+        } else if (ageDays <= 31) {
+            recencyWeight = 50;
+        } else if (ageDays <= 90) {
+            recencyWeight = 30;
+        } else {
+            recencyWeight = 10;
+        }
+        
+        int score = Math.max(1, suggestion.visitCount) * recencyWeight;
+        if (suggestion.isBookmarked) {
+            score += BOOKMARK_BONUS;
+        }
+        return score;
+    }
+    
+    // Keys: the URL without scheme/www, and the leading words of the title
+    private static String[] buildKeys(Suggestion suggestion) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(normalizeUrl(suggestion.url));
+        
+        if (suggestion.title != null) {
+            StringBuilder word = new StringBuilder();
+            String title = suggestion.title;
+            for (int i = 0; i <= title.length() && keys.size() <= MAX_TITLE_TOKENS; i++) {
+                char c = i < title.length() ? title.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) {
+                    word.append(Character.toLowerCase(c));
+                } else if (word.length() > 0) {
+                    if (word.length() > 1) {
+                        keys.add(word.toString());
+                    }
+                    word.setLength(0);
+                }
+            }
+        }
+        return keys.toArray(new String[0]);
+    }
+    
+    private static String normalizeUrl(String url) {
+        String normalized = url.toLowerCase();
+        if (normalized.startsWith("https://")) {
+            normalized = normalized.substring(8);
+        } else if (normalized.startsWith("http://")) {
+            normalized = normalized.substring(7);
+        }
+        if (normalized.startsWith("www.")) {
+            normalized = normalized.substring(4);
+        }
+        return normalized;
+    }
+    
+    private static boolean hasKeyWithPrefix(Suggestion suggestion, String query) {
+        for (String key : suggestion.keys) {
+            if (key.startsWith(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Compact trie node: parallel arrays for children, a bounded top list, and an overflow bucket at max depth
+    private static class TrieNode {
+        private char[] labels;
+        private TrieNode[] children;
+        private int childCount;
+        
+        private Suggestion[] top;
+        private int topCount;
+        
+        private List<Suggestion> bucket;
+        
+        TrieNode child(char c) {
+            for (int i = 0; i < childCount; i++) {
+                if (labels[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+        
+        TrieNode childOrCreate(char c) {
+            TrieNode existing = child(c);
+            if (existing != null) {
+                return existing;
+            }
+            if (labels == null) {
+                labels = new char[2];
+                children = new TrieNode[2];
+            } else if (childCount == labels.length) {
+                labels = Arrays.copyOf(labels, childCount * 2);
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            TrieNode node = new TrieNode();
+            labels[childCount] = c;
+            children[childCount] = node;
+            childCount++;
+            return node;
+        }
+        
+        // Keeps the TOP_PER_NODE highest scores, ordered best first
+        void offer(Suggestion suggestion) {
+            if (top == null) {
+                top = new Suggestion[TOP_PER_NODE];
+            }
+            
+            int index = -1;
+            for (int i = 0; i < topCount; i++) {
+                if (top[i] == suggestion) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                if (topCount < TOP_PER_NODE) {
+                    index = topCount++;
+                } else if (top[topCount - 1].score < suggestion.score || top[topCount - 1].removed) {
+                    index = topCount - 1;
+                } else {
+                    return;
+                }
+                top[index] = suggestion;
+            }
+            
+            // Bubble the updated entry into place
+            while (index > 0 && top[index - 1].score < top[index].score) {
+                Suggestion swap = top[index - 1];
+                top[index - 1] = top[index];
+                top[index] = swap;
+                index--;
+            }
+        }
+        
+        void addToBucket(Suggestion suggestion) {
+            if (bucket == null) {
+                bucket = new ArrayList<>(2);
+            }
+            if (!bucket.contains(suggestion)) {
+                bucket.add(suggestion);
+            }
+        }
+        
+        List<Suggestion> topList() {
+            List<Suggestion> list = new ArrayList<>(topCount);
+            for (int i = 0; i < topCount; i++) {
+                list.add(top[i]);
+            }
+            return list;
+        }
+        
+        List<Suggestion> bucketList() {
+            return bucket != null ? bucket : Collections.<Suggestion>emptyList();
+        }
+    }
+}
\ No newline at end of file